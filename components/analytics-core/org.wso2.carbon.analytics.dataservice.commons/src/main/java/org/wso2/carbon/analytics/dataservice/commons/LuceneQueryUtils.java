@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.wso2.carbon.analytics.dataservice.commons;
+
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema.ColumnType;
+
+/**
+ * This class contains utility methods for building the Lucene queries given to the AnalyticsDataService.
+ */
+public class LuceneQueryUtils {
+
+    private LuceneQueryUtils() {
+        /* utility class */
+    }
+
+    /**
+     * Escapes the given value to be used within a quoted Lucene query term.
+     */
+    public static String escapeQuotedValue(String value) {
+        if (value.indexOf('\\') == -1 && value.indexOf('"') == -1) {
+            return value;
+        }
+        StringBuilder builder = new StringBuilder(value.length() + 8);
+        char c;
+        for (int i = 0; i < value.length(); i++) {
+            c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Returns the open end of a Lucene range query on a column of the given type, as the maximum or minimum value
+     * of a numeric type, or a wildcard for the others.
+     */
+    public static String rangeExtentValue(ColumnType type, boolean max) {
+        switch (type) {
+        case DOUBLE:
+            return max ? Double.toString(Double.MAX_VALUE) : Double.toString(-Double.MAX_VALUE);
+        case FLOAT:
+            return max ? Float.toString(Float.MAX_VALUE) : Float.toString(-Float.MAX_VALUE);
+        case INTEGER:
+            return max ? Integer.toString(Integer.MAX_VALUE) : Integer.toString(Integer.MIN_VALUE);
+        case LONG:
+            return max ? Long.toString(Long.MAX_VALUE) : Long.toString(Long.MIN_VALUE);
+        default:
+            return "*";
+        }
+    }
+
+}
@@ -374,6 +374,17 @@ public interface AnalyticsDataService {
      */
 
     public void reIndex(int tenantId, String tableName, long startTime, long endTime) throws AnalyticsException;
+
+    /**
+     * Checks whether the index of a table covers all of its records. The columns which become indexed after records
+     * are added to the table do not have those records in the index, until the table is re-indexed over the
+     * whole time range, i.e. from {@link Long#MIN_VALUE} to {@link Long#MAX_VALUE}.
+     * @param tenantId The tenant id
+     * @param tableName The table name
+     * @return true if searching the index finds all the matching records of the table
+     * @throws AnalyticsException
+     */
+    public boolean isIndexComplete(int tenantId, String tableName) throws AnalyticsException;
     
     /**
      * This method waits until the current indexing operations for the system is done.
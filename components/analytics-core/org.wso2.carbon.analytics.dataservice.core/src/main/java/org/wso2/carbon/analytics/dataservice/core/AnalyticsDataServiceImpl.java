@@ -67,6 +67,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -106,6 +107,10 @@ public class AnalyticsDataServiceImpl implements AnalyticsDataService {
     private static final String TENANT_TABLE_MAPPING_TABLE_PREFIX = "__TENANT_MAPPING";
     
     private static final String TABLE_INFO_DATA_COLUMN = "TABLE_INFO_DATA";
+    
+    private static final String INDEX_STATUS_TABLE_NAME = "__INDEX_STATUS__";
+    
+    private static final String INDEX_STATUS_PENDING_COLUMNS_COLUMN = "PENDING_COLUMNS";
 
     private int recordsBatchSize;
 
@@ -115,6 +120,8 @@ public class AnalyticsDataServiceImpl implements AnalyticsDataService {
     
     private Map<String, AnalyticsTableInfo> tableInfoMap = new HashMap<String, AnalyticsTableInfo>();
     
+    private final Object indexStatusLock = new Object();
+    
     private String primaryARSName;
         
     private AnalyticsIndexedTableStore indexedTableStore;
@@ -425,11 +432,97 @@ public class AnalyticsDataServiceImpl implements AnalyticsDataService {
         this.checkInvalidIndexNames(schema.getColumns());
         this.checkInvalidScoreParams(schema.getColumns());
         AnalyticsTableInfo tableInfo = this.lookupTableInfo(tenantId, tableName);
+        this.checkAndAddPendingIndexColumns(tenantId, tableName, tableInfo.getRecordStoreName(), 
+                tableInfo.getSchema(), schema);
         tableInfo.setSchema(schema);
         this.writeTableInfo(tenantId, tableName, tableInfo);
         this.checkAndInvalidateTableInfo(tenantId, tableName);
     }
     
+    /**
+     * Records the columns which become indexed with the new schema, or stay indexed with a changed definition, 
+     * such as a new type or score param setting, as pending, if the table already has records, since those 
+     * records are not in the index of the columns as defined now until the table is re-indexed.
+     */
+    private void checkAndAddPendingIndexColumns(int tenantId, String tableName, String arsName, 
+            AnalyticsSchema currentSchema, AnalyticsSchema schema) throws AnalyticsException {
+        Set<String> columns = new HashSet<String>();
+        Map<String, ColumnDefinition> currentIndexedColumns = currentSchema == null ? 
+                new HashMap<String, ColumnDefinition>(0) : currentSchema.getIndexedColumns();
+        for (Map.Entry<String, ColumnDefinition> entry : schema.getIndexedColumns().entrySet()) {
+            if (!entry.getValue().equals(currentIndexedColumns.get(entry.getKey()))) {
+                columns.add(entry.getKey());
+            }
+        }
+        if (columns.isEmpty()) {
+            return;
+        }
+        AnalyticsRecordStore ars = this.getAnalyticsRecordStore(arsName);
+        if (GenericUtils.listRecords(ars, ars.get(tenantId, tableName, 1, null, Long.MIN_VALUE, 
+                Long.MAX_VALUE, 0, 1)).isEmpty()) {
+            return;
+        }
+        synchronized (this.indexStatusLock) {
+            Set<String> pendingColumns = this.readPendingIndexColumns(tenantId, tableName);
+            pendingColumns.addAll(columns);
+            this.writePendingIndexColumns(tenantId, tableName, pendingColumns);
+        }
+    }
+    
+    @SuppressWarnings("unchecked")
+    private Set<String> readPendingIndexColumns(int tenantId, String tableName) throws AnalyticsException {
+        AnalyticsRecordStore ars = this.getPrimaryAnalyticsRecordStore();
+        List<String> ids = new ArrayList<String>(1);
+        ids.add(GenericUtils.calculateTableIdentity(tenantId, tableName));
+        List<Record> records;
+        try {
+            records = GenericUtils.listRecords(ars, ars.get(TABLE_INFO_TENANT_ID, INDEX_STATUS_TABLE_NAME, 1, 
+                    null, ids));
+        } catch (AnalyticsTableNotAvailableException e) {
+            return new HashSet<String>(0);
+        }
+        if (records.size() == 0) {
+            return new HashSet<String>(0);
+        }
+        byte[] data = (byte[]) records.get(0).getValue(INDEX_STATUS_PENDING_COLUMNS_COLUMN);
+        if (data == null) {
+            throw new AnalyticsException("Corrupted index status for tenant id: " + tenantId + " table: " + tableName);
+        }
+        return (Set<String>) GenericUtils.deserializeObject(data);
+    }
+    
+    private void writePendingIndexColumns(int tenantId, String tableName, 
+            Set<String> pendingColumns) throws AnalyticsException {
+        AnalyticsRecordStore ars = this.getPrimaryAnalyticsRecordStore();
+        List<String> ids = new ArrayList<String>(1);
+        ids.add(GenericUtils.calculateTableIdentity(tenantId, tableName));
+        if (pendingColumns.isEmpty()) {
+            try {
+                ars.delete(TABLE_INFO_TENANT_ID, INDEX_STATUS_TABLE_NAME, ids);
+            } catch (AnalyticsTableNotAvailableException ignore) {
+                /* ignore */
+            }
+            return;
+        }
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put(INDEX_STATUS_PENDING_COLUMNS_COLUMN, GenericUtils.serializeObject(
+                new HashSet<String>(pendingColumns)));
+        List<Record> records = new ArrayList<Record>(1);
+        records.add(new Record(ids.get(0), TABLE_INFO_TENANT_ID, INDEX_STATUS_TABLE_NAME, values));
+        try {
+            ars.put(records);
+        } catch (AnalyticsTableNotAvailableException e) {
+            ars.createTable(TABLE_INFO_TENANT_ID, INDEX_STATUS_TABLE_NAME);
+            ars.put(records);
+        }
+    }
+    
+    @Override
+    public boolean isIndexComplete(int tenantId, String tableName) throws AnalyticsException {
+        tableName = GenericUtils.normalizeTableName(tableName);
+        return this.readPendingIndexColumns(tenantId, tableName).isEmpty();
+    }
+    
     private void checkAndInvalidateTableInfo(int tenantId, String tableName) throws AnalyticsException {
         AnalyticsClusterManager acm = AnalyticsServiceHolder.getAnalyticsClusterManager();
         if (acm.isClusteringEnabled()) {
@@ -538,6 +631,9 @@ public class AnalyticsDataServiceImpl implements AnalyticsDataService {
         }
         this.deleteTenantTableMapping(tenantId, tableName);
         this.deleteTableInfo(tenantId, tableName);
+        synchronized (this.indexStatusLock) {
+            this.writePendingIndexColumns(tenantId, tableName, new HashSet<String>(0));
+        }
         this.checkAndInvalidateTableInfo(tenantId, tableName);
         this.getAnalyticsRecordStore(arsName).deleteTable(tenantId, tableName);
         this.clearIndices(tenantId, tableName);
@@ -930,9 +1026,32 @@ public class AnalyticsDataServiceImpl implements AnalyticsDataService {
     @Override
     public void reIndex(int tenantId, String tableName, long startTime, long endTime)
             throws AnalyticsException {
-        String table = GenericUtils.normalizeTableName(tableName);
+        final String table = GenericUtils.normalizeTableName(tableName);
         if (this.isTableIndexed(this.lookupTableInfo(tenantId, table))) {
-            this.getIndexer().reIndex(tenantId, table, startTime, endTime);
+            Runnable onCompletion = null;
+            if (startTime == Long.MIN_VALUE && endTime == Long.MAX_VALUE) {
+                /* all the records are in the index of the columns pending before the re-indexing, once it is done */
+                final int tid = tenantId;
+                final Set<String> pendingColumns = this.readPendingIndexColumns(tenantId, table);
+                if (!pendingColumns.isEmpty()) {
+                    onCompletion = new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                synchronized (indexStatusLock) {
+                                    Set<String> columns = readPendingIndexColumns(tid, table);
+                                    columns.removeAll(pendingColumns);
+                                    writePendingIndexColumns(tid, table, columns);
+                                }
+                            } catch (AnalyticsException e) {
+                                logger.error("Error in updating the index status of table: " + table + 
+                                        " : " + e.getMessage(), e);
+                            }
+                        }
+                    };
+                }
+            }
+            this.getIndexer().reIndex(tenantId, table, startTime, endTime, onCompletion);
         }
     }
 
@@ -233,6 +233,10 @@ public class AnalyticsDataIndexer {
         return indexNodeCoordinator;
     }
     
+    public LocalIndexDataStore getLocalIndexDataStore() {
+        return localIndexDataStore;
+    }
+    
     public AnalyticsIndexerInfo getAnalyticsIndexerInfo() {
         return indexerInfo;
     }
@@ -286,6 +290,18 @@ public class AnalyticsDataIndexer {
         } while (processedCount < queueSizeAtStart);
     }
     
+    /* processes the queue of the given shard only until the operations up to the given sequence are committed,
+     * leaving the ones put after it to the indexing thread */
+    private synchronized void processIndexOperationsUntil(int shardIndex, long sequence) throws AnalyticsException {
+        long maxBatchCount = this.getShardIndexRecordBatchSize();
+        LocalIndexDataQueue queue = this.localIndexDataStore.getIndexDataQueue(shardIndex);
+        while (queue != null && queue.getCommittedCount() < sequence) {
+            if (this.processLocalShardDataQueue(shardIndex, queue, maxBatchCount)[0] == 0) {
+                break;
+            }
+        }
+    }
+    
     private long[] processLocalShardDataQueue(int shardIndex, LocalIndexDataQueue dataQueue, 
             long maxSize) throws AnalyticsException {
         if (dataQueue == null) {
@@ -1596,9 +1612,10 @@ public class AnalyticsDataIndexer {
                 throw new AnalyticsIndexException("Error in clearing index data: " + e.getMessage(), e);
             }
         }
+        this.localIndexDataStore.removeTableIndexMarks(tenantId, tableName);
     }
     
-    private String generateTableId(int tenantId, String tableName) {
+    String generateTableId(int tenantId, String tableName) {
         /* the table names are not case-sensitive */
         return tenantId + "_" + tableName.toLowerCase();
     }
@@ -1686,7 +1703,38 @@ public class AnalyticsDataIndexer {
     
     public void waitForIndexing(int tenantId, String tableName, long maxWait) 
             throws AnalyticsException {
-        this.waitForIndexing(maxWait);
+        this.indexNodeCoordinator.waitForIndexing(tenantId, tableName, maxWait);
+    }
+    
+    /**
+     * Waits until the index operations of the given table, which were put in the local shards before this call,
+     * are committed. Only the shards having such operations are processed, and only up to them, so the indexing
+     * backlog of the other tables, in other shards or put later in the same shards, is not waited upon.
+     */
+    public void waitForIndexingLocal(int tenantId, String tableName, long maxWait) 
+            throws AnalyticsException, AnalyticsTimeoutException {
+        long endTime = maxWait == -1 ? Long.MAX_VALUE : System.currentTimeMillis() + maxWait;
+        LocalIndexDataQueue queue;
+        for (Map.Entry<LocalIndexDataQueue, Long> entry : 
+                this.localIndexDataStore.getTableIndexMarks(tenantId, tableName).entrySet()) {
+            queue = entry.getKey();
+            while (queue.getCommittedCount() < entry.getValue()) {
+                /* the shard has been re-allocated since, along with its queue; an empty queue is not checked for,
+                 * as its operations may have been dequeued by another flush which has not committed them yet */
+                if (this.localIndexDataStore.getIndexDataQueue(queue.getShardIndex()) != queue) {
+                    break;
+                }
+                if (System.currentTimeMillis() > endTime) {
+                    throw new AnalyticsTimeoutException("Timed out waiting for local indexing operations of table '" + 
+                            tableName + "': " + maxWait);
+                }
+                try {
+                    this.processIndexOperationsUntil(queue.getShardIndex(), entry.getValue());
+                } catch (AnalyticsException e) {
+                    log.warn("Error in index operation flushing: " + e.getMessage(), e);
+                }
+            }
+        }
     }
     
     public AnalyticsIterator<Record> searchWithAggregates(final int tenantId, 
@@ -1893,13 +1941,23 @@ public class AnalyticsDataIndexer {
 
     public void reIndex(int tenantId, String table, long startTime, long endTime)
             throws AnalyticsException {
+        this.reIndex(tenantId, table, startTime, endTime, null);
+    }
+
+    /**
+     * Re-indexes the records of the given table in the background, running the given callback, if any, once all
+     * the records are committed to the index.
+     */
+    public void reIndex(int tenantId, String table, long startTime, long endTime, Runnable onCompletion)
+            throws AnalyticsException {
         if (this.reIndexWorkerExecutor == null) {
             this.reIndexWorkerExecutor = new ThreadPoolExecutor(0, REINDEX_THREAD_COUNT,
                                                                 Long.MAX_VALUE, TimeUnit.SECONDS,
                                                                 new ArrayBlockingQueue<Runnable>(REINDEX_QUEUE_LIMIT));
         }
         try {
-            this.reIndexWorkerExecutor.submit(new ReIndexWorker(tenantId, this, table, startTime, endTime));
+            this.reIndexWorkerExecutor.submit(new ReIndexWorker(tenantId, this, table, startTime, endTime,
+                    onCompletion));
         } catch (RejectedExecutionException e) {
             String msg = "Reindex operation limit has reached: " + REINDEX_QUEUE_LIMIT;
             throw new AnalyticsException(msg);
@@ -2024,13 +2082,16 @@ public class AnalyticsDataIndexer {
         private long fromTime;
         private int tenantId;
         private long toTime;
+        private Runnable onCompletion;
 
-        public ReIndexWorker(int tenantId, AnalyticsDataIndexer indexer, String tableName, long from, long to) {
+        public ReIndexWorker(int tenantId, AnalyticsDataIndexer indexer, String tableName, long from, long to,
+                             Runnable onCompletion) {
             this.indexer = indexer;
             this.tenantId = tenantId;
             this.tableName = tableName;
             this.fromTime = from;
             this.toTime = to;
+            this.onCompletion = onCompletion;
         }
 
         @Override
@@ -2054,6 +2115,10 @@ public class AnalyticsDataIndexer {
                     }
                     indexer.put(recordBatch);
                 }
+                if (this.onCompletion != null && !this.stop) {
+                    indexer.waitForIndexing(tenantId, tableName, -1);
+                    this.onCompletion.run();
+                }
             } catch (Throwable e) {
                 log.error("Error in re-indexing records: " + e.getMessage(), e);
             }
@@ -686,6 +686,15 @@ public class IndexNodeCoordinator implements GroupEventListener {
         }
     }
     
+    public void waitForIndexing(int tenantId, String tableName, long maxWait) throws AnalyticsException {
+        if (this.isClusteringEnabled()) {
+            AnalyticsClusterManager acm = AnalyticsServiceHolder.getAnalyticsClusterManager();
+            acm.executeAll(Constants.ANALYTICS_INDEXING_GROUP, new TableWaitForIndexingCall(tenantId, tableName, maxWait));
+        } else {
+            this.indexer.waitForIndexingLocal(tenantId, tableName, maxWait);
+        }
+    }
+    
     public void clearIndexData(int tenantId, String tableName) throws AnalyticsException {
         if (this.isClusteringEnabled()) {
             AnalyticsClusterManager acm = AnalyticsServiceHolder.getAnalyticsClusterManager();
@@ -875,6 +884,37 @@ public class IndexNodeCoordinator implements GroupEventListener {
         }
     }
     
+    public static class TableWaitForIndexingCall implements Callable<String>, Serializable {
+
+        private static final long serialVersionUID = 3950253170618457052L;
+        
+        private int tenantId;
+        
+        private String tableName;
+        
+        private long maxWait;
+        
+        public TableWaitForIndexingCall(int tenantId, String tableName, long maxWait) {
+            this.tenantId = tenantId;
+            this.tableName = tableName;
+            this.maxWait = maxWait;
+        }
+
+        @Override
+        public String call() throws Exception {
+            AnalyticsDataService ads = AnalyticsServiceHolder.getAnalyticsDataService();
+            if (ads == null) {
+                throw new AnalyticsException("The analytics data service implementation is not registered");
+            }
+            /* these cluster messages are specific to AnalyticsDataServiceImpl */
+            if (ads instanceof AnalyticsDataServiceImpl) {
+                AnalyticsDataServiceImpl adsImpl = (AnalyticsDataServiceImpl) ads;
+                adsImpl.getIndexer().waitForIndexingLocal(this.tenantId, this.tableName, this.maxWait);
+            }
+            return "OK";
+        }
+    }
+    
     public static class ClearIndexDataCall implements Callable<String>, Serializable {
 
         private static final long serialVersionUID = -5251608432054860585L;
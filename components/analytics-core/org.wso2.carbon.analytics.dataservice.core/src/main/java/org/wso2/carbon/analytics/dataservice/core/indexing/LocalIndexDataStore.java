@@ -32,8 +32,12 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.channels.ClosedByInterruptException;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Manages local indexing data.
@@ -46,6 +50,9 @@ public class LocalIndexDataStore {
     
     private Map<Integer, LocalIndexDataQueue> indexDataQueues;
     
+    /* the sequence of the latest index operation of each table, in each of the queues it was put in */
+    private ConcurrentMap<String, ConcurrentMap<LocalIndexDataQueue, Long>> tableIndexMarks = new ConcurrentHashMap<>();
+    
     public LocalIndexDataStore(AnalyticsDataIndexer indexer) throws AnalyticsException {
         this.indexer = indexer;
         this.indexDataQueues = new HashMap<Integer, LocalIndexDataQueue>();
@@ -54,6 +61,7 @@ public class LocalIndexDataStore {
     
     public void refreshLocalIndexShards() throws AnalyticsException {
         this.flushQueues();
+        this.tableIndexMarks.clear();
         for (int shardIndex : this.indexer.getLocalShards()) {
             this.indexDataQueues.put(shardIndex, new LocalIndexDataQueue(shardIndex));
         }
@@ -67,7 +75,14 @@ public class LocalIndexDataStore {
             if (dataList == null) {
                 continue;
             }
-            dataList.enqueue(new IndexOperation(false).setRecords(entry.getValue()));
+            long sequence = dataList.enqueue(new IndexOperation(false).setRecords(entry.getValue()));
+            Set<String> tableIds = new HashSet<>();
+            for (Record record : entry.getValue()) {
+                tableIds.add(this.indexer.generateTableId(record.getTenantId(), record.getTableName()));
+            }
+            for (String tableId : tableIds) {
+                this.markTableIndexOperation(tableId, dataList, sequence);
+            }
         }
     }
     
@@ -79,9 +94,46 @@ public class LocalIndexDataStore {
             if (dataList == null) {
                 continue;
             }
-            dataList.enqueue(new IndexOperation(true).setIds(entry.getValue()).
+            long sequence = dataList.enqueue(new IndexOperation(true).setIds(entry.getValue()).
                     setDeleteTenantId(tenantId).setDeleteTableName(tableName));
+            this.markTableIndexOperation(this.indexer.generateTableId(tenantId, tableName), dataList, sequence);
+        }
+    }
+    
+    private void markTableIndexOperation(String tableId, LocalIndexDataQueue queue, long sequence) {
+        ConcurrentMap<LocalIndexDataQueue, Long> marks = this.tableIndexMarks.get(tableId);
+        if (marks == null) {
+            marks = new ConcurrentHashMap<>();
+            ConcurrentMap<LocalIndexDataQueue, Long> existing = this.tableIndexMarks.putIfAbsent(tableId, marks);
+            if (existing != null) {
+                marks = existing;
+            }
         }
+        Long current;
+        do {
+            current = marks.putIfAbsent(queue, sequence);
+        } while (current != null && current < sequence && !marks.replace(queue, current, sequence));
+    }
+    
+    /**
+     * Returns the index operations of the given table put so far, as the sequence of the latest operation in
+     * each of the queues it was put in. Those operations are committed to the index when the committed count
+     * of each queue reaches its sequence.
+     */
+    public Map<LocalIndexDataQueue, Long> getTableIndexMarks(int tenantId, String tableName) {
+        Map<LocalIndexDataQueue, Long> marks = this.tableIndexMarks.get(this.indexer.generateTableId(tenantId, tableName));
+        if (marks == null) {
+            return new HashMap<>(0);
+        }
+        return new HashMap<>(marks);
+    }
+    
+    /**
+     * Removes the index operation marks of the given table, when its index data is cleared, as in a table delete.
+     * The waits for the table's indexing after that do not wait for the operations put before it.
+     */
+    public void removeTableIndexMarks(int tenantId, String tableName) {
+        this.tableIndexMarks.remove(this.indexer.generateTableId(tenantId, tableName));
     }
     
     private void flushQueues() {
@@ -202,9 +254,34 @@ public class LocalIndexDataStore {
                 
         private long removedDataSize = 0;
         
+        private int shardIndex;
+        
+        private final Object enqueueLock = new Object();
+        
+        private long enqueuedCount;
+        
+        private long primaryDequeuedCount;
+        
+        private volatile long committedCount;
+        
         public LocalIndexDataQueue(int shardIndex) throws AnalyticsException {
+            this.shardIndex = shardIndex;
             this.primaryQueue = this.createQueue(shardIndex + PRIMARY_QUEUE_SUFFIX);
             this.secondaryQueue = this.createQueue(shardIndex + SECONDARY_QUEUE_SUFFIX);
+            /* operations left over from an earlier run are counted as already enqueued */
+            this.enqueuedCount = this.primaryQueue.size();
+        }
+        
+        public int getShardIndex() {
+            return shardIndex;
+        }
+        
+        /**
+         * Returns the number of operations enqueued in this run, which have been processed; the operation
+         * with sequence n is processed when this count reaches n.
+         */
+        public long getCommittedCount() {
+            return committedCount;
         }
         
         private IBigQueue createQueue(String queueId) throws AnalyticsException {
@@ -217,9 +294,17 @@ public class LocalIndexDataStore {
             }
         }
         
-        public void enqueue(IndexOperation indexOp) throws AnalyticsException {
+        /**
+         * Enqueues the given index operation.
+         * @return The sequence of the operation in this queue
+         */
+        public long enqueue(IndexOperation indexOp) throws AnalyticsException {
+            byte[] data = indexOp.getBytes();
             try {
-                this.primaryQueue.enqueue(indexOp.getBytes());
+                synchronized (this.enqueueLock) {
+                    this.primaryQueue.enqueue(data);
+                    return ++this.enqueuedCount;
+                }
             } catch (ClosedByInterruptException e) {
                 throw new AnalyticsInterruptException("Error in index data enqueue (Interrupted..): " + e.getMessage(), e);
             } catch (IOException e) {
@@ -251,6 +336,9 @@ public class LocalIndexDataStore {
                 this.secondaryProcessedCount = 0;
             } catch (IOException e) {
                 throw new AnalyticsException("Error in end dequeue: " + e.getMessage(), e);
+            } finally {
+                this.committedCount += this.primaryDequeuedCount;
+                this.primaryDequeuedCount = 0;
             }
         }
         
@@ -269,6 +357,7 @@ public class LocalIndexDataStore {
                     data = this.primaryQueue.peek();
                     this.secondaryQueue.enqueue(data);
                     this.primaryQueue.dequeue();
+                    this.primaryDequeuedCount++;
                 }
                 this.secondaryProcessedCount++;
                 IndexOperation indexOp = IndexOperation.fromBytes(data);
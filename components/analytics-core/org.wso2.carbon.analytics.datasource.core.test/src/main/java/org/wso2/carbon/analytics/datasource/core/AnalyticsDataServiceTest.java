@@ -21,11 +21,14 @@ package org.wso2.carbon.analytics.datasource.core;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataService;
+import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataServiceImpl;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataServiceUtils;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsServiceHolder;
 import org.wso2.carbon.analytics.dataservice.core.clustering.AnalyticsClusterException;
 import org.wso2.carbon.analytics.dataservice.core.clustering.AnalyticsClusterManager;
 import org.wso2.carbon.analytics.dataservice.core.clustering.GroupEventListener;
+import org.wso2.carbon.analytics.dataservice.core.indexing.LocalIndexDataStore;
+import org.wso2.carbon.analytics.dataservice.core.indexing.LocalIndexDataStore.LocalIndexDataQueue;
 import org.wso2.carbon.analytics.dataservice.commons.AnalyticsDrillDownRequest;
 import org.wso2.carbon.analytics.dataservice.commons.SearchResultEntry;
 import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
@@ -338,6 +341,69 @@ public class AnalyticsDataServiceTest implements GroupEventListener {
         this.cleanupTable(tenantId, tableName);
     }
     
+    @Test (dependsOnMethods = "testSearchCount")
+    public void testTableIndexingWait() throws AnalyticsException {
+        int tenantId = 4;
+        String tableName = "Books";
+        this.cleanupTable(tenantId, tableName);
+        List<ColumnDefinition> columns = new ArrayList<>();
+        columns.add(new ColumnDefinition("STR1", ColumnType.STRING, true, false));
+        columns.add(new ColumnDefinition("TXT1", ColumnType.STRING, true, false));
+        this.service.createTable(tenantId, tableName);
+        this.service.setTableSchema(tenantId, tableName, new AnalyticsSchema(columns, null));
+        /* the records put are searchable right after the table's indexing wait returns */
+        for (int i = 0; i < 10; i++) {
+            this.service.put(this.generateIndexRecords(tenantId, tableName, 50, i * 50));
+            this.service.waitForIndexing(tenantId, tableName, DEFAULT_WAIT_TIME);
+            Assert.assertEquals(this.service.searchCount(tenantId, tableName, "TXT1:name"), (i + 1) * 50);
+        }
+        this.cleanupTable(tenantId, tableName);
+    }
+    
+    @Test (dependsOnMethods = "testTableIndexingWait")
+    public void testTableIndexingWaitWithBacklog() throws AnalyticsException {
+        int tenantId = 4;
+        String tableName = "Books", backlogTableName = "Journals";
+        this.cleanupTable(tenantId, tableName);
+        this.cleanupTable(tenantId, backlogTableName);
+        List<ColumnDefinition> columns = new ArrayList<>();
+        columns.add(new ColumnDefinition("STR1", ColumnType.STRING, true, false));
+        columns.add(new ColumnDefinition("TXT1", ColumnType.STRING, true, false));
+        this.service.createTable(tenantId, tableName);
+        this.service.setTableSchema(tenantId, tableName, new AnalyticsSchema(columns, null));
+        this.service.createTable(tenantId, backlogTableName);
+        this.service.setTableSchema(tenantId, backlogTableName, new AnalyticsSchema(columns, null));
+        this.service.put(this.generateIndexRecords(tenantId, tableName, 10, 0));
+        for (int i = 0; i < 20; i++) {
+            this.service.put(this.generateIndexRecords(tenantId, backlogTableName, 500, i * 500));
+        }
+        this.service.waitForIndexing(tenantId, tableName, DEFAULT_WAIT_TIME);
+        Assert.assertEquals(this.service.searchCount(tenantId, tableName, "TXT1:name"), 10);
+        LocalIndexDataStore indexDataStore = null;
+        if (this.service instanceof AnalyticsDataServiceImpl) {
+            indexDataStore = ((AnalyticsDataServiceImpl) this.service).getIndexer().getLocalIndexDataStore();
+            Map<LocalIndexDataQueue, Long> backlogMarks = indexDataStore.getTableIndexMarks(tenantId, 
+                    backlogTableName);
+            /* the wait only goes up to the table's own operations, which are ahead of the other table's backlog 
+             * put after them in the same shards */
+            for (Map.Entry<LocalIndexDataQueue, Long> entry : 
+                    indexDataStore.getTableIndexMarks(tenantId, tableName).entrySet()) {
+                Assert.assertTrue(entry.getKey().getCommittedCount() >= entry.getValue());
+                Long backlogMark = backlogMarks.get(entry.getKey());
+                Assert.assertTrue(backlogMark == null || backlogMark > entry.getValue());
+            }
+        }
+        this.service.waitForIndexing(tenantId, backlogTableName, DEFAULT_WAIT_TIME);
+        Assert.assertEquals(this.service.searchCount(tenantId, backlogTableName, "TXT1:name"), 10000);
+        /* a deleted table's marks are removed along with its index data */
+        this.service.deleteTable(tenantId, backlogTableName);
+        if (indexDataStore != null) {
+            Assert.assertEquals(indexDataStore.getTableIndexMarks(tenantId, backlogTableName).size(), 0);
+            Assert.assertTrue(indexDataStore.getTableIndexMarks(tenantId, tableName).size() > 0);
+        }
+        this.cleanupTable(tenantId, tableName);
+    }
+    
     @Test (dependsOnMethods = "testSearchCount")
     public void testIndexedDataUpdate() throws Exception {
         int tenantId = 1;
@@ -258,6 +258,11 @@ public class GenericUtils {
                 buffer.get(buff, 0, size);
                 colName = new String(buff, StandardCharsets.UTF_8);
                 type = buffer.get();
+                if (columns != null && !columns.contains(colName)) {
+                    /* the values of the columns that are not requested are skipped without decoding them */
+                    skipEncodedValue(buffer, type);
+                    continue;
+                }
                 switch (type) {
                     case DATA_TYPE_STRING:
                         size = buffer.getInt();
@@ -305,8 +310,9 @@ public class GenericUtils {
                     default:
                         throw new AnalyticsException("Unknown encoded data source type : " + type);
                 }
-                if (columns == null || columns.contains(colName)) {
-                    result.put(colName, value);
+                result.put(colName, value);
+                if (columns != null && result.size() == columns.size()) {
+                    break;
                 }
             }
         } catch (Exception e) {
@@ -315,6 +321,36 @@ public class GenericUtils {
         return result;
     }
 
+    private static void skipEncodedValue(ByteBuffer buffer, int type) throws AnalyticsException {
+        switch (type) {
+            case DATA_TYPE_STRING:
+            case DATA_TYPE_BINARY:
+            case DATA_TYPE_OBJECT:
+                int size = buffer.getInt();
+                buffer.position(buffer.position() + size);
+                break;
+            case DATA_TYPE_LONG:
+                buffer.position(buffer.position() + Long.SIZE / 8);
+                break;
+            case DATA_TYPE_DOUBLE:
+                buffer.position(buffer.position() + Double.SIZE / 8);
+                break;
+            case DATA_TYPE_BOOLEAN:
+                buffer.position(buffer.position() + Byte.SIZE / 8);
+                break;
+            case DATA_TYPE_INTEGER:
+                buffer.position(buffer.position() + Integer.SIZE / 8);
+                break;
+            case DATA_TYPE_FLOAT:
+                buffer.position(buffer.position() + Float.SIZE / 8);
+                break;
+            case DATA_TYPE_NULL:
+                break;
+            default:
+                throw new AnalyticsException("Unknown encoded data source type : " + type);
+        }
+    }
+
     @SuppressWarnings("unchecked")
     public static List<Record> listRecords(AnalyticsRecordStore rs,
                                            RecordGroup[] rgs) throws AnalyticsException {
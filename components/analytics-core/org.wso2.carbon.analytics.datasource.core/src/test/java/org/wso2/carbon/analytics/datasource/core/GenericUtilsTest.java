@@ -127,6 +127,33 @@ public class GenericUtilsTest {
         Assert.assertEquals(columns, columnsIn);
     }
     
+    @Test
+    public void testEncodeDecodeWithColumnsSkippedValues() throws AnalyticsException {
+        Map<String, Object> values = new HashMap<String, Object>();
+        values.put("C1", "ABC");
+        values.put("C2", this.generateBinaryData(500));
+        values.put("C3", 434);
+        values.put("C4", new BigDecimal(4491.99014));
+        values.put("C5", 4493855L);
+        values.put("C6", true);
+        values.put("C7", 445.6);
+        values.put("C8", 3.14f);
+        values.put("C9", null);
+        values.put("C10", "END");
+        byte[] data = GenericUtils.encodeRecordValues(values);
+        for (String column : values.keySet()) {
+            Set<String> columns = new HashSet<String>();
+            columns.add(column);
+            columns.add("C10");
+            Map<String, Object> valuesIn = GenericUtils.decodeRecordValues(data, columns);
+            Assert.assertEquals(valuesIn.keySet(), columns);
+            if (!"C2".equals(column)) {
+                Assert.assertEquals(valuesIn.get(column), values.get(column));
+            }
+            Assert.assertEquals(valuesIn.get("C10"), "END");
+        }
+    }
+    
     @Test
     public void testEncodeDecodeDataPerf() throws AnalyticsException {
         Map<String, Object> cols = new HashMap<String, Object>();
@@ -19,19 +19,25 @@ package org.wso2.carbon.analytics.datasource.cassandra;
 
 import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.DataType;
 import com.datastax.driver.core.Host;
+import com.datastax.driver.core.KeyspaceMetadata;
 import com.datastax.driver.core.Metadata;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
 import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.TableMetadata;
 import com.datastax.driver.core.TokenRange;
 import com.google.common.cache.CacheBuilder;
-
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.commons.collections.MultiHashMap;
 import org.apache.commons.collections.MultiMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.analytics.datasource.commons.AnalyticsIterator;
 import org.wso2.carbon.analytics.datasource.commons.Record;
 import org.wso2.carbon.analytics.datasource.commons.RecordGroup;
@@ -46,13 +52,18 @@ import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * This class represents the Cassandra implementation of {@link AnalyticsRecordStore}.
@@ -60,24 +71,94 @@ import java.util.concurrent.ConcurrentMap;
 @SuppressWarnings("deprecation")
 public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
 
+    private static final Log log = LogFactory.getLog(CassandraAnalyticsRecordStore.class);
+    
     private Session session;
     
     private PreparedStatement tableExistsStmt;
     
     private PreparedStatement timestampRecordDeleteStmt;
     
-    private PreparedStatement timestampRecordAddStmt;
+    private PreparedStatement timestampRangeSelectStmt;
+    
+    private PreparedStatement timestampRangeSelectWithLimitStmt;
+    
+    private PreparedStatement timestampTableSelectStmt;
+    
+    private PreparedStatement timestampTableProbeStmt;
+    
+    private PreparedStatement timestampTableDeleteStmt;
+    
+    private PreparedStatement tsBucketAddStmt;
+    
+    private PreparedStatement tsBucketRangeSelectStmt;
+    
+    private PreparedStatement tsBucketsDeleteStmt;
+    
+    private PreparedStatement tsIndexAddStmt;
+    
+    private PreparedStatement tsIndexAddWithDataStmt;
+    
+    private PreparedStatement tsIndexRangeSelectStmt;
+    
+    private PreparedStatement tsIndexRangeSelectWithLimitStmt;
+    
+    private PreparedStatement tsIndexRangeDataSelectStmt;
+    
+    private PreparedStatement tsIndexRangeDataSelectWithLimitStmt;
+    
+    private PreparedStatement tsIndexRecordDeleteStmt;
+    
+    private PreparedStatement tsIndexBucketDeleteStmt;
     
     private String ksName;
     
-    private ConcurrentMap<Object, Object> recordInsertStmtMap = CacheBuilder.newBuilder().maximumSize(
-            CassandraConstants.RECORD_INSERT_STATEMENTS_CACHE_SIZE).build().asMap();
+    private int asyncWriteWindowSize;
+    
+    private long tsIndexBucketSize;
+    
+    private Set<String> tsIndexDataTables;
+    
+    private Set<String> binaryDataTables;
+    
+    private boolean binaryDataCompression;
+    
+    private ExecutorService tsIndexMigrationExecutor;
+    
+    private ConcurrentMap<Object, Object> tableStmtsMap = CacheBuilder.newBuilder().maximumSize(
+            CassandraConstants.TABLE_STATEMENTS_CACHE_SIZE).build().asMap();
+    
+    private ConcurrentMap<Object, Object> binaryDataTablesMap = CacheBuilder.newBuilder().maximumSize(
+            CassandraConstants.TABLE_STATEMENTS_CACHE_SIZE).build().asMap();
+    
+    private Set<String> legacyTSIndexFreeTables = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    public CassandraAnalyticsRecordStore() { }
+
+    /**
+     * Creates a record store over an already connected session with the default settings, 
+     * without initializing the keyspace, used in tests.
+     */
+    CassandraAnalyticsRecordStore(Session session, String ksName) {
+        this.session = session;
+        this.ksName = ksName;
+        this.asyncWriteWindowSize = CassandraConstants.DEFAULT_ASYNC_WRITE_WINDOW_SIZE;
+        this.tsIndexBucketSize = CassandraConstants.DEFAULT_TS_INDEX_BUCKET_SIZE;
+        this.tsIndexDataTables = new HashSet<String>();
+        this.binaryDataTables = new HashSet<String>();
+        this.initCommonPreparedStatements();
+    }
 
     @Override
     public void init(Map<String, String> properties) throws AnalyticsException {
         String dsName = CassandraUtils.extractDataSourceName(properties);
         this.ksName = CassandraUtils.extractARSKSName(properties);
         String ksCreateQuery = CassandraUtils.generateCreateKeyspaceQuery(this.ksName, properties);
+        this.asyncWriteWindowSize = CassandraUtils.extractAsyncWriteWindowSize(properties);
+        this.tsIndexBucketSize = CassandraUtils.extractTSIndexBucketSize(properties);
+        this.tsIndexDataTables = CassandraUtils.extractTableNames(properties, CassandraConstants.TS_INDEX_DATA_TABLES);
+        this.binaryDataTables = CassandraUtils.extractTableNames(properties, CassandraConstants.BINARY_DATA_TABLES);
+        this.binaryDataCompression = Boolean.parseBoolean(properties.get(CassandraConstants.BINARY_DATA_COMPRESSION));
         try {
             Cluster cluster = (Cluster) GenericUtils.loadGlobalDataSource(dsName);
             if (cluster == null) {
@@ -89,9 +170,17 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
                         "client from Datasource");
             }
             this.session.execute(ksCreateQuery);
+            /* the legacy timestamp index, which is only read from and migrated to the bucketed index */
             this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + ".TS (tenantId INT, "
                     + "tableName VARCHAR, timestamp VARINT, id VARCHAR, PRIMARY KEY ((tenantId, tableName), timestamp))");
+            this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + ".TS_BUCKETS (tenantId INT, "
+                    + "tableName VARCHAR, bucket BIGINT, PRIMARY KEY ((tenantId, tableName), bucket))");
+            this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + ".TS_INDEX (tenantId INT, "
+                    + "tableName VARCHAR, bucket BIGINT, timestamp BIGINT, id VARCHAR, data BLOB, "
+                    + "PRIMARY KEY ((tenantId, tableName, bucket), timestamp, id))");
             this.initCommonPreparedStatements();
+            this.tsIndexMigrationExecutor = Executors.newSingleThreadExecutor();
+            this.tsIndexMigrationExecutor.submit(new LegacyTSIndexMigrator());
         } catch (DataSourceException e) {
             throw new AnalyticsException("Error establishing connection to Cassandra instance:" + e.getMessage(), e);
         }
@@ -102,24 +191,278 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
                 + "keyspace_name = ? and columnfamily_name = ?");
         this.timestampRecordDeleteStmt = session.prepare("DELETE FROM " + 
                 this.ksName + ".TS WHERE tenantId = ? AND tableName = ? and timestamp = ?");
-        this.timestampRecordAddStmt = session.prepare(
-                "INSERT INTO " + this.ksName + ".TS (tenantId, tableName, timestamp, id) VALUES (?, ?, ?, ?)");
+        this.timestampRangeSelectStmt = session.prepare("SELECT id, timestamp FROM " + this.ksName + 
+                ".TS WHERE tenantId = ? AND tableName = ? AND timestamp >= ? AND timestamp < ?");
+        this.timestampRangeSelectWithLimitStmt = session.prepare("SELECT id, timestamp FROM " + this.ksName + 
+                ".TS WHERE tenantId = ? AND tableName = ? AND timestamp >= ? AND timestamp < ? LIMIT ?");
+        this.timestampTableSelectStmt = session.prepare("SELECT id, timestamp FROM " + this.ksName + 
+                ".TS WHERE tenantId = ? AND tableName = ?");
+        this.timestampTableProbeStmt = session.prepare("SELECT id FROM " + this.ksName + 
+                ".TS WHERE tenantId = ? AND tableName = ? LIMIT 1");
+        this.timestampTableDeleteStmt = session.prepare("DELETE FROM " + 
+                this.ksName + ".TS WHERE tenantId = ? AND tableName = ?");
+        this.tsBucketAddStmt = session.prepare("INSERT INTO " + this.ksName + 
+                ".TS_BUCKETS (tenantId, tableName, bucket) VALUES (?, ?, ?)");
+        this.tsBucketRangeSelectStmt = session.prepare("SELECT bucket FROM " + this.ksName + 
+                ".TS_BUCKETS WHERE tenantId = ? AND tableName = ? AND bucket >= ? AND bucket < ?");
+        this.tsBucketsDeleteStmt = session.prepare("DELETE FROM " + this.ksName + 
+                ".TS_BUCKETS WHERE tenantId = ? AND tableName = ?");
+        this.tsIndexAddStmt = session.prepare("INSERT INTO " + this.ksName + 
+                ".TS_INDEX (tenantId, tableName, bucket, timestamp, id) VALUES (?, ?, ?, ?, ?)");
+        this.tsIndexAddWithDataStmt = session.prepare("INSERT INTO " + this.ksName + 
+                ".TS_INDEX (tenantId, tableName, bucket, timestamp, id, data) VALUES (?, ?, ?, ?, ?, ?)");
+        this.tsIndexRangeSelectStmt = session.prepare("SELECT id, timestamp FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ? AND timestamp >= ? AND timestamp < ?");
+        this.tsIndexRangeSelectWithLimitStmt = session.prepare("SELECT id, timestamp FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ? AND timestamp >= ? AND timestamp < ? "
+                + "LIMIT ?");
+        this.tsIndexRangeDataSelectStmt = session.prepare("SELECT id, timestamp, data FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ? AND timestamp >= ? AND timestamp < ?");
+        this.tsIndexRangeDataSelectWithLimitStmt = session.prepare("SELECT id, timestamp, data FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ? AND timestamp >= ? AND timestamp < ? "
+                + "LIMIT ?");
+        this.tsIndexRecordDeleteStmt = session.prepare("DELETE FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ? AND timestamp = ? AND id = ?");
+        this.tsIndexBucketDeleteStmt = session.prepare("DELETE FROM " + this.ksName + 
+                ".TS_INDEX WHERE tenantId = ? AND tableName = ? AND bucket = ?");
     }
     
-    private PreparedStatement retrieveRecordInsertStmt(String dataTable) {
-        PreparedStatement stmt = (PreparedStatement) this.recordInsertStmtMap.get(dataTable);
+    /**
+     * Returns the prepared statement for the given query of a data table, preparing it only once. 
+     * All the statements of a specific data table are kept together, so they can be evicted at once 
+     * when the table is deleted.
+     */
+    @SuppressWarnings("unchecked")
+    PreparedStatement retrieveTableStmt(String dataTable, String query) {
+        ConcurrentMap<String, PreparedStatement> stmts = (ConcurrentMap<String, PreparedStatement>) 
+                this.tableStmtsMap.get(dataTable);
+        if (stmts == null) {
+            stmts = new ConcurrentHashMap<String, PreparedStatement>();
+            ConcurrentMap<String, PreparedStatement> existingStmts = (ConcurrentMap<String, PreparedStatement>) 
+                    this.tableStmtsMap.putIfAbsent(dataTable, stmts);
+            if (existingStmts != null) {
+                stmts = existingStmts;
+            }
+        }
+        PreparedStatement stmt = stmts.get(query);
         if (stmt == null) {
-            synchronized (this.recordInsertStmtMap) {
-                stmt = (PreparedStatement) this.recordInsertStmtMap.get(dataTable);
+            synchronized (stmts) {
+                stmt = stmts.get(query);
                 if (stmt == null) {
-                    stmt = session.prepare("INSERT INTO " + this.ksName + "." + dataTable + 
-                            " (id, timestamp, data) VALUES (?, ?, ?)");
-                    this.recordInsertStmtMap.put(dataTable, stmt);
+                    stmt = this.session.prepare(query);
+                    stmts.put(query, stmt);
                 }
-            }            
+            }
         }
         return stmt;
     }
+    
+    void evictTableStmts(String dataTable) {
+        this.tableStmtsMap.remove(dataTable);
+    }
+    
+    private PreparedStatement retrieveRecordInsertStmt(String dataTable) {
+        return this.retrieveTableStmt(dataTable, "INSERT INTO " + this.ksName + "." + dataTable + 
+                " (id, timestamp, data) VALUES (?, ?, ?)");
+    }
+    
+    private PreparedStatement retrieveRecordsByIdsSelectStmt(String dataTable) {
+        return this.retrieveTableStmt(dataTable, "SELECT id, timestamp, data FROM " + this.ksName + "." + 
+                dataTable + " WHERE id IN ?");
+    }
+    
+    private PreparedStatement retrieveRecordTimestampsByIdsSelectStmt(String dataTable) {
+        return this.retrieveTableStmt(dataTable, "SELECT id, timestamp FROM " + this.ksName + "." + 
+                dataTable + " WHERE id IN ?");
+    }
+    
+    private PreparedStatement retrieveRecordsByIdsDeleteStmt(String dataTable) {
+        return this.retrieveTableStmt(dataTable, "DELETE FROM " + this.ksName + "." + dataTable + " WHERE id IN ?");
+    }
+    
+    private PreparedStatement retrieveAllRecordsSelectStmt(String dataTable, boolean withLimit) {
+        if (withLimit) {
+            return this.retrieveTableStmt(dataTable, "SELECT id, timestamp, data FROM " + this.ksName + "." + 
+                    dataTable + " LIMIT ?");
+        } else {
+            return this.retrieveTableStmt(dataTable, "SELECT id, timestamp, data FROM " + this.ksName + "." + 
+                    dataTable);
+        }
+    }
+    
+    private PreparedStatement retrieveTokenRangeRecordsSelectStmt(String dataTable, boolean withLimit) {
+        if (withLimit) {
+            return this.retrieveTableStmt(dataTable, "SELECT id, timestamp, data FROM " + this.ksName + "." + 
+                    dataTable + " WHERE token(id) > ? and token(id) <= ? LIMIT ?");
+        } else {
+            return this.retrieveTableStmt(dataTable, "SELECT id, timestamp, data FROM " + this.ksName + "." + 
+                    dataTable + " WHERE token(id) > ? and token(id) <= ?");
+        }
+    }
+    
+    private BigInteger toTSTableTimestampBoundary(long timestamp) {
+        return BigInteger.valueOf(timestamp).multiply(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER));
+    }
+    
+    private long fromTSTableTimestamp(BigInteger tsTableTimestamp) {
+        BigInteger[] result = tsTableTimestamp.divideAndRemainder(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER));
+        if (result[1].signum() < 0) {
+            return result[0].longValue() - 1;
+        } else {
+            return result[0].longValue();
+        }
+    }
+    
+    /**
+     * Returns the start time of the timestamp index bucket the given timestamp belongs to.
+     */
+    private long toTSBucket(long timestamp) {
+        long bucket = timestamp - (timestamp % this.tsIndexBucketSize);
+        if (bucket > timestamp) {
+            if (bucket < Long.MIN_VALUE + this.tsIndexBucketSize) {
+                return Long.MIN_VALUE;
+            }
+            bucket -= this.tsIndexBucketSize;
+        }
+        return bucket;
+    }
+    
+    /**
+     * The buckets are written with every batch instead of being remembered in this node, since the table
+     * may be deleted and re-created through another node, which removes its buckets.
+     */
+    private void registerTSBuckets(int tenantId, String tableName, Set<Long> buckets) {
+        for (Long bucket : buckets) {
+            this.session.execute(this.tsBucketAddStmt.bind(tenantId, tableName, bucket));
+        }
+    }
+    
+    private List<Long> lookupTSBuckets(int tenantId, String tableName, long timeFrom, long timeTo) {
+        List<Long> result = new ArrayList<Long>();
+        if (timeFrom >= timeTo) {
+            return result;
+        }
+        ResultSet rs = this.session.execute(this.tsBucketRangeSelectStmt.bind(tenantId, tableName, 
+                this.toTSBucket(timeFrom), timeTo));
+        for (Row row : rs) {
+            result.add(row.getLong(0));
+        }
+        return result;
+    }
+    
+    /**
+     * Checks if the given table does not have any entries left in the legacy timestamp index. Since new entries
+     * are never written to the legacy index, once a table is found to be free of it, it is remembered.
+     */
+    private boolean isLegacyTSIndexFree(int tenantId, String tableName) {
+        String dataTable = this.generateTargetDataTableName(tenantId, tableName);
+        if (this.legacyTSIndexFreeTables.contains(dataTable)) {
+            return true;
+        }
+        if (this.session.execute(this.timestampTableProbeStmt.bind(tenantId, tableName)).iterator().hasNext()) {
+            return false;
+        }
+        this.legacyTSIndexFreeTables.add(dataTable);
+        return true;
+    }
+    
+    /**
+     * Returns the timestamp index key of the given index row, which is the timestamp itself for the
+     * bucketed index, and the combined timestamp/hash value for the legacy index.
+     */
+    private Object extractTSIndexKey(Row row) {
+        if (DataType.varint().equals(row.getColumnDefinitions().getType(1))) {
+            return row.getVarint(1);
+        } else {
+            return row.getLong(1);
+        }
+    }
+    
+    /**
+     * Checks if the given table keeps the full record values in its timestamp index entries also, so 
+     * time range reads can be served from the index without looking up the records by their ids.
+     */
+    private boolean isTSIndexDataTable(String tableName) {
+        return this.tsIndexDataTables.contains(GenericUtils.normalizeTableName(tableName));
+    }
+    
+    private Iterator<Row> lookupTSIndexRows(int tenantId, String tableName, long timeFrom, long timeTo, int count, 
+            boolean withData) {
+        Iterator<Row> legacyItr = null;
+        if (!this.isLegacyTSIndexFree(tenantId, tableName)) {
+            BigInteger tsFrom = this.toTSTableTimestampBoundary(timeFrom);
+            BigInteger tsTo = this.toTSTableTimestampBoundary(timeTo);
+            if (count == -1) {
+                legacyItr = this.session.execute(this.timestampRangeSelectStmt.bind(tenantId, tableName, 
+                        tsFrom, tsTo)).iterator();
+            } else {
+                legacyItr = this.session.execute(this.timestampRangeSelectWithLimitStmt.bind(tenantId, tableName, 
+                        tsFrom, tsTo, count)).iterator();
+            }
+        }
+        return new TSIndexRowIterator(tenantId, tableName, timeFrom, timeTo, count, withData, legacyItr, 
+                this.lookupTSBuckets(tenantId, tableName, timeFrom, timeTo));
+    }
+    
+    private void addTSIndexEntries(int tenantId, String tableName, List<String> ids, List<Long> timestamps,
+            List<ByteBuffer> data) {
+        Map<Long, BatchStatement> bucketBatches = new HashMap<Long, BatchStatement>();
+        BatchStatement stmt;
+        long timestamp, bucket;
+        for (int i = 0; i < ids.size(); i++) {
+            timestamp = timestamps.get(i);
+            bucket = this.toTSBucket(timestamp);
+            stmt = bucketBatches.get(bucket);
+            if (stmt == null) {
+                stmt = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                bucketBatches.put(bucket, stmt);
+            }
+            if (data != null) {
+                stmt.add(this.tsIndexAddWithDataStmt.bind(tenantId, tableName, bucket, timestamp, ids.get(i), 
+                        data.get(i)));
+            } else {
+                stmt.add(this.tsIndexAddStmt.bind(tenantId, tableName, bucket, timestamp, ids.get(i)));
+            }
+        }
+        /* the buckets are registered first, so an index entry is never there without its bucket being known */
+        this.registerTSBuckets(tenantId, tableName, bucketBatches.keySet());
+        for (BatchStatement bucketBatch : bucketBatches.values()) {
+            this.session.execute(bucketBatch);
+        }
+    }
+    
+    /**
+     * Deletes the given timestamp index entries, where the keys are in the format returned by
+     * {@link #extractTSIndexKey(Row)}. The deletes are batched per index partition.
+     */
+    private void deleteTSIndexEntries(int tenantId, String tableName, List<String> ids, List<Object> keys) {
+        BatchStatement legacyStmt = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        Map<Long, BatchStatement> bucketBatches = new HashMap<Long, BatchStatement>();
+        BatchStatement stmt;
+        Object key;
+        long timestamp, bucket;
+        for (int i = 0; i < ids.size(); i++) {
+            key = keys.get(i);
+            if (key instanceof BigInteger) {
+                legacyStmt.add(this.timestampRecordDeleteStmt.bind(tenantId, tableName, key));
+            } else {
+                timestamp = (Long) key;
+                bucket = this.toTSBucket(timestamp);
+                stmt = bucketBatches.get(bucket);
+                if (stmt == null) {
+                    stmt = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                    bucketBatches.put(bucket, stmt);
+                }
+                stmt.add(this.tsIndexRecordDeleteStmt.bind(tenantId, tableName, bucket, timestamp, ids.get(i)));
+            }
+        }
+        if (!legacyStmt.getStatements().isEmpty()) {
+            this.session.execute(legacyStmt);
+        }
+        for (BatchStatement bucketBatch : bucketBatches.values()) {
+            this.session.execute(bucketBatch);
+        }
+    }
 
     private TokenRangeRecordGroup[] calculateTokenRangeGroups(int tenantId, String tableName, List<String> columns,
                                                               int numPartitionsHint, int count) {
@@ -195,49 +538,57 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         return GenericUtils.generateTableUUID(tenantId, tableName);
     }
 
+    /**
+     * Checks if the given data table stores its record values in a single binary column, rather than
+     * in a map column, which is decided when the table is created, so this is looked up from the table metadata.
+     */
+    boolean isBinaryDataTable(String dataTable) {
+        Boolean result = (Boolean) this.binaryDataTablesMap.get(dataTable);
+        if (result == null) {
+            KeyspaceMetadata ksMetadata = this.session.getCluster().getMetadata().getKeyspace(this.ksName);
+            TableMetadata tableMetadata = ksMetadata == null ? null : ksMetadata.getTable(dataTable);
+            if (tableMetadata == null) {
+                return false;
+            }
+            result = DataType.blob().equals(tableMetadata.getColumn("data").getType());
+            this.binaryDataTablesMap.put(dataTable, result);
+        }
+        return result;
+    }
+
     @Override
     public synchronized void createTable(int tenantId, String tableName) throws AnalyticsException {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
-        this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + "." + dataTable +
-                " (id VARCHAR, timestamp BIGINT, data MAP<VARCHAR, BLOB>, PRIMARY KEY (id))");
+        if (this.binaryDataTables.contains(GenericUtils.normalizeTableName(tableName))) {
+            this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + "." + dataTable +
+                    " (id VARCHAR, timestamp BIGINT, data BLOB, PRIMARY KEY (id))");
+        } else {
+            this.session.execute("CREATE TABLE IF NOT EXISTS " + this.ksName + "." + dataTable +
+                    " (id VARCHAR, timestamp BIGINT, data MAP<VARCHAR, BLOB>, PRIMARY KEY (id))");
+        }
     }
 
     @Override
     public void delete(int tenantId, String tableName, long timeFrom, long timeTo) 
             throws AnalyticsException, AnalyticsTableNotAvailableException {
-        ResultSet rs = this.session.execute("SELECT id, timestamp FROM " + this.ksName + 
-                ".TS WHERE tenantId = ? AND tableName = ? AND timestamp >= ? AND timestamp < ?",
-                tenantId, tableName, BigInteger.valueOf(timeFrom).multiply(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER)), 
-                BigInteger.valueOf(timeTo).multiply(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER)));
-        Iterator<Row> tsItr = rs.iterator();
+        Iterator<Row> tsItr = this.lookupTSIndexRows(tenantId, tableName, timeFrom, timeTo, -1, false);
         while (tsItr.hasNext()) {
             this.deleteWithTSItrBatch(tenantId, tableName, tsItr);
         }
     }
-
-    private List<BigInteger> extractTSTableTimestampList(ResultSet rs) {
-        List<BigInteger> result = new ArrayList<BigInteger>();
-        Iterator<Row> itr = rs.iterator();
-        Row row;
-        while (itr.hasNext()) {
-            row = itr.next();
-            result.add(this.toTSTableTimestamp(row.getLong(1), row.getString(0)));
-        }
-        return result;
-    }
     
     private void deleteWithTSItrBatch(int tenantId, String tableName, Iterator<Row> itr) {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
         List<String> ids = new ArrayList<String>();
-        BatchStatement stmt = new BatchStatement();
+        List<Object> keys = new ArrayList<Object>();
         Row row;
         for (int i = 0; i < CassandraConstants.STREAMING_BATCH_SIZE && itr.hasNext(); i++) {
             row = itr.next();
-            stmt.add(this.timestampRecordDeleteStmt.bind(tenantId, tableName, row.getVarint(1)));
             ids.add(row.getString(0));
+            keys.add(this.extractTSIndexKey(row));
         }
-        this.session.execute(stmt);
-        this.session.execute("DELETE FROM " + this.ksName + "." + dataTable + " WHERE id IN ?", ids);
+        this.deleteTSIndexEntries(tenantId, tableName, ids, keys);
+        this.session.execute(this.retrieveRecordsByIdsDeleteStmt(dataTable).bind(ids));
     }
     
     @Override
@@ -245,33 +596,47 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
             throws AnalyticsException, AnalyticsTableNotAvailableException {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
         this.deleteTSEntriesOfRecords(tenantId, tableName, dataTable, ids);
-        this.session.execute("DELETE FROM " + this.ksName + "." + dataTable + " WHERE id IN ?", ids);
+        this.session.execute(this.retrieveRecordsByIdsDeleteStmt(dataTable).bind(ids));
     }
     
     private void deleteTSEntriesOfRecords(int tenantId, String tableName, String dataTable, List<String> recordIds) {
-        ResultSet rs = this.session.execute("SELECT id, timestamp FROM " + this.ksName + "." + dataTable + 
-                " WHERE id IN ?", recordIds);
-        List<BigInteger> tsTableTimestamps = this.extractTSTableTimestampList(rs);        
-        this.deleteTSEntries(tenantId, tableName, tsTableTimestamps);
-    }
-    
-    private void deleteTSEntries(int tenantId, String tableName, Collection<BigInteger> tsTableTimestamps) {
-        BatchStatement stmt = new BatchStatement();
-        for (BigInteger ts : tsTableTimestamps) {
-            stmt.add(this.timestampRecordDeleteStmt.bind(tenantId, tableName, ts));
+        ResultSet rs = this.session.execute(this.retrieveRecordTimestampsByIdsSelectStmt(dataTable).bind(recordIds));
+        boolean legacyTSIndexFree = this.isLegacyTSIndexFree(tenantId, tableName);
+        List<String> ids = new ArrayList<String>();
+        List<Object> keys = new ArrayList<Object>();
+        String id;
+        long timestamp;
+        for (Row row : rs) {
+            id = row.getString(0);
+            timestamp = row.getLong(1);
+            ids.add(id);
+            keys.add(timestamp);
+            if (!legacyTSIndexFree) {
+                ids.add(id);
+                keys.add(this.toTSTableTimestamp(timestamp, id));
+            }
         }
-        this.session.execute(stmt);
+        this.deleteTSIndexEntries(tenantId, tableName, ids, keys);
     }
 
     @Override
     public synchronized void deleteTable(int tenantId, String tableName) throws AnalyticsException {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
-        this.session.execute("DELETE FROM " + this.ksName + ".TS WHERE tenantId = ? AND tableName = ?", tenantId, tableName);
+        for (Long bucket : this.lookupTSBuckets(tenantId, tableName, Long.MIN_VALUE, Long.MAX_VALUE)) {
+            this.session.execute(this.tsIndexBucketDeleteStmt.bind(tenantId, tableName, bucket));
+        }
+        this.session.execute(this.tsBucketsDeleteStmt.bind(tenantId, tableName));
+        this.session.execute(this.timestampTableDeleteStmt.bind(tenantId, tableName));
         this.session.execute("DROP TABLE IF EXISTS " + this.ksName + "." + dataTable);
+        this.evictTableStmts(dataTable);
+        this.binaryDataTablesMap.remove(dataTable);
     }
 
     @Override
     public void destroy() throws AnalyticsException {
+        if (this.tsIndexMigrationExecutor != null) {
+            this.tsIndexMigrationExecutor.shutdownNow();
+        }
         if (this.session != null) {
             this.session.close();
         }
@@ -331,28 +696,23 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
         List<String> columns = recordGroup.getColumns();
         ResultSet rs;
-        String query;
         int count = recordGroup.getCount();
         if (recordGroup.getTimeFrom() == Long.MIN_VALUE && recordGroup.getTimeTo() == Long.MAX_VALUE) {
             if (count == -1) {
-                query = "SELECT id, timestamp, data FROM " + this.ksName + "." + dataTable;
+                rs = this.session.execute(this.retrieveAllRecordsSelectStmt(dataTable, false).bind());
             } else {
-                query = "SELECT id, timestamp, data FROM " + this.ksName + "." + dataTable + " LIMIT " + count;
+                rs = this.session.execute(this.retrieveAllRecordsSelectStmt(dataTable, true).bind(count));
             }
-            rs = this.session.execute(query);
             return this.lookupRecordsByDirectRS(tenantId, tableName, rs, columns);
         } else {
-            if (count == -1) {
-                query = "SELECT id, timestamp FROM " + this.ksName + ".TS WHERE tenantId = ? AND tableName = ? "
-                        + "AND timestamp >= ? AND timestamp < ?";
+            boolean tsIndexData = this.isTSIndexDataTable(tableName);
+            Iterator<Row> tsItr = this.lookupTSIndexRows(tenantId, tableName, recordGroup.getTimeFrom(), 
+                    recordGroup.getTimeTo(), count, tsIndexData);
+            if (tsIndexData) {
+                return new CassandraTSIndexDataIterator(tenantId, tableName, tsItr, columns);
             } else {
-                query = "SELECT id, timestamp FROM " + this.ksName + ".TS WHERE tenantId = ? AND tableName = ? "
-                        + "AND timestamp >= ? AND timestamp < ? LIMIT " + count;
+                return new CassandraRecordTSBasedIDDataIterator(tenantId, tableName, tsItr, columns);
             }
-            ResultSet tsrs = this.session.execute(query, tenantId, tableName,
-                    BigInteger.valueOf(recordGroup.getTimeFrom()).multiply(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER)),
-                    BigInteger.valueOf(recordGroup.getTimeTo()).multiply(BigInteger.valueOf(CassandraConstants.TS_MULTIPLIER)));
-            return new CassandraRecordTSBasedIDDataIterator(tenantId, tableName, tsrs.iterator(), columns);
         }
     }
     
@@ -363,8 +723,7 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
     
     private AnalyticsIterator<Record> lookupRecordsByIds(int tenantId, String tableName, List<String> ids, List<String> columns) {
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
-        ResultSet rs = this.session.execute("SELECT id, timestamp, data FROM " + this.ksName + 
-                "." + dataTable + " WHERE id IN ?", ids);
+        ResultSet rs = this.session.execute(this.retrieveRecordsByIdsSelectStmt(dataTable).bind(ids));
         return this.lookupRecordsByDirectRS(tenantId, tableName, rs, columns);
     }
     
@@ -380,6 +739,9 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
     @Override
     public long getRecordCount(int tenantId, String tableName, long timeFrom, long timeTo) 
             throws AnalyticsException, AnalyticsTableNotAvailableException {
+        /* the record count is intentionally not supported, since counting a range in Cassandra means reading
+         * all of its timestamp index entries, which is as expensive as reading the records themselves, 
+         * so this is reported through isRecordCountSupported() for the callers to not depend on it */
         return -1;
     }
 
@@ -420,9 +782,12 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         String tableName = firstRecord.getTableName();
         String dataTable = this.generateTargetDataTableName(tenantId, tableName);
         try {
-            //this.deleteTSEntries(tenantId, tableName, dataTable, this.extractRecordIds(batch));
+            boolean tsIndexData = this.isTSIndexDataTable(tableName);
+            if (tsIndexData) {
+                this.deleteUpdatedTSIndexEntries(tenantId, tableName, dataTable, batch);
+            }
             this.addRawRecordBatch(dataTable, batch);
-            this.addTSRecordBatch(tenantId, tableName, batch);
+            this.addTSRecordBatch(tenantId, tableName, batch, tsIndexData);
         } catch (Exception e) {
             if (!this.tableExists(tenantId, tableName)) {
                 throw new AnalyticsTableNotAvailableException(tenantId, tableName);
@@ -432,22 +797,91 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         }
     }
     
-    private void addRawRecordBatch(String dataTable, List<Record> batch) {
+    /**
+     * The records of the data table are partitioned by their ids, so each record lives in its own partition,
+     * and batching them would only make the coordinator fan out the writes. So they are sent as individual
+     * asynchronous writes, where the number of in-flight writes is bounded by the async write window.
+     */
+    private void addRawRecordBatch(String dataTable, List<Record> batch) throws AnalyticsException {
         PreparedStatement ps = this.retrieveRecordInsertStmt(dataTable);
-        BatchStatement stmt = new BatchStatement();
+        boolean binaryData = this.isBinaryDataTable(dataTable);
+        Object data;
+        final Semaphore window = new Semaphore(this.asyncWriteWindowSize);
+        List<ResultSetFuture> futures = new ArrayList<ResultSetFuture>(batch.size());
+        ResultSetFuture future;
         for (Record record : batch) {
-            stmt.add(ps.bind(record.getId(), record.getTimestamp(), this.getDataMapFromValues(record.getValues())));
+            if (binaryData) {
+                data = CassandraUtils.encodeBinaryData(record.getValues(), this.binaryDataCompression);
+            } else {
+                data = this.getDataMapFromValues(record.getValues());
+            }
+            window.acquireUninterruptibly();
+            future = this.session.executeAsync(ps.bind(record.getId(), record.getTimestamp(), data));
+            future.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    window.release();
+                }
+            }, MoreExecutors.sameThreadExecutor());
+            futures.add(future);
+        }
+        for (ResultSetFuture entry : futures) {
+            entry.getUninterruptibly();
         }
-        this.session.execute(stmt);
     }
-        
-    private void addTSRecordBatch(int tenantId, String tableName, List<Record> batch) {
-        BatchStatement stmt = new BatchStatement();
+    
+    /**
+     * The timestamp index entries of a record batch are grouped by their time buckets, where each
+     * bucket is a single (tenantId, tableName, bucket) partition, so a single partition batch is used per bucket.
+     */
+    private void addTSRecordBatch(int tenantId, String tableName, List<Record> batch, 
+            boolean tsIndexData) throws AnalyticsException {
+        List<String> ids = new ArrayList<String>(batch.size());
+        List<Long> timestamps = new ArrayList<Long>(batch.size());
+        List<ByteBuffer> data = null;
+        if (tsIndexData) {
+            data = new ArrayList<ByteBuffer>(batch.size());
+        }
+        for (Record record : batch) {
+            ids.add(record.getId());
+            timestamps.add(record.getTimestamp());
+            if (tsIndexData) {
+                data.add(ByteBuffer.wrap(GenericUtils.encodeRecordValues(record.getValues())));
+            }
+        }
+        this.addTSIndexEntries(tenantId, tableName, ids, timestamps, data);
+    }
+    
+    /**
+     * The timestamp index entries of tables which keep the record values in the index are read without 
+     * validating them against the data table, so when an existing record is updated with a different
+     * timestamp, its earlier index entry is removed here, before the record is written.
+     */
+    private void deleteUpdatedTSIndexEntries(int tenantId, String tableName, String dataTable, 
+            List<Record> batch) {
+        Map<String, Long> newTimestamps = new HashMap<String, Long>(batch.size());
         for (Record record : batch) {
-            stmt.add(this.timestampRecordAddStmt.bind(tenantId, tableName, this.toTSTableTimestamp(record.getTimestamp(), 
-                    record.getId()), record.getId()));
+            newTimestamps.put(record.getId(), record.getTimestamp());
+        }
+        List<String> ids = new ArrayList<String>();
+        List<Object> keys = new ArrayList<Object>();
+        PreparedStatement ps = this.retrieveRecordTimestampsByIdsSelectStmt(dataTable);
+        String id;
+        long timestamp;
+        for (List<String> idBatch : Lists.partition(new ArrayList<String>(newTimestamps.keySet()), 
+                CassandraConstants.STREAMING_BATCH_SIZE)) {
+            for (Row row : this.session.execute(ps.bind(idBatch))) {
+                id = row.getString(0);
+                timestamp = row.getLong(1);
+                if (timestamp != newTimestamps.get(id)) {
+                    ids.add(id);
+                    keys.add(timestamp);
+                }
+            }
+        }
+        if (!ids.isEmpty()) {
+            this.deleteTSIndexEntries(tenantId, tableName, ids, keys);
         }
-        this.session.execute(stmt);
     }
 
     private boolean tableExists(int tenantId, String tableName) throws AnalyticsException {
@@ -489,15 +923,14 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         private void populateNextTokenRangeData() {
             String dataTable = generateTargetDataTableName(tenantId, tableName);
             CassandraTokenRange tokenRange = this.tokenRangesItr.next();
-            String query;
+            ResultSet rs;
             if (this.count == -1) {
-                query = "SELECT id, timestamp, data FROM " + ksName + "." + dataTable + 
-                        " WHERE token(id) > ? and token(id) <= ?";
+                rs = session.execute(retrieveTokenRangeRecordsSelectStmt(dataTable, false).bind(
+                        tokenRange.getStart(), tokenRange.getEnd()));
             } else {
-                query = "SELECT id, timestamp, data FROM " + ksName + "." + dataTable + 
-                        " WHERE token(id) > ? and token(id) <= ? LIMIT " + this.count;
+                rs = session.execute(retrieveTokenRangeRecordsSelectStmt(dataTable, true).bind(
+                        tokenRange.getStart(), tokenRange.getEnd(), this.count));
             }
-            ResultSet rs = session.execute(query, tokenRange.getStart(), tokenRange.getEnd());
             this.dataItr = lookupRecordsByDirectRS(this.tenantId, this.tableName, rs, this.columns);
         }
 
@@ -574,7 +1007,7 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
                 ids.add(row.getString(0));
             }
             String dataTable = generateTargetDataTableName(this.tenantId, this.tableName);
-            ResultSet rs = session.execute("SELECT id, timestamp, data FROM " + ksName + "." + dataTable + " WHERE id IN ?", ids);
+            ResultSet rs = session.execute(retrieveRecordsByIdsSelectStmt(dataTable).bind(ids));
             this.dataItr = new CassandraDirectDataIterator(this.tenantId, this.tableName, rs.iterator(), this.columns);
         }
         
@@ -633,10 +1066,11 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
             Row row;
             for (int i = 0; i < CassandraConstants.STREAMING_BATCH_SIZE && this.resultSetItr.hasNext(); i++) {
                 row = this.resultSetItr.next();
-                tsIds.put(row.getString(0), row.getVarint(1));
+                tsIds.put(row.getString(0), extractTSIndexKey(row));
             }
             String dataTable = generateTargetDataTableName(this.tenantId, this.tableName);
-            ResultSet rs = session.execute("SELECT id, timestamp, data FROM " + ksName + "." + dataTable + " WHERE id IN ?", tsIds.keySet());
+            ResultSet rs = session.execute(retrieveRecordsByIdsSelectStmt(dataTable).bind(
+                    new ArrayList<Object>(tsIds.keySet())));
             this.dataItr = new CassandraTSValidatingDirectDataIterator(this.tenantId, this.tableName, rs.iterator(), this.columns, tsIds);
         }
         
@@ -679,6 +1113,9 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         @Override
         public Record next() {
             Row row = this.resultSetItr.next();
+            if (DataType.blob().equals(row.getColumnDefinitions().getType(2))) {
+                return this.extractRecordFromBinaryData(row);
+            }
             Map<String, Object> values;
             Map<String, ByteBuffer> binaryValues = row.getMap(2, String.class, ByteBuffer.class);
             if (this.columns == null) {
@@ -697,6 +1134,20 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
             return new Record(row.getString(0), this.tenantId, this.tableName, values, row.getLong(1));
         }
         
+        private Record extractRecordFromBinaryData(Row row) {
+            Map<String, Object> values;
+            try {
+                if (row.isNull(2)) {
+                    values = new HashMap<String, Object>(0);
+                } else {
+                    values = CassandraUtils.decodeBinaryData(row.getBytes(2), this.columns);
+                }
+            } catch (AnalyticsException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            return new Record(row.getString(0), this.tenantId, this.tableName, values, row.getLong(1));
+        }
+        
         @Override
         public void remove() {
             throw new UnsupportedOperationException();
@@ -751,12 +1202,13 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
         }
         
         private Record validateRecordAndReturn(Record record) {
-            BigInteger targetTS = toTSTableTimestamp(record.getTimestamp(), record.getId());
             @SuppressWarnings("unchecked")
-            Collection<BigInteger> tss = (Collection<BigInteger>) tsIds.get(record.getId());
-            boolean removed = tss.remove(targetTS);
+            Collection<Object> tss = (Collection<Object>) tsIds.get(record.getId());
+            boolean removed = tss.remove(record.getTimestamp());
+            /* the same record can be there in the legacy index also, while it is being migrated */
+            removed |= tss.remove(toTSTableTimestamp(record.getTimestamp(), record.getId()));
             if (!tss.isEmpty()) {
-                this.removeTSEntries(tss);
+                this.removeTSEntries(record.getId(), tss);
             }
             if (removed) {
                 return record;
@@ -765,8 +1217,253 @@ public class CassandraAnalyticsRecordStore implements AnalyticsRecordStore {
             }
         }
         
-        private void removeTSEntries(Collection<BigInteger> tss) {
-            deleteTSEntries(this.tenantId, this.tableName, tss);
+        private void removeTSEntries(String id, Collection<Object> tss) {
+            deleteTSIndexEntries(this.tenantId, this.tableName, Collections.nCopies(tss.size(), id), 
+                    new ArrayList<Object>(tss));
+        }
+        
+    }
+    
+    /**
+     * Cassandra data {@link AnalyticsIterator} implementation for streaming, which reads the record values
+     * directly from the timestamp index entries. The index entries which do not contain the values, i.e. legacy
+     * entries or entries written before the table was configured to keep its values in the index, are looked up 
+     * by their record ids.
+     */
+    public class CassandraTSIndexDataIterator implements AnalyticsIterator<Record> {
+        
+        private int tenantId;
+        
+        private String tableName;
+        
+        private List<String> columns;
+        
+        private Set<String> columnSet;
+        
+        private Iterator<Row> resultSetItr;
+        
+        private Iterator<Record> dataItr;
+        
+        public CassandraTSIndexDataIterator(int tenantId, String tableName, Iterator<Row> resultSetItr, 
+                List<String> columns) {
+            this.tenantId = tenantId;
+            this.tableName = tableName;
+            this.columns = columns;
+            if (columns != null) {
+                this.columnSet = new HashSet<String>(columns);
+            }
+            this.resultSetItr = resultSetItr;
+        }
+        
+        private void populateBatch() {
+            List<Record> records = new ArrayList<Record>(CassandraConstants.STREAMING_BATCH_SIZE);
+            MultiMap tsIds = new MultiHashMap();
+            Row row;
+            try {
+                for (int i = 0; i < CassandraConstants.STREAMING_BATCH_SIZE && this.resultSetItr.hasNext(); i++) {
+                    row = this.resultSetItr.next();
+                    if (row.getColumnDefinitions().size() > 2 && !row.isNull(2)) {
+                        records.add(new Record(row.getString(0), this.tenantId, this.tableName, 
+                                GenericUtils.decodeRecordValues(this.extractBytes(row.getBytes(2)), this.columnSet), 
+                                row.getLong(1)));
+                    } else {
+                        tsIds.put(row.getString(0), extractTSIndexKey(row));
+                    }
+                }
+            } catch (AnalyticsException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+            if (!tsIds.isEmpty()) {
+                String dataTable = generateTargetDataTableName(this.tenantId, this.tableName);
+                ResultSet rs = session.execute(retrieveRecordsByIdsSelectStmt(dataTable).bind(
+                        new ArrayList<Object>(tsIds.keySet())));
+                Iterator<Record> itr = new CassandraTSValidatingDirectDataIterator(this.tenantId, this.tableName, 
+                        rs.iterator(), this.columns, tsIds);
+                while (itr.hasNext()) {
+                    records.add(itr.next());
+                }
+            }
+            this.dataItr = records.iterator();
+        }
+        
+        private byte[] extractBytes(ByteBuffer byteBuffer) {
+            byte[] data = new byte[byteBuffer.remaining()];
+            byteBuffer.get(data);
+            return data;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (this.dataItr == null) {
+                if (this.resultSetItr.hasNext()) {
+                    this.populateBatch();
+                } else {
+                    return false;
+                }
+            }
+            if (this.dataItr.hasNext()) {
+                return true;
+            } else {
+                this.dataItr = null;
+                return this.hasNext();
+            }
+        }
+
+        @Override
+        public Record next() {
+            if (this.hasNext()) {
+                return this.dataItr.next();
+            } else {
+                return null;
+            }
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() throws IOException {
+            /** nothing to do **/
+        }
+        
+    }
+    
+    /**
+     * {@link Iterator} implementation for reading the timestamp index rows of a time range, which first reads the 
+     * rows that are still in the legacy index, and then the bucketed index, one bucket partition at a time.
+     */
+    private class TSIndexRowIterator implements Iterator<Row> {
+        
+        private int tenantId;
+        
+        private String tableName;
+        
+        private long timeFrom;
+        
+        private long timeTo;
+        
+        private int count;
+        
+        private boolean withData;
+        
+        private Iterator<Row> currentItr;
+        
+        private Iterator<Long> bucketsItr;
+        
+        public TSIndexRowIterator(int tenantId, String tableName, long timeFrom, long timeTo, int count, 
+                boolean withData, Iterator<Row> legacyItr, List<Long> buckets) {
+            this.tenantId = tenantId;
+            this.tableName = tableName;
+            this.timeFrom = timeFrom;
+            this.timeTo = timeTo;
+            this.count = count;
+            this.withData = withData;
+            this.currentItr = legacyItr;
+            this.bucketsItr = buckets.iterator();
+        }
+        
+        private Iterator<Row> lookupNextBucketRows() {
+            Long bucket = this.bucketsItr.next();
+            PreparedStatement ps;
+            if (this.count == -1) {
+                ps = this.withData ? tsIndexRangeDataSelectStmt : tsIndexRangeSelectStmt;
+                return session.execute(ps.bind(this.tenantId, this.tableName, bucket, 
+                        this.timeFrom, this.timeTo)).iterator();
+            } else {
+                ps = this.withData ? tsIndexRangeDataSelectWithLimitStmt : tsIndexRangeSelectWithLimitStmt;
+                return session.execute(ps.bind(this.tenantId, this.tableName, bucket, 
+                        this.timeFrom, this.timeTo, this.count)).iterator();
+            }
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (this.count == 0) {
+                return false;
+            }
+            while (this.currentItr == null || !this.currentItr.hasNext()) {
+                if (this.bucketsItr.hasNext()) {
+                    this.currentItr = this.lookupNextBucketRows();
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+        
+        @Override
+        public Row next() {
+            if (this.hasNext()) {
+                if (this.count > 0) {
+                    this.count--;
+                }
+                return this.currentItr.next();
+            } else {
+                return null;
+            }
+        }
+        
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+        
+    }
+    
+    /**
+     * Background task which moves the entries of the legacy timestamp index to the bucketed index,
+     * table by table, removing the legacy entries as they are migrated.
+     */
+    private class LegacyTSIndexMigrator implements Runnable {
+        
+        @Override
+        public void run() {
+            try {
+                ResultSet rs = session.execute("SELECT DISTINCT tenantId, tableName FROM " + ksName + ".TS");
+                for (Row row : rs) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        return;
+                    }
+                    this.migrateTable(row.getInt(0), row.getString(1));
+                }
+            } catch (Exception e) {
+                log.error("Error in migrating the legacy Cassandra timestamp index: " + e.getMessage(), e);
+            }
+        }
+        
+        private void migrateTable(int tenantId, String tableName) {
+            Iterator<Row> itr = session.execute(timestampTableSelectStmt.bind(tenantId, tableName)).iterator();
+            List<String> ids = new ArrayList<String>(CassandraConstants.STREAMING_BATCH_SIZE);
+            List<Long> timestamps = new ArrayList<Long>(CassandraConstants.STREAMING_BATCH_SIZE);
+            List<Object> legacyKeys = new ArrayList<Object>(CassandraConstants.STREAMING_BATCH_SIZE);
+            BigInteger legacyKey;
+            Row row;
+            long migratedCount = 0;
+            while (itr.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                ids.clear();
+                timestamps.clear();
+                legacyKeys.clear();
+                for (int i = 0; i < CassandraConstants.STREAMING_BATCH_SIZE && itr.hasNext(); i++) {
+                    row = itr.next();
+                    legacyKey = row.getVarint(1);
+                    ids.add(row.getString(0));
+                    timestamps.add(fromTSTableTimestamp(legacyKey));
+                    legacyKeys.add(legacyKey);
+                }
+                addTSIndexEntries(tenantId, tableName, ids, timestamps, null);
+                deleteTSIndexEntries(tenantId, tableName, ids, legacyKeys);
+                migratedCount += ids.size();
+            }
+            legacyTSIndexFreeTables.add(generateTargetDataTableName(tenantId, tableName));
+            if (log.isDebugEnabled()) {
+                log.debug("Migrated " + migratedCount + " legacy timestamp index entries of table [" + 
+                        tenantId + ":" + tableName + "]");
+            }
         }
         
     }
@@ -29,11 +29,25 @@ public class CassandraConstants {
     public static final String CLASS = "class";
     
     public static final String REPLICATION_FACTOR = "replication_factor";
+    
+    public static final String ASYNC_WRITE_WINDOW_SIZE = "asyncWriteWindowSize";
+    
+    public static final String TS_INDEX_BUCKET_SIZE = "tsIndexBucketSize";
+    
+    public static final String TS_INDEX_DATA_TABLES = "tsIndexDataTables";
+    
+    public static final String BINARY_DATA_TABLES = "binaryDataTables";
+    
+    public static final String BINARY_DATA_COMPRESSION = "binaryDataCompression";
+    
+    public static final byte BINARY_DATA_UNCOMPRESSED = 0;
+    
+    public static final byte BINARY_DATA_COMPRESSED = 1;
 
     public static final int STREAMING_BATCH_SIZE = 1000;
     
-    public static final int RECORD_INSERT_STATEMENTS_CACHE_SIZE = 5000;
-
+    public static final int TABLE_STATEMENTS_CACHE_SIZE = 5000;
+    
     public static final int TS_MULTIPLIER = (int) Math.pow(2, 30);
     
     public static final String DEFAULT_ARS_KS_NAME = "ARS";
@@ -44,4 +58,9 @@ public class CassandraConstants {
     
     public static final int DEFAULT_REPLICATION_FACTOR = 3;
     
+    public static final int DEFAULT_ASYNC_WRITE_WINDOW_SIZE = 128;
+    
+    /* daily buckets, this should not be changed after the timestamp index is populated */
+    public static final long DEFAULT_TS_INDEX_BUCKET_SIZE = 24 * 60 * 60 * 1000L;
+    
 }
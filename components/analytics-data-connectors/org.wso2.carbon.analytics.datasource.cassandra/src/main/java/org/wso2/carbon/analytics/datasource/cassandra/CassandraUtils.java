@@ -23,14 +23,22 @@ import com.datastax.driver.core.*;
 import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
 import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
 
+import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * This class contains utility methods related to the Cassandra data connector.
  */
 public class CassandraUtils {
+    
+    private static final int COMPRESSION_BUFFER_SIZE = 4096;
 
     public static String[] splitParentChild(String path) {
         if (path.equals("/")) {
@@ -118,4 +126,125 @@ public class CassandraUtils {
         return rf;
     }
     
+    public static int extractAsyncWriteWindowSize(Map<String, String> properties) throws AnalyticsException {
+        String windowStr = properties.get(CassandraConstants.ASYNC_WRITE_WINDOW_SIZE);
+        int window;
+        if (windowStr == null) {
+            window = CassandraConstants.DEFAULT_ASYNC_WRITE_WINDOW_SIZE;
+        } else {
+            try {
+                window = Integer.parseInt(windowStr);
+            } catch (NumberFormatException e) {
+                throw new AnalyticsException("Invalid " + CassandraConstants.ASYNC_WRITE_WINDOW_SIZE + ": " + windowStr);
+            }
+            if (window <= 0) {
+                throw new AnalyticsException("The " + CassandraConstants.ASYNC_WRITE_WINDOW_SIZE + 
+                        " must be a positive value: " + window);
+            }
+        }
+        return window;
+    }
+    
+    public static long extractTSIndexBucketSize(Map<String, String> properties) throws AnalyticsException {
+        String bucketSizeStr = properties.get(CassandraConstants.TS_INDEX_BUCKET_SIZE);
+        long bucketSize;
+        if (bucketSizeStr == null) {
+            bucketSize = CassandraConstants.DEFAULT_TS_INDEX_BUCKET_SIZE;
+        } else {
+            try {
+                bucketSize = Long.parseLong(bucketSizeStr);
+            } catch (NumberFormatException e) {
+                throw new AnalyticsException("Invalid " + CassandraConstants.TS_INDEX_BUCKET_SIZE + ": " + bucketSizeStr);
+            }
+            if (bucketSize <= 0) {
+                throw new AnalyticsException("The " + CassandraConstants.TS_INDEX_BUCKET_SIZE + 
+                        " must be a positive value: " + bucketSize);
+            }
+        }
+        return bucketSize;
+    }
+    
+    /**
+     * Returns the normalized table names, given as a comma separated list in the given property.
+     */
+    public static Set<String> extractTableNames(Map<String, String> properties, String property) {
+        Set<String> result = new HashSet<String>();
+        String tablesStr = properties.get(property);
+        if (tablesStr != null) {
+            for (String table : tablesStr.split(",")) {
+                table = table.trim();
+                if (table.length() > 0) {
+                    result.add(GenericUtils.normalizeTableName(table));
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Encodes the given record values to be stored in a single binary column, where the first byte
+     * says if the rest of the data is compressed or not.
+     */
+    public static ByteBuffer encodeBinaryData(Map<String, Object> values, boolean compress) throws AnalyticsException {
+        byte[] data = GenericUtils.encodeRecordValues(values);
+        if (compress) {
+            data = compress(data);
+        }
+        ByteBuffer result = ByteBuffer.allocate(data.length + 1);
+        result.put(compress ? CassandraConstants.BINARY_DATA_COMPRESSED : CassandraConstants.BINARY_DATA_UNCOMPRESSED);
+        result.put(data);
+        result.flip();
+        return result;
+    }
+    
+    public static Map<String, Object> decodeBinaryData(ByteBuffer buffer, Set<String> columns) throws AnalyticsException {
+        byte format = buffer.get();
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        if (format == CassandraConstants.BINARY_DATA_COMPRESSED) {
+            data = decompress(data);
+        } else if (format != CassandraConstants.BINARY_DATA_UNCOMPRESSED) {
+            throw new AnalyticsException("Unknown Cassandra binary data format: " + format);
+        }
+        return GenericUtils.decodeRecordValues(data, columns);
+    }
+    
+    private static byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length);
+            byte[] buff = new byte[COMPRESSION_BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buff, 0, deflater.deflate(buff));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+    
+    private static byte[] decompress(byte[] data) throws AnalyticsException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length * 2);
+            byte[] buff = new byte[COMPRESSION_BUFFER_SIZE];
+            int count;
+            while (!inflater.finished()) {
+                count = inflater.inflate(buff);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new AnalyticsException("Truncated compressed Cassandra binary data");
+                }
+                out.write(buff, 0, count);
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new AnalyticsException("Error in decompressing Cassandra binary data: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
 }
@@ -0,0 +1,263 @@
+/*
+ *  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.analytics.datasource.cassandra;
+
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.SimpleStatement;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsIterator;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.commons.RecordGroup;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the caching of the prepared statements of the data tables in the Cassandra record store,
+ * using a stub session which counts the statements it prepares.
+ */
+public class CassandraStatementCacheTest {
+
+    private static final String QUERY1 = "SELECT id, timestamp, data FROM KS.T1 WHERE id IN ?";
+
+    private static final String QUERY2 = "DELETE FROM KS.T1 WHERE id IN ?";
+
+    @Test
+    public void testStatementsPreparedOnce() throws Exception {
+        final AtomicInteger prepareCount = new AtomicInteger();
+        final CassandraAnalyticsRecordStore store = this.createStore(prepareCount);
+        int commonStmtCount = prepareCount.get();
+        ExecutorService executor = Executors.newFixedThreadPool(10);
+        List<Future<PreparedStatement>> futures = new ArrayList<Future<PreparedStatement>>();
+        try {
+            for (int i = 0; i < 100; i++) {
+                futures.add(executor.submit(new Callable<PreparedStatement>() {
+                    @Override
+                    public PreparedStatement call() throws Exception {
+                        return store.retrieveTableStmt("T1", QUERY1);
+                    }
+                }));
+            }
+            PreparedStatement stmt = futures.get(0).get();
+            for (Future<PreparedStatement> future : futures) {
+                Assert.assertSame(future.get(), stmt);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 1);
+        store.retrieveTableStmt("T1", QUERY2);
+        store.retrieveTableStmt("T1", QUERY2);
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 2);
+        store.retrieveTableStmt("T2", QUERY1);
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 3);
+        store.evictTableStmts("T1");
+        store.retrieveTableStmt("T1", QUERY1);
+        store.retrieveTableStmt("T2", QUERY1);
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 4);
+    }
+
+    @Test
+    public void testRecordOperationsPrepareOnce() throws Exception {
+        AtomicInteger prepareCount = new AtomicInteger();
+        CassandraAnalyticsRecordStore store = this.createStore(prepareCount);
+        int commonStmtCount = prepareCount.get();
+        List<Record> records = this.generateRecords(1, "T1", 10);
+        this.runRecordOperations(store, records);
+        /* the insert, the select by ids, the timestamps select by ids, the delete by ids, and the full table select */
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 5);
+        for (int i = 0; i < 10; i++) {
+            this.runRecordOperations(store, records);
+        }
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 5);
+        this.runRecordOperations(store, this.generateRecords(2, "T1", 10));
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 10);
+        /* the statements of a deleted table are prepared again, since the table may be re-created */
+        store.deleteTable(1, "T1");
+        this.runRecordOperations(store, records);
+        Assert.assertEquals(prepareCount.get(), commonStmtCount + 15);
+    }
+
+    private List<Record> generateRecords(int tenantId, String tableName, int count) {
+        List<Record> result = new ArrayList<Record>(count);
+        Map<String, Object> values;
+        for (int i = 0; i < count; i++) {
+            values = new HashMap<String, Object>();
+            values.put("C1", "V" + i);
+            values.put("C2", i);
+            result.add(new Record("ID" + i, tenantId, tableName, values, 1000L * i));
+        }
+        return result;
+    }
+
+    private void runRecordOperations(CassandraAnalyticsRecordStore store, List<Record> records) throws Exception {
+        int tenantId = records.get(0).getTenantId();
+        String tableName = records.get(0).getTableName();
+        List<String> ids = new ArrayList<String>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        store.put(records);
+        for (RecordGroup recordGroup : store.get(tenantId, tableName, 1, null, ids)) {
+            this.readRecords(store, recordGroup);
+        }
+        for (RecordGroup recordGroup : store.get(tenantId, tableName, 1, null, Long.MIN_VALUE, Long.MAX_VALUE, 
+                0, -1)) {
+            this.readRecords(store, recordGroup);
+        }
+        store.delete(tenantId, tableName, ids);
+    }
+
+    private void readRecords(CassandraAnalyticsRecordStore store, RecordGroup recordGroup) throws Exception {
+        AnalyticsIterator<Record> itr = store.readRecords(recordGroup);
+        try {
+            Assert.assertFalse(itr.hasNext());
+        } finally {
+            itr.close();
+        }
+    }
+
+    private CassandraAnalyticsRecordStore createStore(AtomicInteger prepareCount) {
+        return new CassandraAnalyticsRecordStore(this.createStubSession(prepareCount), "KS") {
+            @Override
+            boolean isBinaryDataTable(String dataTable) {
+                /* the stub session does not have the cluster metadata */
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Creates a stub session which counts the statements it prepares, where all the queries
+     * return empty results, other than the table existence checks.
+     */
+    private Session createStubSession(final AtomicInteger prepareCount) {
+        return (Session) Proxy.newProxyInstance(Session.class.getClassLoader(), new Class<?>[] { Session.class },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                        case "prepare":
+                            prepareCount.incrementAndGet();
+                            return createStubStatement((String) args[0]);
+                        case "execute":
+                            return createStubResultSet(isTableExistsQuery(args[0]));
+                        case "executeAsync":
+                            return createStubResultSetFuture(createStubResultSet(false));
+                        default:
+                            return handleObjectMethod(proxy, method, args);
+                        }
+                    }
+                });
+    }
+
+    private static boolean isTableExistsQuery(Object stmt) {
+        return stmt instanceof SimpleStatement && 
+                ((SimpleStatement) stmt).getQueryString().contains("system.schema_columnfamilies");
+    }
+
+    private PreparedStatement createStubStatement(final String query) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                        case "bind":
+                            return new SimpleStatement(query);
+                        case "getQueryString":
+                            return query;
+                        default:
+                            return handleObjectMethod(proxy, method, args);
+                        }
+                    }
+                });
+    }
+
+    private ResultSet createStubResultSet(final boolean singleRow) {
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                new Class<?>[] { ResultSet.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                        case "iterator":
+                            /* the callers only check if a row exists */
+                            Iterator<Row> rows = singleRow ? Collections.<Row>singletonList(null).iterator() : 
+                                Collections.<Row>emptyList().iterator();
+                            return rows;
+                        case "isExhausted":
+                            return !singleRow;
+                        default:
+                            return handleObjectMethod(proxy, method, args);
+                        }
+                    }
+                });
+    }
+
+    private ResultSetFuture createStubResultSetFuture(final ResultSet rs) {
+        return (ResultSetFuture) Proxy.newProxyInstance(ResultSetFuture.class.getClassLoader(),
+                new Class<?>[] { ResultSetFuture.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                        case "addListener":
+                            ((Runnable) args[0]).run();
+                            return null;
+                        case "get":
+                        case "getUninterruptibly":
+                            return rs;
+                        case "isDone":
+                            return true;
+                        default:
+                            return handleObjectMethod(proxy, method, args);
+                        }
+                    }
+                });
+    }
+
+    private static Object handleObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+        case "equals":
+            return proxy == args[0];
+        case "hashCode":
+            return System.identityHashCode(proxy);
+        case "toString":
+            return "Stub" + proxy.getClass().getInterfaces()[0].getSimpleName();
+        default:
+            throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+}
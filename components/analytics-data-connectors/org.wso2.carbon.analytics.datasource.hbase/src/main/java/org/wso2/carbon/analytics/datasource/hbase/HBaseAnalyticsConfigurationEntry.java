@@ -20,13 +20,26 @@ package org.wso2.carbon.analytics.datasource.hbase;
 import org.wso2.carbon.analytics.datasource.hbase.util.HBaseAnalyticsDSConstants;
 
 import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlElementWrapper;
 import javax.xml.bind.annotation.XmlRootElement;
+import java.util.ArrayList;
+import java.util.List;
 
 @XmlRootElement(name = "hbase-configuration")
 public class HBaseAnalyticsConfigurationEntry {
 
     private int batchSize = HBaseAnalyticsDSConstants.DEFAULT_QUERY_BATCH_SIZE;
 
+    private long writeBufferSize = HBaseAnalyticsDSConstants.DEFAULT_WRITE_BUFFER_SIZE;
+
+    private long writeFlushInterval = HBaseAnalyticsDSConstants.DEFAULT_WRITE_FLUSH_INTERVAL;
+
+    private List<String> qualifiedColumnTables = new ArrayList<>();
+
+    private int indexSaltBuckets;
+
+    private boolean exclusiveWriter;
+
     @XmlElement(name = "query-batch-size")
     public int getBatchSize() {
         return batchSize;
@@ -36,4 +49,50 @@ public class HBaseAnalyticsConfigurationEntry {
         this.batchSize = batchSize;
     }
 
+    @XmlElement(name = "write-buffer-size")
+    public long getWriteBufferSize() {
+        return writeBufferSize;
+    }
+
+    public void setWriteBufferSize(long writeBufferSize) {
+        this.writeBufferSize = writeBufferSize;
+    }
+
+    @XmlElement(name = "write-flush-interval")
+    public long getWriteFlushInterval() {
+        return writeFlushInterval;
+    }
+
+    public void setWriteFlushInterval(long writeFlushInterval) {
+        this.writeFlushInterval = writeFlushInterval;
+    }
+
+    @XmlElementWrapper(name = "qualified-column-tables")
+    @XmlElement(name = "table")
+    public List<String> getQualifiedColumnTables() {
+        return qualifiedColumnTables;
+    }
+
+    public void setQualifiedColumnTables(List<String> qualifiedColumnTables) {
+        this.qualifiedColumnTables = qualifiedColumnTables;
+    }
+
+    @XmlElement(name = "index-salt-buckets")
+    public int getIndexSaltBuckets() {
+        return indexSaltBuckets;
+    }
+
+    public void setIndexSaltBuckets(int indexSaltBuckets) {
+        this.indexSaltBuckets = indexSaltBuckets;
+    }
+
+    @XmlElement(name = "exclusive-writer")
+    public boolean isExclusiveWriter() {
+        return exclusiveWriter;
+    }
+
+    public void setExclusiveWriter(boolean exclusiveWriter) {
+        this.exclusiveWriter = exclusiveWriter;
+    }
+
 }
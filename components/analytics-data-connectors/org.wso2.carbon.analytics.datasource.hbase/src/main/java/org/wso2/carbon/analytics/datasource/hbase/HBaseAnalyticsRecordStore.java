@@ -17,6 +17,7 @@
 */
 package org.wso2.carbon.analytics.datasource.hbase;
 
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 import org.apache.commons.logging.Log;
@@ -24,6 +25,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.*;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.hbase.util.Pair;
 import org.wso2.carbon.analytics.datasource.commons.AnalyticsIterator;
@@ -43,8 +45,19 @@ import org.wso2.carbon.ndatasource.common.DataSourceException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Apache HBase implementation of {@link org.wso2.carbon.analytics.datasource.core.rs.AnalyticsRecordStore}
@@ -55,11 +68,33 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
 
     private HBaseAnalyticsConfigurationEntry queryConfig;
 
+    /* Long-lived mutators of the physical tables written to, shared by concurrent PUTs */
+    private Map<TableName, HBaseTableMutator> mutators = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService mutatorFlushExecutor;
+
+    /* The last cell version given to the rows of qualified column tables */
+    private AtomicLong lastCellVersion = new AtomicLong();
+
+    /* Used by timestamp range iterators for scanning the next batch of index entries ahead of time */
+    private ExecutorService indexScanExecutor = Executors.newCachedThreadPool();
+
+    /* Number of index salt buckets per table (generic table name), as recorded in the index table descriptors */
+    private Map<String, Integer> indexSaltBucketsMap = new ConcurrentHashMap<>();
+
+    /* Page cursors of recently paginated time ranges, by the record offsets they are located at; a cursor of a range
+     * is only valid as long as no index entries are added or removed before it */
+    private ConcurrentMap<PageCursorKey, ConcurrentNavigableMap<Integer, PageCursor>> pageCursorsMap =
+            CacheBuilder.newBuilder().maximumSize(HBaseAnalyticsDSConstants.PAGE_CURSOR_CACHE_SIZE)
+                    .expireAfterAccess(HBaseAnalyticsDSConstants.PAGE_CURSOR_CACHE_EXPIRY_SECONDS, TimeUnit.SECONDS)
+                    .<PageCursorKey, ConcurrentNavigableMap<Integer, PageCursor>>build().asMap();
+
     private static final Log log = LogFactory.getLog(HBaseAnalyticsRecordStore.class);
 
     public HBaseAnalyticsRecordStore(Connection conn, HBaseAnalyticsConfigurationEntry entry) throws IOException, AnalyticsException {
         this.conn = conn;
         this.queryConfig = entry;
+        this.initMutatorFlushing();
     }
 
     public HBaseAnalyticsRecordStore() {
@@ -90,9 +125,50 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
             throw new AnalyticsException("Error establishing connection to HBase instance : HBase Client initialization " +
                     "failed");
         }
+        this.initMutatorFlushing();
         log.debug("Initialized connection to HBase instance successfully.");
     }
 
+    /* Background flushing makes sure the mutations left in the write buffers by a PUT which failed before reaching
+     * its flush barrier are not held back indefinitely */
+    private void initMutatorFlushing() {
+        long flushInterval = this.queryConfig.getWriteFlushInterval();
+        if (flushInterval <= 0) {
+            return;
+        }
+        this.mutatorFlushExecutor = Executors.newSingleThreadScheduledExecutor();
+        this.mutatorFlushExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (HBaseTableMutator mutator : mutators.values()) {
+                    mutator.flushQuietly();
+                }
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private HBaseTableMutator lookupMutator(TableName table) throws IOException {
+        HBaseTableMutator mutator = this.mutators.get(table);
+        if (mutator == null) {
+            synchronized (this.mutators) {
+                mutator = this.mutators.get(table);
+                if (mutator == null) {
+                    mutator = new HBaseTableMutator(this.conn, table, this.queryConfig.getWriteBufferSize());
+                    this.mutators.put(table, mutator);
+                }
+            }
+        }
+        return mutator;
+    }
+
+    private void evictMutator(TableName table) {
+        HBaseTableMutator mutator;
+        synchronized (this.mutators) {
+            mutator = this.mutators.remove(table);
+        }
+        GenericUtils.closeQuietly(mutator);
+    }
+
     @Override
     public void createTable(int tenantId, String tableName) throws AnalyticsException {
         /* If the table we're proposing to create already exists, return in silence */
@@ -114,12 +190,23 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         /* creating table with standard column family "carbon-analytics-index" for storing timestamp -> ID index*/
         indexDescriptor.addFamily(new HColumnDescriptor(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME)
                 .setMaxVersions(1));
+        int saltBuckets = Math.min(this.queryConfig.getIndexSaltBuckets(), HBaseAnalyticsDSConstants.MAX_INDEX_SALT_BUCKETS);
+        if (saltBuckets > 1) {
+            /* the salting of the index is fixed at table creation, so that later configuration changes do not
+             * affect how existing index entries are located */
+            indexDescriptor.setValue(HBaseAnalyticsDSConstants.INDEX_SALT_BUCKETS_ATTRIBUTE, String.valueOf(saltBuckets));
+        }
 
         /* Table creation should fail if index cannot be created, so attempting to create index table first. */
         Admin admin = null;
         try {
             admin = this.conn.getAdmin();
-            admin.createTable(indexDescriptor);
+            if (saltBuckets > 1) {
+                /* pre-splitting the index table with a region per salt bucket, spreading live writes */
+                admin.createTable(indexDescriptor, HBaseUtils.generateIndexSplitKeys(saltBuckets));
+            } else {
+                admin.createTable(indexDescriptor);
+            }
             admin.createTable(dataDescriptor);
             log.debug("Table " + tableName + " for tenant " + tenantId + " created");
         } catch (IOException e) {
@@ -159,6 +246,12 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                 HBaseAnalyticsDSConstants.TableType.DATA));
         TableName indexTable = TableName.valueOf(HBaseUtils.generateTableName(tenantId, tableName,
                 HBaseAnalyticsDSConstants.TableType.INDEX));
+        /* cached state of the tables being deleted is of no use anymore */
+        String genericTableName = HBaseUtils.generateGenericTableName(tenantId, tableName);
+        this.evictMutator(dataTable);
+        this.evictMutator(indexTable);
+        this.indexSaltBucketsMap.remove(genericTableName);
+        this.invalidatePageCursors(genericTableName, Long.MIN_VALUE, Long.MAX_VALUE);
         try {
             admin = this.conn.getAdmin();
             /* delete the data table first */
@@ -175,10 +268,39 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         }
     }
 
+    /**
+     * Returns the number of salt buckets the timestamp index of the given table was created with, 0 if the index is
+     * not salted.
+     */
+    private int lookupIndexSaltBuckets(int tenantId, String tableName)
+            throws AnalyticsException, AnalyticsTableNotAvailableException {
+        String genericTableName = HBaseUtils.generateGenericTableName(tenantId, tableName);
+        Integer saltBuckets = this.indexSaltBucketsMap.get(genericTableName);
+        if (saltBuckets == null) {
+            Admin admin = null;
+            try {
+                admin = this.conn.getAdmin();
+                String value = admin.getTableDescriptor(TableName.valueOf(HBaseUtils.generateTableName(tenantId,
+                        tableName, HBaseAnalyticsDSConstants.TableType.INDEX))).getValue(
+                        HBaseAnalyticsDSConstants.INDEX_SALT_BUCKETS_ATTRIBUTE);
+                saltBuckets = value == null ? 0 : Integer.parseInt(value);
+            } catch (TableNotFoundException e) {
+                throw new AnalyticsTableNotAvailableException(tenantId, tableName);
+            } catch (IOException e) {
+                throw new AnalyticsException("Error looking up the index layout of table " + tableName + " for tenant " +
+                        tenantId + " : " + e.getMessage(), e);
+            } finally {
+                GenericUtils.closeQuietly(admin);
+            }
+            this.indexSaltBucketsMap.put(genericTableName, saltBuckets);
+        }
+        return saltBuckets;
+    }
+
     @Override
     public boolean isPaginationSupported() {
-        /* Pagination is not supported for this implementation. */
-        return false;
+        /* Pagination is carried out over the timestamp index. */
+        return true;
     }
 
     @Override
@@ -194,48 +316,126 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
 
     @Override
     public void put(List<Record> records) throws AnalyticsException, AnalyticsTableNotAvailableException {
-        int tenantId = 0;
-        String tableName = null;
-        Table table, indexTable;
         if (records.isEmpty()) {
             return;
         }
         Map<String, List<Record>> recordBatches = this.generateRecordBatches(records);
+        Map<String, List<Mutation>> dataPuts = new HashMap<>();
+        Map<String, List<Mutation>> indexPuts = new HashMap<>();
+        Map<String, long[]> timeRanges = new HashMap<>();
+        /* iterating over record batches */
+        for (Map.Entry<String, List<Record>> entry : recordBatches.entrySet()) {
+            /* Populating batched Put instances from records in a single batch */
+            int tenantId = HBaseUtils.inferTenantId(entry.getKey());
+            String tableName = HBaseUtils.inferTableName(entry.getKey());
+            boolean qualifiedColumns = this.isQualifiedColumnTable(tableName);
+            List<List<Mutation>> allPuts = this.populatePuts(entry.getValue(), qualifiedColumns,
+                    qualifiedColumns ? this.nextCellVersion() : HConstants.LATEST_TIMESTAMP,
+                    this.lookupIndexSaltBuckets(tenantId, tableName));
+            indexPuts.put(entry.getKey(), allPuts.get(0));
+            dataPuts.put(entry.getKey(), allPuts.get(1));
+            long minTimestamp = Long.MAX_VALUE;
+            long maxTimestamp = Long.MIN_VALUE;
+            for (Record record : entry.getValue()) {
+                minTimestamp = Math.min(minTimestamp, record.getTimestamp());
+                maxTimestamp = Math.max(maxTimestamp, record.getTimestamp());
+            }
+            timeRanges.put(entry.getKey(), new long[] { minTimestamp,
+                    maxTimestamp < Long.MAX_VALUE ? maxTimestamp + 1 : maxTimestamp });
+        }
         try {
-            /* iterating over record batches */
-            for (Map.Entry<String, List<Record>> entry : recordBatches.entrySet()) {
-                tenantId = HBaseUtils.inferTenantId(entry.getKey());
-                tableName = HBaseUtils.inferTableName(entry.getKey());
-                table = this.conn.getTable(TableName.valueOf(HBaseUtils.generateTableName(tenantId, tableName,
-                        HBaseAnalyticsDSConstants.TableType.DATA)));
-                indexTable = this.conn.getTable(TableName.valueOf(HBaseUtils.generateTableName(tenantId, tableName,
-                        HBaseAnalyticsDSConstants.TableType.INDEX)));
-                /* Populating batched Put instances from records in a single batch */
-                List<List<Put>> allPuts = this.populatePuts(recordBatches.get(entry.getKey()));
-                /* Using Table.put(List<Put>) method to minimise network calls per table */
+            /* The index entries are made durable before the data rows, so that a record is never left in a data table
+             * without the index entry needed to look it up by timestamp */
+            this.writeMutations(indexPuts, HBaseAnalyticsDSConstants.TableType.INDEX);
+            this.writeMutations(dataPuts, HBaseAnalyticsDSConstants.TableType.DATA);
+        } finally {
+            /* invalidated after writing, also when failed part way, so that no cursor located while writing is kept */
+            for (Map.Entry<String, long[]> entry : timeRanges.entrySet()) {
+                this.invalidatePageCursors(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
+            }
+        }
+        log.debug("Processed " + records.size() + " PUT operations for " + recordBatches.size() + " tables");
+    }
+
+    private void writeMutations(Map<String, List<Mutation>> puts, HBaseAnalyticsDSConstants.TableType type)
+            throws AnalyticsException, AnalyticsTableNotAvailableException {
+        /* All mutations are handed over to the mutators first, letting the client batch and pipeline them across
+         * region servers, also together with the mutations of concurrent PUTs, before waiting on any of them through
+         * the flush barrier. The mutators report the failures of each PUT's mutations to that same PUT */
+        Map<String, HBaseTableMutator> mutators = new HashMap<>(puts.size());
+        Map<String, HBaseTableMutator.Write> writes = new HashMap<>(puts.size());
+        try {
+            HBaseTableMutator mutator;
+            for (Map.Entry<String, List<Mutation>> entry : puts.entrySet()) {
                 try {
-                    indexTable.put(allPuts.get(0));
-                    table.put(allPuts.get(1));
-                    log.debug("Processed " + records.size() + " PUT operations for " + tableName + " for tenant " + tenantId);
-                } finally {
-                    table.close();
-                    indexTable.close();
+                    mutator = this.lookupMutator(this.toTableName(entry.getKey(), type));
+                    writes.put(entry.getKey(), mutator.mutate(entry.getValue()));
+                    mutators.put(entry.getKey(), mutator);
+                } catch (IOException e) {
+                    throw this.toWriteException(entry.getKey(), e);
                 }
             }
-        } catch (AnalyticsTableNotAvailableException e) {
-            throw e;
-        } catch (IOException e) {
-            if ((e instanceof TableNotFoundException) || ((e instanceof RetriesExhaustedException) && e.getMessage().contains("was not found"))) {
-                throw new AnalyticsTableNotAvailableException(tenantId, tableName);
+            for (Map.Entry<String, HBaseTableMutator> entry : mutators.entrySet()) {
+                try {
+                    entry.getValue().flush(writes.remove(entry.getKey()));
+                } catch (IOException e) {
+                    throw this.toWriteException(entry.getKey(), e);
+                }
+            }
+        } finally {
+            /* the writes not flushed due to an earlier failure are left to the background flush */
+            for (Map.Entry<String, HBaseTableMutator.Write> entry : writes.entrySet()) {
+                mutators.get(entry.getKey()).complete(entry.getValue());
+            }
+        }
+    }
+
+    private TableName toTableName(String genericTableName, HBaseAnalyticsDSConstants.TableType type) {
+        return TableName.valueOf(HBaseUtils.generateTableName(HBaseUtils.inferTenantId(genericTableName),
+                HBaseUtils.inferTableName(genericTableName), type));
+    }
+
+    private AnalyticsException toWriteException(String genericTableName, IOException e) {
+        if ((e instanceof TableNotFoundException) || ((e instanceof RetriesExhaustedException) &&
+                e.getMessage().contains("was not found"))) {
+            return new AnalyticsTableNotAvailableException(HBaseUtils.inferTenantId(genericTableName),
+                    HBaseUtils.inferTableName(genericTableName));
+        }
+        return new AnalyticsException("Error adding new records: " + e.getMessage(), e);
+    }
+
+    private boolean isQualifiedColumnTable(String tableName) {
+        if (this.queryConfig.getQualifiedColumnTables() == null) {
+            return false;
+        }
+        for (String qualifiedColumnTable : this.queryConfig.getQualifiedColumnTables()) {
+            if (qualifiedColumnTable.trim().equalsIgnoreCase(tableName)) {
+                return true;
             }
-            throw new AnalyticsException("Error adding new records: " + e.getMessage(), e);
         }
+        return false;
+    }
+
+    /**
+     * Returns a new cell version for the data rows of qualified column tables, which is the current time, but always
+     * later than the versions given earlier, so that consecutive writes of a row in the same millisecond are still
+     * ordered.
+     */
+    private long nextCellVersion() {
+        long last, next;
+        do {
+            last = this.lastCellVersion.get();
+            next = Math.max(System.currentTimeMillis(), last + 1);
+        } while (!this.lastCellVersion.compareAndSet(last, next));
+        return next;
     }
 
-    private List<List<Put>> populatePuts(List<Record> records) throws AnalyticsException {
+    private List<List<Mutation>> populatePuts(List<Record> records, boolean qualifiedColumns, long version,
+                                              int saltBuckets) throws AnalyticsException {
         byte[] data;
-        List<Put> puts = new ArrayList<>();
-        List<Put> indexPuts = new ArrayList<>();
+        List<Mutation> puts = new ArrayList<>();
+        List<Mutation> indexPuts = new ArrayList<>();
+        Set<String> qualifiedRecordIds = new HashSet<>();
         for (Record record : records) {
             String recordId = record.getId();
             long timestamp = record.getTimestamp();
@@ -243,6 +443,13 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                 throw new AnalyticsException("HBase Analytics Record store does not support negative UNIX timestamps");
             }
             Map<String, Object> columns = record.getValues();
+            if (qualifiedColumns) {
+                /* the later writes of a record written more than once in the same batch need later versions */
+                puts.addAll(this.populateQualifiedColumnMutations(recordId, timestamp, columns,
+                        qualifiedRecordIds.add(recordId) ? version : this.nextCellVersion()));
+                indexPuts.add(this.putIndexData(record, saltBuckets));
+                continue;
+            }
             if ((columns == null) || columns.isEmpty()) {
                 data = new byte[]{};
             } else {
@@ -253,17 +460,55 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                     HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME, data);
             put.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
                     HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME, Bytes.toBytes(timestamp));
-            indexPuts.add(this.putIndexData(record));
+            indexPuts.add(this.putIndexData(record, saltBuckets));
             puts.add(put);
         }
-        List<List<Put>> output = new ArrayList<>();
+        List<List<Mutation>> output = new ArrayList<>();
         output.add(indexPuts);
         output.add(puts);
         return output;
     }
 
-    private Put putIndexData(Record record) {
-        Put indexPut = new Put(HBaseUtils.encodeLong(record.getTimestamp()));
+    private List<Mutation> populateQualifiedColumnMutations(String recordId, long timestamp, Map<String, Object> columns,
+                                                            long version) throws AnalyticsException {
+        byte[] rowId = Bytes.toBytes(recordId);
+        /* Each column is kept in its own qualifier, so that reads can project columns on the server side. Since a
+        * PUT would otherwise leave behind the columns missing from an updated record, all older cells of the row are
+        * removed through a DELETE versioned just before the new cells, which makes the pair order independent. The
+        * versions are given by this record store, since if both were left to the region server, a DELETE and a PUT
+        * applied in the same millisecond would share a version, and the DELETE would hide the new cells. The row
+        * DELETEs of these tables are versioned the same way, so a record deleted and written again is not hidden */
+        Put put = new Put(rowId, version);
+        put.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME, Bytes.toBytes(timestamp));
+        if (columns != null) {
+            for (Map.Entry<String, Object> column : columns.entrySet()) {
+                put.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                        HBaseUtils.generateColumnQualifier(column.getKey()),
+                        GenericUtils.encodeElement(column.getKey(), column.getValue()));
+            }
+        }
+        List<Mutation> mutations = new ArrayList<>(2);
+        mutations.add(new Delete(rowId).addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                version - 1));
+        mutations.add(put);
+        return mutations;
+    }
+
+    /**
+     * Creates the DELETE of a whole data row, which is versioned by this record store for qualified column tables,
+     * the same as their PUTs.
+     */
+    private Delete createDataRowDelete(byte[] rowId, boolean qualifiedColumns) {
+        if (qualifiedColumns) {
+            return new Delete(rowId, this.nextCellVersion());
+        } else {
+            return new Delete(rowId);
+        }
+    }
+
+    private Put putIndexData(Record record, int saltBuckets) {
+        Put indexPut = new Put(HBaseUtils.generateIndexKey(record.getTimestamp(), record.getId(), saltBuckets));
         /* Setting the column qualifier the same as the column value to enable multiple columns per row with
         * unique qualifiers, since we will anyway not use the qualifier during index read */
         indexPut.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME, Bytes.toBytes(record.getId()),
@@ -293,15 +538,21 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
     public RecordGroup[] get(int tenantId, String tableName, int numPartitionsHint, List<String> columns, long timeFrom,
                              long timeTo, int recordsFrom, int recordsCount) throws AnalyticsException,
             AnalyticsTableNotAvailableException {
-        if (recordsFrom > 0) {
-            throw new HBaseUnsupportedOperationException("Pagination is not supported for HBase Analytics Record Store Implementation");
-        }
         if (!this.tableExists(tenantId, tableName)) {
             throw new AnalyticsTableNotAvailableException(tenantId, tableName);
         }
-        if ((timeFrom < 0) && (timeTo >= Long.MAX_VALUE - 1)) {
+        if ((timeFrom < 0) && (timeTo >= Long.MAX_VALUE - 1) && (recordsFrom <= 0) && (recordsCount <= 0)) {
             log.debug("Performing GET on region split contours for table " + tableName + " and tenantID " + tenantId);
             return this.computeRegionSplits(tenantId, tableName, columns, recordsCount);
+        } else if (recordsFrom > 0) {
+            log.debug("Performing paginated GET through timestamp slices for table " + tableName + " and tenantID " +
+                    tenantId);
+            HBaseTimestampRecordGroup recordGroup = this.locatePage(tenantId, tableName, columns, timeFrom, timeTo,
+                    recordsFrom, recordsCount);
+            if (recordGroup == null) {
+                return new RecordGroup[0];
+            }
+            return new HBaseTimestampRecordGroup[]{recordGroup};
         } else {
             log.debug("Performing GET through timestamp slices for table " + tableName + " and tenantID " + tenantId);
             return new HBaseTimestampRecordGroup[]{
@@ -310,6 +561,113 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         }
     }
 
+    /**
+     * Locates the index row containing the entry at the given offset of the time range, returning a record group
+     * which starts reading from there. Only row keys are transferred while seeking, starting from the closest page
+     * cursor located earlier in the same time range, and null is returned if the time range does not contain that
+     * many index entries. The cursors are only kept if this node is configured as the exclusive writer of the tables,
+     * since the writes done through other nodes cannot invalidate them.
+     */
+    private HBaseTimestampRecordGroup locatePage(int tenantId, String tableName, List<String> columns, long timeFrom,
+                                                 long timeTo, int recordsFrom, int recordsCount)
+            throws AnalyticsException, AnalyticsTableNotAvailableException {
+        Scan indexScan = new Scan();
+        indexScan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME);
+        indexScan.setFilter(new KeyOnlyFilter());
+        indexScan.setCaching(this.queryConfig.getBatchSize());
+        int saltBuckets = this.lookupIndexSaltBuckets(tenantId, tableName);
+        Table indexTable = null;
+        HBaseIndexScanner indexScanner = null;
+        int skipped = 0;
+        /* The cursor is the timestamp of the page start plus the number of entries of that same timestamp preceding
+         * it, which stays valid across the merged order of salted index scans */
+        long currentTime = -1;
+        int skippedAtCurrentTime = 0;
+        byte[] startKey = timeFrom >= 0L ? HBaseUtils.encodeLong(timeFrom) : null;
+        /* The cursors map is looked up once, so that a cursor located while the range is being invalidated is
+         * added to the detached map and never used */
+        ConcurrentNavigableMap<Integer, PageCursor> cursors;
+        if (this.queryConfig.isExclusiveWriter()) {
+            cursors = this.lookupPageCursors(new PageCursorKey(HBaseUtils.generateGenericTableName(tenantId,
+                    tableName), timeFrom, timeTo));
+        } else {
+            cursors = new ConcurrentSkipListMap<>();
+        }
+        Map.Entry<Integer, PageCursor> closestCursor = cursors.floorEntry(recordsFrom);
+        if (closestCursor != null) {
+            /* all the entries before the cursor's timestamp are skipped without reading them again */
+            PageCursor cursor = closestCursor.getValue();
+            startKey = HBaseUtils.encodeLong(cursor.getTime());
+            skipped = closestCursor.getKey() - cursor.getSkippedAtTime();
+        }
+        try {
+            indexTable = this.conn.getTable(TableName.valueOf(HBaseUtils.generateTableName(tenantId, tableName,
+                    HBaseAnalyticsDSConstants.TableType.INDEX)));
+            indexScanner = new HBaseIndexScanner(indexTable, indexScan, saltBuckets, startKey,
+                    timeTo < Long.MAX_VALUE - 1 ? HBaseUtils.encodeLong(timeTo) : null, this.indexScanExecutor);
+            Result rowResult;
+            while ((rowResult = indexScanner.next()) != null) {
+                long time = indexScanner.decodeTimestamp(rowResult);
+                if (time != currentTime) {
+                    currentTime = time;
+                    skippedAtCurrentTime = 0;
+                }
+                int entries = rowResult.size();
+                if (skipped + entries > recordsFrom) {
+                    int skippedAtTime = skippedAtCurrentTime + recordsFrom - skipped;
+                    this.addPageCursor(cursors, recordsFrom, new PageCursor(time, skippedAtTime));
+                    return new HBaseTimestampRecordGroup(tenantId, tableName, columns, timeFrom, timeTo, recordsCount,
+                            HBaseUtils.encodeLong(time), skippedAtTime);
+                }
+                skipped += entries;
+                skippedAtCurrentTime += entries;
+            }
+            return null;
+        } catch (TableNotFoundException e) {
+            throw new AnalyticsTableNotAvailableException(tenantId, tableName);
+        } catch (IOException e) {
+            throw new AnalyticsException("Error locating records from offset " + recordsFrom + " in table " +
+                    tableName + " for tenant " + tenantId + " : " + e.getMessage(), e);
+        } finally {
+            GenericUtils.closeQuietly(indexScanner);
+            GenericUtils.closeQuietly(indexTable);
+        }
+    }
+
+    private ConcurrentNavigableMap<Integer, PageCursor> lookupPageCursors(PageCursorKey key) {
+        ConcurrentNavigableMap<Integer, PageCursor> cursors = this.pageCursorsMap.get(key);
+        if (cursors == null) {
+            cursors = new ConcurrentSkipListMap<>();
+            ConcurrentNavigableMap<Integer, PageCursor> existingCursors = this.pageCursorsMap.putIfAbsent(key, cursors);
+            if (existingCursors != null) {
+                cursors = existingCursors;
+            }
+        }
+        return cursors;
+    }
+
+    private void addPageCursor(ConcurrentNavigableMap<Integer, PageCursor> cursors, int offset, PageCursor cursor) {
+        cursors.put(offset, cursor);
+        while (cursors.size() > HBaseAnalyticsDSConstants.MAX_PAGE_CURSORS_PER_RANGE) {
+            cursors.pollFirstEntry();
+        }
+    }
+
+    /**
+     * Drops the page cursors of the time ranges of the given table which overlap with the given time range, since
+     * the offsets of those may have changed with index entries added or removed in it, including the obsolete entries
+     * removed while reading. Only the changes done through this record store are seen here, which is why the cursors
+     * are only kept when this node is the exclusive writer.
+     */
+    void invalidatePageCursors(String genericTableName, long timeFrom, long timeTo) {
+        for (PageCursorKey key : this.pageCursorsMap.keySet()) {
+            if (key.getGenericTableName().equals(genericTableName) && key.getTimeFrom() < timeTo &&
+                    key.getTimeTo() > timeFrom) {
+                this.pageCursorsMap.remove(key);
+            }
+        }
+    }
+
     @Override
     public RecordGroup[] get(int tenantId, String tableName, int numPartitionsHint, List<String> columns,
                              List<String> ids) throws AnalyticsException, AnalyticsTableNotAvailableException {
@@ -332,9 +690,11 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
 
         } else if (recordGroup instanceof HBaseTimestampRecordGroup) {
             HBaseTimestampRecordGroup tsRecordGroup = (HBaseTimestampRecordGroup) recordGroup;
-            return this.getRecords(tsRecordGroup.getTenantId(), tsRecordGroup.getTableName(),
+            return new HBaseTimestampIterator(tsRecordGroup.getTenantId(), tsRecordGroup.getTableName(),
                     tsRecordGroup.getColumns(), tsRecordGroup.getStartTime(), tsRecordGroup.getEndTime(),
-                    tsRecordGroup.getRecordsCount());
+                    tsRecordGroup.getRecordsCount(), this.conn, this.queryConfig.getBatchSize(),
+                    this.lookupIndexSaltBuckets(tsRecordGroup.getTenantId(), tsRecordGroup.getTableName()),
+                    this.indexScanExecutor, this, tsRecordGroup.getStartRow(), tsRecordGroup.getStartRowOffset());
 
         } else if (recordGroup instanceof HBaseRegionSplitRecordGroup) {
             HBaseRegionSplitRecordGroup rsRecordGroup = (HBaseRegionSplitRecordGroup) recordGroup;
@@ -355,7 +715,8 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                                                 long endTime, int recordsCount)
             throws AnalyticsException, AnalyticsTableNotAvailableException {
         int batchSize = this.queryConfig.getBatchSize();
-        return new HBaseTimestampIterator(tenantId, tableName, columns, startTime, endTime, recordsCount, this.conn, batchSize);
+        return new HBaseTimestampIterator(tenantId, tableName, columns, startTime, endTime, recordsCount, this.conn,
+                batchSize, this.lookupIndexSaltBuckets(tenantId, tableName), this.indexScanExecutor, this);
     }
 
     public AnalyticsIterator<Record> getRecords(int tenantId, String tableName, List<String> columns, int recordsCount, byte[] startRow, byte[] endRow)
@@ -392,18 +753,17 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         String formattedTableName = HBaseUtils.generateTableName(tenantId, tableName, HBaseAnalyticsDSConstants.TableType.INDEX);
         Table indexTable = null;
         Scan indexScan = new Scan();
-        if (timeFrom >= 0L) {
-            indexScan.setStartRow(HBaseUtils.encodeLong(timeFrom));
-        }
-        if (!(timeTo >= Long.MAX_VALUE - 1)) {
-            indexScan.setStopRow(HBaseUtils.encodeLong(timeTo));
-        }
         indexScan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME);
-        ResultScanner resultScanner = null;
+        indexScan.setCaching(batchSize);
+        HBaseIndexScanner resultScanner = null;
         try {
+            int saltBuckets = this.lookupIndexSaltBuckets(tenantId, tableName);
             indexTable = this.conn.getTable(TableName.valueOf(formattedTableName));
-            resultScanner = indexTable.getScanner(indexScan);
-            for (Result rowResult : resultScanner) {
+            resultScanner = new HBaseIndexScanner(indexTable, indexScan, saltBuckets,
+                    timeFrom >= 0L ? HBaseUtils.encodeLong(timeFrom) : null,
+                    timeTo < Long.MAX_VALUE - 1 ? HBaseUtils.encodeLong(timeTo) : null, this.indexScanExecutor);
+            Result rowResult;
+            while ((rowResult = resultScanner.next()) != null) {
                 /* Using Result.rawCells() because the descriptors in the secondary index are never known in advance */
                 Cell[] cells = rowResult.rawCells();
                 for (Cell cell : cells) {
@@ -411,7 +771,7 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                         /* recordId -> the record ID which corresponds to the index lookup */
                         String recordId = Bytes.toString(CellUtil.cloneValue(cell));
                         /* timeStampRef -> what actual index entry was used to retrieve this particular record ID */
-                        Long timeStampRef = Bytes.toLong(rowResult.getRow());
+                        Long timeStampRef = resultScanner.decodeTimestamp(rowResult);
                         recordsWithRef.put(recordId, timeStampRef);
                         batchCounter++;
                     }
@@ -435,6 +795,7 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         } finally {
             GenericUtils.closeQuietly(resultScanner);
             GenericUtils.closeQuietly(indexTable);
+            this.invalidatePageCursors(HBaseUtils.generateGenericTableName(tenantId, tableName), timeFrom, timeTo);
         }
     }
 
@@ -444,8 +805,9 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         List<Delete> dataDeletes = new ArrayList<>();
         String dataTableName = HBaseUtils.generateTableName(tenantId, tableName, HBaseAnalyticsDSConstants.TableType.DATA);
         List<Delete> timestampDeletes = this.lookupIndexDeletes(dataTableName, ids, tenantId, tableName);
+        boolean qualifiedColumns = this.isQualifiedColumnTable(tableName);
         for (String recordId : ids) {
-            dataDeletes.add(new Delete(Bytes.toBytes(recordId)));
+            dataDeletes.add(this.createDataRowDelete(Bytes.toBytes(recordId), qualifiedColumns));
         }
         try {
             dataTable = this.conn.getTable(TableName.valueOf(dataTableName));
@@ -457,6 +819,9 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                     + e.getMessage(), e);
         } finally {
             GenericUtils.closeQuietly(dataTable);
+            /* the timestamps of the deleted records are not known here */
+            this.invalidatePageCursors(HBaseUtils.generateGenericTableName(tenantId, tableName), Long.MIN_VALUE,
+                    Long.MAX_VALUE);
         }
     }
 
@@ -465,6 +830,7 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         List<Delete> indexDeletes = new ArrayList<>();
         List<Get> gets = new ArrayList<>();
         Table dataTable = null;
+        int saltBuckets = this.lookupIndexSaltBuckets(tenantId, tableName);
         for (String rowId : rowIds) {
             if (!rowId.isEmpty()) {
                 gets.add(new Get(Bytes.toBytes(rowId)).addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
@@ -481,7 +847,8 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                             HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME);
                     byte[] data = CellUtil.cloneValue(dataCell);
                     if (data.length > 0) {
-                        indexDeletes.add(new Delete(data).addColumn(
+                        indexDeletes.add(new Delete(HBaseUtils.generateIndexKey(Bytes.toLong(data),
+                                Bytes.toString(res.getRow()), saltBuckets)).addColumn(
                                 HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME, res.getRow()));
                     }
                 }
@@ -533,6 +900,7 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         List<Get> gets = new ArrayList<>();
         List<Delete> deletes = new ArrayList<>();
         String dataTableName = HBaseUtils.generateTableName(tenantId, tableName, HBaseAnalyticsDSConstants.TableType.DATA);
+        boolean qualifiedColumns = this.isQualifiedColumnTable(tableName);
         try {
             dataTable = this.conn.getTable(TableName.valueOf(dataTableName));
             /* For all records set for termination, check if they really do have their timestamps within the given range
@@ -552,7 +920,7 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
                     if (originalTimestamp.length > 0) {
                         List<Long> candidateIndexEntries = recordsWithRef.get(Bytes.toString(res.getRow()));
                         if (candidateIndexEntries.contains(Bytes.toLong(originalTimestamp))) {
-                            deletes.add(new Delete(res.getRow()));
+                            deletes.add(this.createDataRowDelete(res.getRow(), qualifiedColumns));
                         }
                     }
                 }
@@ -569,6 +937,13 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
 
     @Override
     public void destroy() throws AnalyticsException {
+        if (this.mutatorFlushExecutor != null) {
+            this.mutatorFlushExecutor.shutdownNow();
+        }
+        this.indexScanExecutor.shutdownNow();
+        for (TableName table : this.mutators.keySet()) {
+            this.evictMutator(table);
+        }
         try {
             this.conn.close();
             log.debug("Closed HBase connection transients successfully.");
@@ -577,6 +952,76 @@ public class HBaseAnalyticsRecordStore implements AnalyticsRecordStore {
         }
     }
 
+    /**
+     * A time range of a table which page cursors are kept for.
+     */
+    private static class PageCursorKey {
+
+        private String genericTableName;
+
+        private long timeFrom;
+
+        private long timeTo;
+
+        public PageCursorKey(String genericTableName, long timeFrom, long timeTo) {
+            this.genericTableName = genericTableName;
+            this.timeFrom = timeFrom;
+            this.timeTo = timeTo;
+        }
+
+        public String getGenericTableName() {
+            return genericTableName;
+        }
+
+        public long getTimeFrom() {
+            return timeFrom;
+        }
+
+        public long getTimeTo() {
+            return timeTo;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof PageCursorKey)) {
+                return false;
+            }
+            PageCursorKey rhs = (PageCursorKey) obj;
+            return this.genericTableName.equals(rhs.genericTableName) && this.timeFrom == rhs.timeFrom &&
+                    this.timeTo == rhs.timeTo;
+        }
+
+        @Override
+        public int hashCode() {
+            return (this.genericTableName.hashCode() * 31 + Long.valueOf(this.timeFrom).hashCode()) * 31 +
+                    Long.valueOf(this.timeTo).hashCode();
+        }
+    }
+
+    /**
+     * The position of a record offset in a time range, as the timestamp of its index entry and the number of entries
+     * of the same timestamp preceding it.
+     */
+    private static class PageCursor {
+
+        private long time;
+
+        private int skippedAtTime;
+
+        public PageCursor(long time, int skippedAtTime) {
+            this.time = time;
+            this.skippedAtTime = skippedAtTime;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public int getSkippedAtTime() {
+            return skippedAtTime;
+        }
+    }
+
     public static class HBaseUnsupportedOperationException extends AnalyticsException {
 
         private static final long serialVersionUID = -380641886204128313L;
@@ -0,0 +1,245 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+import org.wso2.carbon.analytics.datasource.hbase.util.HBaseUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Scanner over the timestamp index table of a given analytics table, which hides whether the index row keys are
+ * salted. For salted indices, a scan is issued per salt bucket and the results are merged in the order of
+ * (timestamp, salt bucket), so that callers always see the index entries ordered by timestamp.
+ */
+public class HBaseIndexScanner implements Closeable {
+
+    private int saltBuckets;
+
+    private List<ResultScanner> scanners = new ArrayList<>();
+
+    private PriorityQueue<ScannerHead> heads;
+
+    /**
+     * @param indexTable  The index table to be scanned
+     * @param template    The scan settings to be used for each salt bucket; the start and stop rows are overridden
+     * @param saltBuckets The number of salt buckets of the index table, 0 or 1 if the index is not salted
+     * @param startKey    The (unsalted) timestamp row key to start from, null to start from the beginning
+     * @param stopKey     The (unsalted) timestamp row key to stop at, null to scan till the end
+     * @param executor    If given, the scans of the salt buckets are opened in parallel through this executor
+     */
+    public HBaseIndexScanner(final Table indexTable, Scan template, int saltBuckets, byte[] startKey, byte[] stopKey,
+                             ExecutorService executor) throws IOException {
+        this.saltBuckets = saltBuckets;
+        if (saltBuckets <= 1) {
+            Scan scan = new Scan(template);
+            scan.setStartRow(startKey == null ? new byte[0] : startKey);
+            scan.setStopRow(stopKey == null ? new byte[0] : stopKey);
+            this.scanners.add(indexTable.getScanner(scan));
+            return;
+        }
+        this.heads = new PriorityQueue<>(saltBuckets, new Comparator<ScannerHead>() {
+            @Override
+            public int compare(ScannerHead o1, ScannerHead o2) {
+                int result = Long.compare(o1.timestamp, o2.timestamp);
+                if (result == 0) {
+                    result = Integer.compare(o1.bucket, o2.bucket);
+                }
+                return result;
+            }
+        });
+        List<Future<ResultScanner>> openings = new ArrayList<>(saltBuckets);
+        try {
+            for (int bucket = 0; bucket < saltBuckets; bucket++) {
+                final Scan scan = new Scan(template);
+                scan.setStartRow(HBaseUtils.saltIndexKey(bucket, startKey == null ? new byte[0] : startKey));
+                if (stopKey != null) {
+                    scan.setStopRow(HBaseUtils.saltIndexKey(bucket, stopKey));
+                } else if (bucket + 1 < saltBuckets) {
+                    scan.setStopRow(HBaseUtils.saltIndexKey(bucket + 1, new byte[0]));
+                }
+                if (executor == null) {
+                    this.addScanner(bucket, indexTable.getScanner(scan));
+                } else {
+                    openings.add(executor.submit(new Callable<ResultScanner>() {
+                        @Override
+                        public ResultScanner call() throws Exception {
+                            ResultScanner scanner = indexTable.getScanner(scan);
+                            /* the first batch is fetched as part of opening the scanner */
+                            return new PeekingResultScanner(scanner, scanner.next());
+                        }
+                    }));
+                }
+            }
+            for (int bucket = 0; bucket < openings.size(); bucket++) {
+                this.addScanner(bucket, this.waitForOpening(openings.get(bucket)));
+            }
+        } catch (IOException | RuntimeException e) {
+            this.close();
+            /* making sure scanners still being opened in the background are not left open */
+            for (Future<ResultScanner> opening : openings) {
+                try {
+                    ResultScanner scanner = opening.get();
+                    if (!this.scanners.contains(scanner)) {
+                        GenericUtils.closeQuietly(scanner);
+                    }
+                } catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                    break;
+                } catch (ExecutionException ignore) {
+                    /* nothing to close */
+                }
+            }
+            throw e;
+        }
+    }
+
+    private ResultScanner waitForOpening(Future<ResultScanner> opening) throws IOException {
+        try {
+            return opening.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while opening index scanners", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Error opening index scanners: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private void addScanner(int bucket, ResultScanner scanner) throws IOException {
+        this.scanners.add(scanner);
+        this.advance(new ScannerHead(bucket, scanner));
+    }
+
+    private void advance(ScannerHead head) throws IOException {
+        Result result = head.scanner.next();
+        if (result != null) {
+            head.result = result;
+            head.timestamp = this.decodeTimestamp(result);
+            this.heads.add(head);
+        }
+    }
+
+    /**
+     * Returns the next index row (or part of a row, if the scan is batched), or null if the scan is exhausted.
+     */
+    public Result next() throws IOException {
+        if (this.heads == null) {
+            return this.scanners.get(0).next();
+        }
+        ScannerHead head = this.heads.poll();
+        if (head == null) {
+            return null;
+        }
+        Result result = head.result;
+        this.advance(head);
+        return result;
+    }
+
+    public long decodeTimestamp(Result result) {
+        return HBaseUtils.decodeIndexTimestamp(result.getRow(), this.saltBuckets);
+    }
+
+    @Override
+    public void close() {
+        for (ResultScanner scanner : this.scanners) {
+            GenericUtils.closeQuietly(scanner);
+        }
+        if (this.heads != null) {
+            this.heads.clear();
+        }
+    }
+
+    private static class ScannerHead {
+
+        private int bucket;
+
+        private ResultScanner scanner;
+
+        private Result result;
+
+        private long timestamp;
+
+        private ScannerHead(int bucket, ResultScanner scanner) {
+            this.bucket = bucket;
+            this.scanner = scanner;
+        }
+    }
+
+    /**
+     * Result scanner which hands out an already fetched result before continuing with the wrapped scanner.
+     */
+    private static class PeekingResultScanner implements ResultScanner {
+
+        private ResultScanner scanner;
+
+        private Result first;
+
+        private boolean firstConsumed;
+
+        private PeekingResultScanner(ResultScanner scanner, Result first) {
+            this.scanner = scanner;
+            this.first = first;
+        }
+
+        @Override
+        public Result next() throws IOException {
+            if (!this.firstConsumed) {
+                this.firstConsumed = true;
+                return this.first;
+            }
+            return this.scanner.next();
+        }
+
+        @Override
+        public Result[] next(int nbRows) throws IOException {
+            List<Result> results = new ArrayList<>(nbRows);
+            Result result;
+            while (results.size() < nbRows && (result = this.next()) != null) {
+                results.add(result);
+            }
+            return results.toArray(new Result[results.size()]);
+        }
+
+        @Override
+        public void close() {
+            this.scanner.close();
+        }
+
+        @Override
+        public Iterator<Result> iterator() {
+            throw new UnsupportedOperationException("Iteration is not supported, use next() instead");
+        }
+    }
+}
@@ -38,7 +38,7 @@ import java.util.*;
  */
 public class HBaseRecordIterator implements AnalyticsIterator<Record> {
 
-    private List<String> columns;
+    private Set<String> colSet;
     private List<List<String>> batchedIds;
 
     private int tenantId, totalBatches, currentBatchIndex;
@@ -95,23 +95,16 @@ public class HBaseRecordIterator implements AnalyticsIterator<Record> {
         List<String> currentBatch = this.batchedIds.get(this.currentBatchIndex);
         List<Record> fetchedRecords = new ArrayList<>();
         List<Get> gets = new ArrayList<>();
-        Set<String> colSet = null;
 
         for (String currentId : currentBatch) {
-            Get get = new Get(Bytes.toBytes(currentId));
-            get.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME);
-            gets.add(get);
+            gets.add(HBaseUtils.addDataColumns(new Get(Bytes.toBytes(currentId)), this.colSet));
         }
 
         try {
-            /* if the list of columns to be retrieved is null, retrieve ALL columns. */
-            if (this.columns != null && this.columns.size() > 0) {
-                colSet = new HashSet<>(this.columns);
-            }
             Result[] results = this.table.get(gets);
             for (Result currentResult : results) {
                 if (!currentResult.isEmpty()) {
-                    Record record = HBaseUtils.constructRecord(currentResult, tenantId, tableName, colSet);
+                    Record record = HBaseUtils.constructRecord(currentResult, tenantId, tableName, this.colSet);
                     if (record != null) {
                         fetchedRecords.add(record);
                     }
@@ -136,7 +129,7 @@ public class HBaseRecordIterator implements AnalyticsIterator<Record> {
     private void init(Connection conn, int tenantId, String tableName, List<String> columns) throws AnalyticsException {
         this.tenantId = tenantId;
         this.tableName = tableName;
-        this.columns = columns;
+        this.colSet = HBaseUtils.toColumnSet(columns);
         try {
             this.table = conn.getTable(TableName.valueOf(
                     HBaseUtils.generateTableName(tenantId, tableName, HBaseAnalyticsDSConstants.TableType.DATA)));
@@ -66,9 +66,7 @@ public class HBaseRegionSplitIterator implements AnalyticsIterator<Record> {
         } finally {
             GenericUtils.closeQuietly(admin);
         }
-        if (columns != null && columns.size() > 0) {
-            this.colSet = new HashSet<>(columns);
-        }
+        this.colSet = HBaseUtils.toColumnSet(columns);
 
         Scan splitScan = new Scan();
         splitScan.setStartRow(startRow);
@@ -76,7 +74,7 @@ public class HBaseRegionSplitIterator implements AnalyticsIterator<Record> {
         if (recordsCount > 0) {
             splitScan.setFilter(new PageFilter(recordsCount));
         }
-        splitScan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME);
+        HBaseUtils.addDataColumns(splitScan, this.colSet);
 
         try {
             ResultScanner scanner = table.getScanner(splitScan);
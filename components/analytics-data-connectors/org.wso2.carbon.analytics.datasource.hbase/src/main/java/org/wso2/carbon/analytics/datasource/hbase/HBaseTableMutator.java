@@ -0,0 +1,196 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.TableNotFoundException;
+import org.apache.hadoop.hbase.client.BufferedMutator;
+import org.apache.hadoop.hbase.client.BufferedMutatorParams;
+import org.apache.hadoop.hbase.client.Connection;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.RetriesExhaustedWithDetailsException;
+import org.apache.hadoop.hbase.client.Row;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A long-lived {@link BufferedMutator} of a table, shared by concurrent writers. A buffered mutator reports failed
+ * mutations to whoever flushes next, so here the failures are routed back to the writes the mutations belong to,
+ * and a write only fails with its own mutations' failures.
+ */
+public class HBaseTableMutator implements BufferedMutator.ExceptionListener, Closeable {
+
+    private static final Log log = LogFactory.getLog(HBaseTableMutator.class);
+
+    private TableName table;
+
+    private BufferedMutator mutator;
+
+    /* the writes which are not done yet, by their mutations */
+    private Map<Row, Write> pendingWrites = Collections.synchronizedMap(new IdentityHashMap<Row, Write>());
+
+    /* writes are done under the read lock, so that the mutator is only closed when no write is using it */
+    private ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private volatile boolean closed;
+
+    public HBaseTableMutator(Connection conn, TableName table, long writeBufferSize) throws IOException {
+        this.table = table;
+        this.mutator = conn.getBufferedMutator(new BufferedMutatorParams(table).writeBufferSize(writeBufferSize)
+                .listener(this));
+    }
+
+    /**
+     * Hands over the given mutations to the mutator, which may already send some of them to the region servers.
+     * The returned write must be given to {@link #flush(Write)} to wait for the mutations to be done.
+     */
+    public Write mutate(List<? extends Mutation> mutations) throws IOException {
+        Write write = new Write(mutations);
+        this.closeLock.readLock().lock();
+        try {
+            if (this.closed) {
+                throw new TableNotFoundException(this.table);
+            }
+            for (Mutation mutation : mutations) {
+                this.pendingWrites.put(mutation, write);
+            }
+            this.mutator.mutate(mutations);
+        } catch (IOException e) {
+            this.complete(write);
+            throw e;
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+        return write;
+    }
+
+    /**
+     * Waits until the mutations of the given write are done, failing with only the failures of those mutations.
+     */
+    public void flush(Write write) throws IOException {
+        this.closeLock.readLock().lock();
+        try {
+            if (this.closed) {
+                throw new TableNotFoundException(this.table);
+            }
+            this.mutator.flush();
+        } finally {
+            this.closeLock.readLock().unlock();
+            this.complete(write);
+        }
+        write.checkFailures();
+    }
+
+    /**
+     * Releases a write which is not going to be flushed, where any failures of its mutations found later are only
+     * logged.
+     */
+    public void complete(Write write) {
+        for (Mutation mutation : write.getMutations()) {
+            this.pendingWrites.remove(mutation);
+        }
+    }
+
+    /**
+     * Flushes the mutations left in the write buffer by writes which failed before flushing them.
+     */
+    public void flushQuietly() {
+        this.closeLock.readLock().lock();
+        try {
+            if (!this.closed) {
+                this.mutator.flush();
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Error in background flush of writes to " + this.table + " : " + e.getMessage(), e);
+            }
+        } finally {
+            this.closeLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void onException(RetriesExhaustedWithDetailsException e, BufferedMutator mutator) {
+        Write write;
+        for (int i = 0; i < e.getNumExceptions(); i++) {
+            write = this.pendingWrites.get(e.getRow(i));
+            if (write != null) {
+                write.addFailure(e.getCause(i), e.getRow(i), e.getHostnamePort(i));
+            } else {
+                log.error("Error in writing to " + this.table + ", of a write which is already done: " +
+                        e.getCause(i).getMessage(), e.getCause(i));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.closeLock.writeLock().lock();
+        try {
+            this.closed = true;
+            this.mutator.close();
+        } finally {
+            this.closeLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The mutations handed over to the mutator in one go, along with their failures.
+     */
+    public static class Write {
+
+        private List<? extends Mutation> mutations;
+
+        private List<Throwable> failures = new ArrayList<>();
+
+        private List<Row> failedRows = new ArrayList<>();
+
+        private List<String> failedServers = new ArrayList<>();
+
+        public Write(List<? extends Mutation> mutations) {
+            this.mutations = mutations;
+        }
+
+        public List<? extends Mutation> getMutations() {
+            return mutations;
+        }
+
+        private synchronized void addFailure(Throwable failure, Row row, String server) {
+            this.failures.add(failure);
+            this.failedRows.add(row);
+            this.failedServers.add(server);
+        }
+
+        private synchronized void checkFailures() throws RetriesExhaustedWithDetailsException {
+            if (!this.failures.isEmpty()) {
+                throw new RetriesExhaustedWithDetailsException(this.failures, this.failedRows, this.failedServers);
+            }
+        }
+    }
+
+}
@@ -23,6 +23,7 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
 import org.apache.hadoop.hbase.TableName;
 import org.apache.hadoop.hbase.client.*;
+import org.apache.hadoop.hbase.filter.PageFilter;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.wso2.carbon.analytics.datasource.commons.AnalyticsIterator;
 import org.wso2.carbon.analytics.datasource.commons.Record;
@@ -35,51 +36,98 @@ import org.wso2.carbon.analytics.datasource.hbase.util.HBaseUtils;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
- * Subclass of java.util.Iterator for streaming in records based on timestamp ranges
+ * Subclass of java.util.Iterator for streaming in records based on timestamp ranges. A single scanner is kept open
+ * on the index table for the lifetime of the iterator, and the next batch of index entries is scanned while the
+ * data rows of the current batch are being looked up.
  */
 public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
 
-    private List<String> columns;
+    private Set<String> colSet;
 
     private int tenantId;
     private int batchSize;
     private int recordsCount;
     private int globalCounter;
-
-    private byte[] latestRow;
-    private byte[] endRow;
-    private static final long POSTFIX = 1L;
+    private int indexEntriesToSkip;
+    private int saltBuckets;
 
     private boolean fullyFetched;
-    private boolean noStartTime = false;
-    private boolean noStopTime = false;
+    private boolean indexFullyScanned;
     private String tableName;
     private Table table, indexTable;
+    private HBaseIndexScanner indexScanner;
     private Iterator<Record> subIterator = Collections.emptyIterator();
 
     private Connection connection;
 
+    private HBaseAnalyticsRecordStore recordStore;
+
+    private ExecutorService indexScanExecutor;
+    private Future<ListMultimap<String, Long>> nextIndexBatch;
+
     HBaseTimestampIterator(int tenantId, String tableName, List<String> columns, long timeFrom, long timeTo, int recordsCount,
-                           Connection conn, int batchSize) throws AnalyticsException, AnalyticsTableNotAvailableException {
+                           Connection conn, int batchSize, int saltBuckets, ExecutorService indexScanExecutor,
+                           HBaseAnalyticsRecordStore recordStore)
+            throws AnalyticsException, AnalyticsTableNotAvailableException {
+        this(tenantId, tableName, columns, timeFrom, timeTo, recordsCount, conn, batchSize, saltBuckets,
+                indexScanExecutor, recordStore, null, 0);
+    }
+
+    /**
+     * Creates an iterator which starts reading from the given (unsalted) timestamp index key, skipping the first
+     * startRowOffset index entries of that timestamp, as located when paginating through the timestamp index. The
+     * page cursors of the given record store are invalidated when obsolete index entries are removed.
+     */
+    HBaseTimestampIterator(int tenantId, String tableName, List<String> columns, long timeFrom, long timeTo, int recordsCount,
+                           Connection conn, int batchSize, int saltBuckets, ExecutorService indexScanExecutor,
+                           HBaseAnalyticsRecordStore recordStore, byte[] startRow, int startRowOffset) throws AnalyticsException, AnalyticsTableNotAvailableException {
         if ((timeFrom > timeTo) || (batchSize <= 0)) {
             throw new AnalyticsException("Invalid parameters specified for reading data from table " + tableName +
                     " for tenant " + tenantId);
         } else {
             this.init(conn, tenantId, tableName, columns, recordsCount, batchSize);
-            if (timeFrom < 0) {
-                this.noStartTime = true;
-                /* Setting param to null, to recognize the first ever run. It will never become null after the first run. */
-                this.latestRow = null;
-            } else {
-                /* Setting the initial row to start time -1 because it will soon be incremented by 1L. */
-                this.latestRow = HBaseUtils.encodeLong(timeFrom - POSTFIX);
+            this.indexScanExecutor = indexScanExecutor;
+            this.recordStore = recordStore;
+            this.saltBuckets = saltBuckets;
+            byte[] startKey = null, stopKey = null;
+            if (startRow != null) {
+                startKey = startRow;
+                this.indexEntriesToSkip = startRowOffset;
+            } else if (timeFrom >= 0) {
+                startKey = HBaseUtils.encodeLong(timeFrom);
             }
-            if (timeTo >= Long.MAX_VALUE - 1) {
-                this.noStopTime = true;
+            if (timeTo < Long.MAX_VALUE - 1) {
+                stopKey = HBaseUtils.encodeLong(timeTo);
+            }
+            Scan indexScan = new Scan();
+            indexScan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME);
+            indexScan.setCaching(batchSize);
+            if (recordsCount > 0) {
+                /* Every index row holds at least one entry, so the region servers need not return more rows than
+                * the number of records requested, plus the row which may be fully skipped at the pagination cursor */
+                indexScan.setFilter(new PageFilter(this.indexEntriesToSkip > 0 ? recordsCount + 1 : recordsCount));
             } else {
-                this.endRow = HBaseUtils.encodeLong(timeTo);
+                /* Not letting a single heavily populated index row (i.e. many records sharing the same timestamp)
+                * blow up a single result. This cannot be combined with the row based page filter above. */
+                indexScan.setBatch(batchSize);
+            }
+            try {
+                /* with a salted index, a scan per salt bucket is issued and merged by timestamp */
+                this.indexScanner = new HBaseIndexScanner(this.indexTable, indexScan, saltBuckets, startKey, stopKey,
+                        indexScanExecutor);
+            } catch (IOException e) {
+                this.cleanup();
+                if (e instanceof TableNotFoundException) {
+                    throw new AnalyticsTableNotAvailableException(tenantId, tableName);
+                }
+                throw new AnalyticsException("Error reading index data for table " + tableName + ", tenant " +
+                        tenantId + " : " + e.getMessage(), e);
             }
             /* pre-fetching from HBase and populating records for the first time */
             this.fetchRecords();
@@ -88,12 +136,15 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
 
     @Override
     public boolean hasNext() {
-        boolean hasMore = this.subIterator.hasNext();
-        if (!hasMore) {
+        /* A batch may turn out to be empty if all of its index entries were obsolete, so keep fetching until either
+        * records are found or the index has been fully consumed */
+        while (!this.subIterator.hasNext() && !this.fullyFetched) {
             try {
                 this.fetchRecords();
             } catch (AnalyticsTableNotAvailableException e) {
                 this.subIterator = Collections.emptyIterator();
+                this.fullyFetched = true;
+                this.cleanup();
             }
         }
         return this.subIterator.hasNext();
@@ -117,30 +168,31 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
         if (this.fullyFetched) {
             return;
         }
-        ListMultimap<String, Long> batchedResults = this.populateNextRecordBatch();
+        ListMultimap<String, Long> batchedResults = this.retrieveIndexBatch();
         if (batchedResults.size() == 0) {
+            /* The end of processing for this particular query is at hand
+            *  (i.e. Iterator: I die in peace now, tell my family I love them..) */
+            this.subIterator = Collections.emptyIterator();
+            this.fullyFetched = true;
+            this.cleanup();
             return;
         }
-        Set<String> colSet = null;
+        /* Scanning the next batch of index entries in parallel, while the data rows of this batch are looked up */
+        this.scheduleIndexBatch();
         List<Record> fetchedRecords = new ArrayList<>();
         List<Get> gets = new ArrayList<>();
 
         for (String currentId : batchedResults.keySet()) {
-            Get get = new Get(Bytes.toBytes(currentId));
-            get.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME);
-            gets.add(get);
+            gets.add(HBaseUtils.addDataColumns(new Get(Bytes.toBytes(currentId)), this.colSet));
         }
 
         try {
-            /* If the list of columns to be retrieved is null, retrieve ALL columns. */
-            if (this.columns != null && this.columns.size() > 0) {
-                colSet = new HashSet<>(this.columns);
-
-            }
             Result[] results = this.table.get(gets);
+            List<Delete> obsoleteEntries = new ArrayList<>();
+            long obsoleteFrom = Long.MAX_VALUE, obsoleteTo = Long.MIN_VALUE;
             for (Result currentResult : results) {
                 if (!currentResult.isEmpty()) {
-                    Record record = HBaseUtils.constructRecord(currentResult, tenantId, tableName, colSet);
+                    Record record = HBaseUtils.constructRecord(currentResult, tenantId, tableName, this.colSet);
                     if (record != null) {
                         byte[] currentRecordId = currentResult.getRow();
                         List<Long> indexEntries = batchedResults.get(Bytes.toString(currentRecordId));
@@ -149,93 +201,109 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
                             fetchedRecords.add(record);
                             indexEntries.remove(originalTimestamp);
                         }
-                        List<Delete> obsoleteEntries = new ArrayList<>();
                         for (Long timestamp : indexEntries) {
-                            obsoleteEntries.add(new Delete(Bytes.toBytes(timestamp)).addColumn(
+                            obsoleteFrom = Math.min(obsoleteFrom, timestamp);
+                            obsoleteTo = Math.max(obsoleteTo, timestamp);
+                            obsoleteEntries.add(new Delete(HBaseUtils.generateIndexKey(timestamp,
+                                    record.getId(), this.saltBuckets)).addColumn(
                                     HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME, currentResult.getRow()));
                         }
-                        this.deleteObsoleteEntries(obsoleteEntries);
-                    }
-                } /*else {
-                    byte[] currentRecordId = currentResult.getRow();    //this is null :(
-                    List<Long> indexEntries = batchedResults.get(Bytes.toString(currentRecordId));
-                    List<Delete> obsoleteEntries = new ArrayList<>();
-                    for (Long timestamp : indexEntries) {
-                        obsoleteEntries.add(new Delete(Bytes.toBytes(timestamp)).addColumn(
-                                HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME, currentResult.getRow()));
                     }
-                    this.deleteObsoleteEntries(obsoleteEntries);
-                }*/
+                }
+            }
+            if (!obsoleteEntries.isEmpty()) {
+                this.deleteObsoleteEntries(obsoleteEntries, obsoleteFrom, obsoleteTo);
             }
             this.subIterator = fetchedRecords.iterator();
         } catch (Exception e) {
+            this.cleanup();
             if (e instanceof RetriesExhaustedException) {
                 throw new AnalyticsTableNotAvailableException(tenantId, tableName);
             }
-            this.cleanup();
             throw new HBaseRuntimeException("Error reading data from table " + this.tableName + " for tenant " +
                     this.tenantId, e);
         }
     }
 
-    private ListMultimap<String, Long> populateNextRecordBatch() {
-        ListMultimap<String, Long> currentBatch = ArrayListMultimap.create();
-        if (this.recordsCount > 0) {
-            if (this.globalCounter >= this.recordsCount) {
-                this.fullyFetched = true;
-                return currentBatch;
+    private void scheduleIndexBatch() {
+        if (this.indexFullyScanned) {
+            return;
+        }
+        this.nextIndexBatch = this.indexScanExecutor.submit(new Callable<ListMultimap<String, Long>>() {
+            @Override
+            public ListMultimap<String, Long> call() throws Exception {
+                return populateNextRecordBatch();
             }
+        });
+    }
+
+    private ListMultimap<String, Long> retrieveIndexBatch() {
+        Future<ListMultimap<String, Long>> pendingBatch = this.nextIndexBatch;
+        if (pendingBatch == null) {
+            return this.populateNextRecordBatch();
         }
-        int counter = 0;
-        Scan indexScan = new Scan();
-        long latestTime;
-        if (!this.noStartTime && (this.latestRow != null)) {
-            latestTime = HBaseUtils.decodeLong(this.latestRow);
-            indexScan.setStartRow(HBaseUtils.encodeLong(latestTime + POSTFIX));
+        this.nextIndexBatch = null;
+        try {
+            return pendingBatch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.cleanup();
+            throw new HBaseRuntimeException("Interrupted while reading index data for table " + this.tableName +
+                    ", tenant " + this.tenantId, e);
+        } catch (ExecutionException e) {
+            this.cleanup();
+            if (e.getCause() instanceof HBaseRuntimeException) {
+                throw (HBaseRuntimeException) e.getCause();
+            }
+            throw new HBaseRuntimeException("Error reading index data for table " + this.tableName + ", tenant " +
+                    this.tenantId, e.getCause());
         }
-        if (!this.noStopTime) {
-            indexScan.setStopRow(this.endRow);
+    }
+
+    private ListMultimap<String, Long> populateNextRecordBatch() {
+        ListMultimap<String, Long> currentBatch = ArrayListMultimap.create();
+        if (this.indexFullyScanned) {
+            return currentBatch;
         }
-        indexScan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_INDEX_COLUMN_FAMILY_NAME);
-        ResultScanner resultScanner;
+        int counter = 0;
         try {
-            resultScanner = this.indexTable.getScanner(indexScan);
+            Result rowResult;
             outer:
-            for (Result rowResult : resultScanner) {
-                Cell[] cells = rowResult.rawCells();
-                for (Cell cell : cells) {
+            while (counter < this.batchSize) {
+                rowResult = this.indexScanner.next();
+                if (rowResult == null) {
+                    /* The scan has exhausted all index entries within the given range */
+                    this.indexFullyScanned = true;
+                    break;
+                }
+                long currentIndexEntry = this.indexScanner.decodeTimestamp(rowResult);
+                for (Cell cell : rowResult.rawCells()) {
+                    if (this.indexEntriesToSkip > 0) {
+                        /* entries preceding the pagination cursor within its index row */
+                        this.indexEntriesToSkip--;
+                        continue;
+                    }
                     if ((this.globalCounter == this.recordsCount)) {
-                        this.fullyFetched = true;
+                        /* The limit from the client has been reached */
+                        this.indexFullyScanned = true;
                         break outer;
                     }
                     byte[] recordId = CellUtil.cloneValue(cell);
-                    byte[] currentIndexEntry = rowResult.getRow();
-                    currentBatch.put(Bytes.toString(recordId), Bytes.toLong(currentIndexEntry));
+                    currentBatch.put(Bytes.toString(recordId), currentIndexEntry);
                     counter++;
                     this.globalCounter++;
                 }
-                if (counter >= this.batchSize) {
-                    /* Snap out of further processing, because either the batch end or the client limit has been reached. */
-                    this.latestRow = rowResult.getRow();
-                    break;
-                }
-                this.latestRow = rowResult.getRow();
             }
-            resultScanner.close();
-            indexTable.close();
         } catch (IOException e) {
+            this.indexFullyScanned = true;
             throw new HBaseRuntimeException("Error reading index data for table " + this.tableName + ", tenant " +
                     this.tenantId, e);
         }
-        if (counter < this.batchSize) {
-            /* Checking if processing had been interrupted PRIOR TO:
-            * - More results being scanned (counter equals 0 in this case), where there are no more records to be scanned
-            * - Batch size becoming equal to the counter (counter < batchSize case), signifying the scan ran out of records
-            *       where the scan has either exhausted all records on the table or has reached the limit from the client.
-            *  For both of the above cases, we understand that the end of processing for this particular query is at hand
-            *  (i.e. Iterator: I die in peace now, tell my family I love them..) */
-            this.fullyFetched = true;
-            this.cleanup();
+        if (this.globalCounter == this.recordsCount) {
+            this.indexFullyScanned = true;
+        }
+        if (this.indexFullyScanned) {
+            GenericUtils.closeQuietly(this.indexScanner);
         }
         return currentBatch;
     }
@@ -245,7 +313,7 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
         this.connection = conn;
         this.tenantId = tenantId;
         this.tableName = tableName;
-        this.columns = columns;
+        this.colSet = HBaseUtils.toColumnSet(columns);
         this.recordsCount = recordsCount;
         this.batchSize = batchSize;
         this.globalCounter = 0;
@@ -260,7 +328,8 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
         }
     }
 
-    private void deleteObsoleteEntries(List<Delete> obsoleteEntries) throws AnalyticsException {
+    private void deleteObsoleteEntries(List<Delete> obsoleteEntries, long timeFrom, long timeTo)
+            throws AnalyticsException {
         Table table = null;
         String dataTableName = HBaseUtils.generateTableName(this.tenantId, this.tableName, HBaseAnalyticsDSConstants.TableType.INDEX);
         try {
@@ -271,16 +340,34 @@ public class HBaseTimestampIterator implements AnalyticsIterator<Record> {
                     + e.getMessage(), e);
         } finally {
             GenericUtils.closeQuietly(table);
+            /* the offsets of the page cursors after the removed entries have changed */
+            if (this.recordStore != null) {
+                this.recordStore.invalidatePageCursors(HBaseUtils.generateGenericTableName(this.tenantId,
+                        this.tableName), timeFrom, timeTo < Long.MAX_VALUE ? timeTo + 1 : timeTo);
+            }
         }
     }
 
     private void cleanup() {
+        if (this.nextIndexBatch != null) {
+            /* wait for any in-flight index scan to settle before the scanner is closed underneath it */
+            try {
+                this.nextIndexBatch.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException ignore) {
+                /* the iterator is being discarded anyway */
+            }
+            this.nextIndexBatch = null;
+        }
+        GenericUtils.closeQuietly(this.indexScanner);
         GenericUtils.closeQuietly(this.indexTable);
         GenericUtils.closeQuietly(this.table);
     }
 
     @Override
     public void close() throws IOException {
+        this.fullyFetched = true;
         cleanup();
     }
-}
\ No newline at end of file
+}
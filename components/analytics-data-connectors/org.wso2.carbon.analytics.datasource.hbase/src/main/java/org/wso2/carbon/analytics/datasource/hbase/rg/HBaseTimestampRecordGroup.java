@@ -29,6 +29,9 @@ public class HBaseTimestampRecordGroup implements RecordGroup {
     private String tableName;
     private List<String> columns;
     private long startTime, endTime;
+    /* Pagination cursor: the index row to start scanning from, and the number of index entries to skip within it */
+    private byte[] startRow;
+    private int startRowOffset;
 
     public HBaseTimestampRecordGroup() {
     }
@@ -42,6 +45,13 @@ public class HBaseTimestampRecordGroup implements RecordGroup {
         this.recordsCount = recordsCount;
     }
 
+    public HBaseTimestampRecordGroup(int tenantId, String tableName, List<String> columns, long timeFrom, long timeTo,
+                                     int recordsCount, byte[] startRow, int startRowOffset) {
+        this(tenantId, tableName, columns, timeFrom, timeTo, recordsCount);
+        this.startRow = startRow;
+        this.startRowOffset = startRowOffset;
+    }
+
     @Override
     public String[] getLocations() throws AnalyticsException {
         return new String[]{"localhost"};
@@ -71,4 +81,12 @@ public class HBaseTimestampRecordGroup implements RecordGroup {
         return recordsCount;
     }
 
+    public byte[] getStartRow() {
+        return startRow;
+    }
+
+    public int getStartRowOffset() {
+        return startRowOffset;
+    }
+
 }
@@ -39,8 +39,17 @@ public class HBaseAnalyticsDSConstants {
 
     public static final byte[] ANALYTICS_ROWDATA_QUALIFIER_NAME = Bytes.toBytes("row-values");
     public static final byte[] ANALYTICS_TS_QUALIFIER_NAME = Bytes.toBytes("timestamp");
+    public static final byte[] ANALYTICS_COLUMN_QUALIFIER_PREFIX = Bytes.toBytes("col:");
 
     public static final int DEFAULT_QUERY_BATCH_SIZE = 7000;
+    public static final long DEFAULT_WRITE_BUFFER_SIZE = 2 * 1024 * 1024;
+    public static final long DEFAULT_WRITE_FLUSH_INTERVAL = 1000;
+    public static final int MAX_INDEX_SALT_BUCKETS = 256;
+    public static final int PAGE_CURSOR_CACHE_SIZE = 1000;
+    public static final int PAGE_CURSOR_CACHE_EXPIRY_SECONDS = 60;
+    public static final int MAX_PAGE_CURSORS_PER_RANGE = 64;
+    /* Index table descriptor attribute recording the number of salt buckets the table was created with */
+    public static final String INDEX_SALT_BUCKETS_ATTRIBUTE = "carbon.analytics.index.salt.buckets";
     public static final String HBASE_ANALYTICS_CONFIG_FILE = "hbase-analytics-config.xml";
     public static final String DELIMITER = "~%~";
 
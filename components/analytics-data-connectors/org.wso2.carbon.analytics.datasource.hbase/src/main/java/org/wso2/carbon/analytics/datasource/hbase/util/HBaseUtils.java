@@ -20,7 +20,9 @@ package org.wso2.carbon.analytics.datasource.hbase.util;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.CellUtil;
+import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.wso2.carbon.analytics.datasource.commons.Record;
 import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
@@ -33,6 +35,8 @@ import javax.xml.bind.JAXBException;
 import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -99,29 +103,121 @@ public class HBaseUtils {
         return Bytes.toLong(arr);
     }
 
+    /**
+     * Generates the row key of the timestamp index entry of a record. If the index is salted, the timestamp is
+     * prefixed with a salt byte derived from the record ID, spreading entries of the same time across regions.
+     */
+    public static byte[] generateIndexKey(long timestamp, String recordId, int saltBuckets) {
+        if (saltBuckets <= 1) {
+            return encodeLong(timestamp);
+        }
+        return saltIndexKey((recordId.hashCode() & Integer.MAX_VALUE) % saltBuckets, encodeLong(timestamp));
+    }
+
+    public static byte[] saltIndexKey(int salt, byte[] key) {
+        return Bytes.add(new byte[]{(byte) salt}, key);
+    }
+
+    public static long decodeIndexTimestamp(byte[] indexKey, int saltBuckets) {
+        if (saltBuckets <= 1) {
+            return decodeLong(indexKey);
+        }
+        return Bytes.toLong(indexKey, 1);
+    }
+
+    public static byte[][] generateIndexSplitKeys(int saltBuckets) {
+        byte[][] splitKeys = new byte[saltBuckets - 1][];
+        for (int i = 1; i < saltBuckets; i++) {
+            splitKeys[i - 1] = new byte[]{(byte) i};
+        }
+        return splitKeys;
+    }
+
+    public static byte[] generateColumnQualifier(String column) {
+        return Bytes.add(HBaseAnalyticsDSConstants.ANALYTICS_COLUMN_QUALIFIER_PREFIX, Bytes.toBytes(column));
+    }
+
+    public static Set<String> toColumnSet(List<String> columns) {
+        /* If the list of columns to be retrieved is null or empty, ALL columns are retrieved. */
+        if (columns != null && columns.size() > 0) {
+            return new HashSet<>(columns);
+        }
+        return null;
+    }
+
+    /**
+     * Restricts the given GET to the requested columns, so that the projection is carried out on the server side for
+     * rows stored with a qualifier per column. Rows stored as a single encoded blob are still filtered client side.
+     */
+    public static Get addDataColumns(Get get, Set<String> colSet) {
+        if (colSet == null) {
+            return get.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME);
+        }
+        get.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME);
+        get.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME);
+        for (String column : colSet) {
+            get.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME, generateColumnQualifier(column));
+        }
+        return get;
+    }
+
+    /**
+     * Scan counterpart of {@link #addDataColumns(Get, Set)}.
+     */
+    public static Scan addDataColumns(Scan scan, Set<String> colSet) {
+        if (colSet == null) {
+            return scan.addFamily(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME);
+        }
+        scan.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME);
+        scan.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME);
+        for (String column : colSet) {
+            scan.addColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME, generateColumnQualifier(column));
+        }
+        return scan;
+    }
+
+    private static Map<String, Object> decodeQualifiedColumns(Result currentResult, Set<String> colSet)
+            throws AnalyticsException {
+        Map<String, Object> values = new HashMap<>();
+        byte[] prefix = HBaseAnalyticsDSConstants.ANALYTICS_COLUMN_QUALIFIER_PREFIX;
+        for (Cell cell : currentResult.rawCells()) {
+            if (Bytes.startsWith(CellUtil.cloneQualifier(cell), prefix)) {
+                /* each column cell holds a single element encoded the same way as in the row-values blob */
+                values.putAll(GenericUtils.decodeRecordValues(CellUtil.cloneValue(cell), colSet));
+            }
+        }
+        return values;
+    }
+
     public static Record constructRecord(Result currentResult, int tenantId, String tableName, Set<String> colSet)
             throws AnalyticsException {
         byte[] rowId = currentResult.getRow();
         Map<String, Object> values;
         if (currentResult.containsColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
-                HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME)) {
-            Cell dataCell = currentResult.getColumnLatestCell
-                    (HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
-                            HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME);
-            byte[] data = CellUtil.cloneValue(dataCell);
-            if (data.length > 0) {
-                values = GenericUtils.decodeRecordValues(data, colSet);
-            } else {
-                values = new HashMap<>();
-            }
+                HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME)) {
             if (currentResult.containsColumn(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
-                    HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME)) {
-                Cell tsCell = currentResult.getColumnLatestCell(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
-                        HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME);
-                byte[] timestamp = CellUtil.cloneValue(tsCell);
-                if (timestamp.length > 0) {
-                    return new Record(Bytes.toString(rowId), tenantId, tableName, values, Bytes.toLong(timestamp));
+                    HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME)) {
+                Cell dataCell = currentResult.getColumnLatestCell
+                        (HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                                HBaseAnalyticsDSConstants.ANALYTICS_ROWDATA_QUALIFIER_NAME);
+                byte[] data = CellUtil.cloneValue(dataCell);
+                if (data.length > 0) {
+                    values = GenericUtils.decodeRecordValues(data, colSet);
+                } else {
+                    values = new HashMap<>();
                 }
+            } else {
+                values = decodeQualifiedColumns(currentResult, colSet);
+            }
+            Cell tsCell = currentResult.getColumnLatestCell(HBaseAnalyticsDSConstants.ANALYTICS_DATA_COLUMN_FAMILY_NAME,
+                    HBaseAnalyticsDSConstants.ANALYTICS_TS_QUALIFIER_NAME);
+            byte[] timestamp = CellUtil.cloneValue(tsCell);
+            if (timestamp.length > 0) {
+                return new Record(Bytes.toString(rowId), tenantId, tableName, values, Bytes.toLong(timestamp));
             }
         }
         return null;
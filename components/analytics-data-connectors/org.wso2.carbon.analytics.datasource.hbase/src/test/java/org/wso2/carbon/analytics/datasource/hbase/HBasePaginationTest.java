@@ -0,0 +1,178 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.core.AnalyticsRecordStoreTest;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the paginated reads of the HBase record store, which resume from the page cursors located by the earlier
+ * pages, against an HBase mini cluster.
+ */
+public class HBasePaginationTest {
+
+    private static final long TIME_FROM = 1000;
+
+    private static final long TIME_TO = 100000;
+
+    private HBaseTestingUtility util;
+
+    private HBaseAnalyticsRecordStore store;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.util = new HBaseTestingUtility();
+        this.util.startMiniCluster();
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(50);
+        entry.setExclusiveWriter(true);
+        this.store = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+    }
+
+    @AfterClass
+    public void destroy() throws Exception {
+        if (this.util != null) {
+            this.util.shutdownMiniCluster();
+        }
+    }
+
+    private List<String> readPage(int recordsFrom, int recordsCount) throws Exception {
+        return this.readPage(this.store, "T1", recordsFrom, recordsCount);
+    }
+
+    private List<String> readPage(HBaseAnalyticsRecordStore store, String tableName, int recordsFrom,
+                                  int recordsCount) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (Record record : GenericUtils.listRecords(store, store.get(1, tableName, 1, null, TIME_FROM,
+                TIME_TO, recordsFrom, recordsCount))) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private List<String> readAll() throws Exception {
+        return this.readAll("T1");
+    }
+
+    private List<String> readAll(String tableName) throws Exception {
+        List<String> ids = new ArrayList<>();
+        for (Record record : GenericUtils.listRecords(this.store, this.store.get(1, tableName, 1, null, TIME_FROM,
+                TIME_TO, 0, -1))) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private void assertPagesMatch(int pageSize) throws Exception {
+        List<String> allIds = this.readAll();
+        List<String> pagedIds = new ArrayList<>(this.readPage(0, pageSize));
+        for (int i = pageSize; i < allIds.size() + pageSize; i += pageSize) {
+            pagedIds.addAll(this.readPage(i, pageSize));
+        }
+        Assert.assertEquals(pagedIds, allIds);
+        /* pages read again in reverse order resume from the cursors preceding them */
+        for (int i = (allIds.size() / pageSize) * pageSize; i > 0; i -= pageSize) {
+            Assert.assertEquals(this.readPage(i, pageSize), allIds.subList(i, Math.min(i + pageSize,
+                    allIds.size())));
+        }
+    }
+
+    @Test
+    public void testPagination() throws Exception {
+        this.store.createTable(1, "T1");
+        /* records sharing timestamps, so that pages start in the middle of the entries of a timestamp */
+        for (int i = 0; i < 20; i++) {
+            this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T1", i, 10, 5000 + i * 100, 0));
+        }
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T1", 20, 300, 10000, 1));
+        Assert.assertEquals(this.readAll().size(), 500);
+        this.assertPagesMatch(30);
+        this.assertPagesMatch(7);
+        Assert.assertEquals(this.readPage(500, 10).size(), 0);
+        /* records added before the located cursors shift all the pages after them */
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T1", 21, 15, 2000, 0));
+        List<String> allIds = this.readAll();
+        Assert.assertEquals(allIds.size(), 515);
+        Assert.assertEquals(new HashSet<>(allIds).size(), 515);
+        this.assertPagesMatch(30);
+        /* as do the deleted ones */
+        this.store.delete(1, "T1", 2000, 2001);
+        this.store.delete(1, "T1", allIds.subList(100, 110));
+        Set<String> expectedIds = new HashSet<>(allIds.subList(15, allIds.size()));
+        expectedIds.removeAll(allIds.subList(100, 110));
+        Assert.assertEquals(new HashSet<>(this.readAll()), expectedIds);
+        this.assertPagesMatch(30);
+        this.store.deleteTable(1, "T1");
+    }
+
+    @Test
+    public void testPaginationAfterReadRepair() throws Exception {
+        this.store.createTable(1, "T2");
+        List<Record> records = AnalyticsRecordStoreTest.generateRecords(1, "T2", 1, 300, 10000, 1);
+        this.store.put(records);
+        /* the first records moved to later timestamps, leaving their earlier index entries obsolete */
+        List<Record> updatedRecords = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Record record = records.get(i);
+            updatedRecords.add(new Record(record.getId(), 1, "T2", record.getValues(), 50000 + i));
+        }
+        this.store.put(updatedRecords);
+        /* the cursors are located counting the obsolete entries, which are not read by these pages */
+        List<String> pageBeforeRepair = this.readPage(this.store, "T2", 90, 30);
+        this.readPage(this.store, "T2", 150, 30);
+        /* reading the first page removes the obsolete entries, shifting the offsets of all the later pages */
+        this.readPage(this.store, "T2", 0, 30);
+        List<String> allIds = this.readAll("T2");
+        Assert.assertEquals(allIds.size(), 300);
+        Assert.assertEquals(this.readPage(this.store, "T2", 90, 30), allIds.subList(90, 120));
+        Assert.assertEquals(this.readPage(this.store, "T2", 150, 30), allIds.subList(150, 180));
+        Assert.assertNotEquals(pageBeforeRepair, allIds.subList(90, 120));
+        this.store.deleteTable(1, "T2");
+    }
+
+    @Test
+    public void testPaginationWithOtherWriters() throws Exception {
+        /* a record store of another node, which does not keep page cursors since it is not the exclusive writer */
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(50);
+        HBaseAnalyticsRecordStore nodeStore = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+        this.store.createTable(1, "T3");
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T3", 1, 200, 10000, 1));
+        List<String> firstPage = this.readPage(nodeStore, "T3", 100, 30);
+        Assert.assertEquals(firstPage.size(), 30);
+        /* records added through the other record store, before the page read earlier */
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T3", 2, 20, 2000, 1));
+        List<String> allIds = this.readAll("T3");
+        Assert.assertEquals(allIds.size(), 220);
+        Assert.assertEquals(this.readPage(nodeStore, "T3", 100, 30), allIds.subList(100, 130));
+        Assert.assertEquals(this.readPage(nodeStore, "T3", 120, 30), firstPage);
+        this.store.deleteTable(1, "T3");
+    }
+
+}
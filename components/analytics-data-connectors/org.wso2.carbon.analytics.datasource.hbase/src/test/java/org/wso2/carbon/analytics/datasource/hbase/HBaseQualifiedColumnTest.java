@@ -0,0 +1,144 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the updates and deletes of the records of qualified column tables in the HBase record store, where each
+ * column is kept in its own cell, against an HBase mini cluster.
+ */
+public class HBaseQualifiedColumnTest {
+
+    private HBaseTestingUtility util;
+
+    private HBaseAnalyticsRecordStore store;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.util = new HBaseTestingUtility();
+        this.util.startMiniCluster();
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(1000);
+        entry.setQualifiedColumnTables(new ArrayList<>(Arrays.asList("T1")));
+        this.store = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+        this.store.createTable(1, "T1");
+    }
+
+    @AfterClass
+    public void destroy() throws Exception {
+        if (this.store != null) {
+            this.store.deleteTable(1, "T1");
+        }
+        if (this.util != null) {
+            this.util.shutdownMiniCluster();
+        }
+    }
+
+    private Record createRecord(String id, long timestamp, String... columns) {
+        Map<String, Object> values = new HashMap<>();
+        for (String column : columns) {
+            values.put(column, column + "-" + timestamp);
+        }
+        return new Record(id, 1, "T1", values, timestamp);
+    }
+
+    private Record read(String id) throws AnalyticsException {
+        List<Record> records = GenericUtils.listRecords(this.store, this.store.get(1, "T1", 1, null,
+                Arrays.asList(id)));
+        if (records.isEmpty()) {
+            return null;
+        }
+        Assert.assertEquals(records.size(), 1);
+        return records.get(0);
+    }
+
+    private void assertRecord(Record record, Record expected) {
+        Assert.assertNotNull(record);
+        Assert.assertEquals(record.getTimestamp(), expected.getTimestamp());
+        Assert.assertEquals(record.getValues(), expected.getValues());
+    }
+
+    @Test
+    public void testDeleteAndReinsert() throws Exception {
+        this.store.put(Arrays.asList(this.createRecord("R1", 5000, "A", "B")));
+        this.store.delete(1, "T1", Arrays.asList("R1"));
+        Assert.assertNull(this.read("R1"));
+        /* written again right away, with an earlier timestamp than the deleted record */
+        Record record = this.createRecord("R1", 1000, "A");
+        this.store.put(Arrays.asList(record));
+        this.assertRecord(this.read("R1"), record);
+        /* deleted through its time range, and written again */
+        this.store.delete(1, "T1", 1000, 1001);
+        Assert.assertNull(this.read("R1"));
+        this.store.put(Arrays.asList(record));
+        this.assertRecord(this.read("R1"), record);
+    }
+
+    @Test
+    public void testUpdates() throws Exception {
+        this.store.put(Arrays.asList(this.createRecord("R2", 5000, "A", "B", "C")));
+        /* an update with an earlier timestamp is the latest write of the record */
+        Record record = this.createRecord("R2", 1000, "A", "B");
+        this.store.put(Arrays.asList(record));
+        this.assertRecord(this.read("R2"), record);
+        /* updates with the same timestamp, and fewer columns, written one right after the other */
+        for (int i = 0; i < 10; i++) {
+            this.store.put(Arrays.asList(this.createRecord("R2", 1000, "A", "B", "C")));
+            record = this.createRecord("R2", 1000, "C");
+            this.store.put(Arrays.asList(record));
+            this.assertRecord(this.read("R2"), record);
+        }
+        /* the same record written more than once in a single put */
+        record = this.createRecord("R2", 1000, "B");
+        this.store.put(Arrays.asList(this.createRecord("R2", 1000, "A", "C"), record));
+        this.assertRecord(this.read("R2"), record);
+    }
+
+    @Test
+    public void testTimestampLimits() throws Exception {
+        for (long timestamp : new long[] { 0, 1, Long.MAX_VALUE - 2, Long.MAX_VALUE - 1, Long.MAX_VALUE }) {
+            Record record = this.createRecord("R3", timestamp, "A", "B");
+            this.store.put(Arrays.asList(record));
+            this.assertRecord(this.read("R3"), record);
+        }
+        /* negative timestamps are not supported by the timestamp index */
+        try {
+            this.store.put(Arrays.asList(this.createRecord("R4", -1000, "A")));
+            Assert.fail("A record with a negative timestamp must be rejected");
+        } catch (AnalyticsException e) {
+            /* expected */
+        }
+        Assert.assertNull(this.read("R4"));
+        this.assertRecord(this.read("R3"), this.createRecord("R3", Long.MAX_VALUE, "A", "B"));
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.RegionLocator;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.client.Table;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.core.AnalyticsRecordStoreTest;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+import org.wso2.carbon.analytics.datasource.hbase.util.HBaseAnalyticsDSConstants;
+import org.wso2.carbon.analytics.datasource.hbase.util.HBaseUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the HBase record store with a salted timestamp index, where the index entries are spread across salt buckets
+ * and merged back in timestamp order when read, against an HBase mini cluster.
+ */
+public class HBaseSaltedIndexTest {
+
+    private static final int SALT_BUCKETS = 8;
+
+    private HBaseTestingUtility util;
+
+    private HBaseAnalyticsRecordStore store;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.util = new HBaseTestingUtility();
+        this.util.startMiniCluster();
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(50);
+        entry.setIndexSaltBuckets(SALT_BUCKETS);
+        entry.setExclusiveWriter(true);
+        this.store = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+    }
+
+    @AfterClass
+    public void destroy() throws Exception {
+        if (this.util != null) {
+            this.util.shutdownMiniCluster();
+        }
+    }
+
+    private List<Record> read(String tableName, long timeFrom, long timeTo, int recordsFrom, int count)
+            throws Exception {
+        return GenericUtils.listRecords(this.store, this.store.get(1, tableName, 1, null, timeFrom, timeTo,
+                recordsFrom, count));
+    }
+
+    private List<String> toIds(List<Record> records) {
+        List<String> ids = new ArrayList<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private void assertTimeOrdered(List<Record> records) {
+        for (int i = 1; i < records.size(); i++) {
+            Assert.assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp(),
+                    "Records out of timestamp order at " + i);
+        }
+    }
+
+    private List<Record> generateRecords(String tableName) {
+        List<Record> records = new ArrayList<>();
+        /* distinct timestamps, and runs of records sharing timestamps, which land in different salt buckets */
+        records.addAll(AnalyticsRecordStoreTest.generateRecords(1, tableName, 1, 200, 1000, 1));
+        for (int i = 0; i < 10; i++) {
+            records.addAll(AnalyticsRecordStoreTest.generateRecords(1, tableName, 2, 15, 2000 + i * 10, 0));
+        }
+        records.addAll(AnalyticsRecordStoreTest.generateRecords(1, tableName, 3, 150, 3000, 1));
+        return records;
+    }
+
+    @Test
+    public void testMergedReads() throws Exception {
+        this.store.createTable(1, "S1");
+        List<Record> records = this.generateRecords("S1");
+        this.store.put(records);
+        Set<String> allIds = new HashSet<>(this.toIds(records));
+        List<Record> result = this.read("S1", 0, 10000, 0, -1);
+        Assert.assertEquals(result.size(), 500);
+        Assert.assertEquals(new HashSet<>(this.toIds(result)), allIds);
+        this.assertTimeOrdered(result);
+        /* sub ranges and record counts, which take the earliest records across all the buckets */
+        result = this.read("S1", 1100, 2050, 0, -1);
+        Assert.assertEquals(result.size(), 100 + 5 * 15);
+        this.assertTimeOrdered(result);
+        List<Record> all = this.read("S1", 0, 10000, 0, -1);
+        for (int count : new int[] { 1, 49, 51, 210, 333 }) {
+            result = this.read("S1", 0, 10000, 0, count);
+            Assert.assertEquals(result.size(), count);
+            this.assertTimeOrdered(result);
+            Assert.assertEquals(result.get(count - 1).getTimestamp(), all.get(count - 1).getTimestamp());
+        }
+        this.store.deleteTable(1, "S1");
+    }
+
+    @Test
+    public void testPaginationAndRangeDeletes() throws Exception {
+        this.store.createTable(1, "S2");
+        this.store.put(this.generateRecords("S2"));
+        List<String> allIds = this.toIds(this.read("S2", 0, 10000, 0, -1));
+        Assert.assertEquals(allIds.size(), 500);
+        List<String> pagedIds = new ArrayList<>();
+        for (int i = 0; i < allIds.size(); i += 30) {
+            pagedIds.addAll(this.toIds(this.read("S2", 0, 10000, i, 30)));
+        }
+        Assert.assertEquals(pagedIds, allIds);
+        /* pages read again, resuming from the cursors located in the merged order */
+        for (int i = 480; i > 0; i -= 60) {
+            Assert.assertEquals(this.toIds(this.read("S2", 0, 10000, i, 30)),
+                    allIds.subList(i, Math.min(i + 30, allIds.size())));
+        }
+        /* a range delete across all the buckets, removing the runs sharing timestamps */
+        this.store.delete(1, "S2", 2000, 2100);
+        List<Record> remaining = this.read("S2", 0, 10000, 0, -1);
+        Assert.assertEquals(remaining.size(), 350);
+        for (Record record : remaining) {
+            Assert.assertTrue(record.getTimestamp() < 2000 || record.getTimestamp() >= 2100);
+        }
+        Assert.assertEquals(this.read("S2", 2000, 2100, 0, -1).size(), 0);
+        List<String> remainingIds = this.toIds(remaining);
+        Assert.assertEquals(this.toIds(this.read("S2", 0, 10000, 180, 40)), remainingIds.subList(180, 220));
+        Assert.assertEquals(this.read("S2", 0, 10000, 350, 10).size(), 0);
+        this.store.deleteTable(1, "S2");
+    }
+
+    @Test
+    public void testWriteDistribution() throws Exception {
+        this.store.createTable(1, "S3");
+        /* a burst of live writes with the same timestamp */
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "S3", 1, 800, 5000, 0));
+        TableName indexTable = TableName.valueOf(HBaseUtils.generateTableName(1, "S3",
+                HBaseAnalyticsDSConstants.TableType.INDEX));
+        RegionLocator locator = this.util.getConnection().getRegionLocator(indexTable);
+        try {
+            Assert.assertEquals(locator.getStartKeys().length, SALT_BUCKETS);
+        } finally {
+            locator.close();
+        }
+        Table table = this.util.getConnection().getTable(indexTable);
+        try {
+            int total = 0;
+            for (int i = 0; i < SALT_BUCKETS; i++) {
+                Scan scan = new Scan(new byte[] { (byte) i }, new byte[] { (byte) (i + 1) });
+                int entries = 0;
+                ResultScanner scanner = table.getScanner(scan);
+                try {
+                    for (Result result : scanner) {
+                        entries += result.size();
+                    }
+                } finally {
+                    scanner.close();
+                }
+                /* each bucket's region gets a share of the writes, instead of all going to one region */
+                Assert.assertTrue(entries > 0, "No index entries in salt bucket " + i);
+                Assert.assertTrue(entries < 800 / 2, "Salt bucket " + i + " has " + entries + " entries");
+                total += entries;
+            }
+            Assert.assertEquals(total, 800);
+        } finally {
+            table.close();
+        }
+        Assert.assertEquals(this.read("S3", 0, 10000, 0, -1).size(), 800);
+        this.store.deleteTable(1, "S3");
+    }
+
+}
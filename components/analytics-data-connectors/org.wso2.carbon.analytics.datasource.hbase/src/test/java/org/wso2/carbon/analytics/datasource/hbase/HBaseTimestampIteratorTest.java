@@ -0,0 +1,118 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.core.AnalyticsRecordStoreTest;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tests the timestamp range reads of the HBase record store, which scan the index in batches through a single
+ * scanner while the next batch is prefetched, against an HBase mini cluster.
+ */
+public class HBaseTimestampIteratorTest {
+
+    private static final int BATCH_SIZE = 50;
+
+    private HBaseTestingUtility util;
+
+    private HBaseAnalyticsRecordStore store;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.util = new HBaseTestingUtility();
+        this.util.startMiniCluster();
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(BATCH_SIZE);
+        this.store = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+    }
+
+    @AfterClass
+    public void destroy() throws Exception {
+        if (this.util != null) {
+            this.util.shutdownMiniCluster();
+        }
+    }
+
+    private List<Record> read(long timeFrom, long timeTo, int count) throws Exception {
+        return GenericUtils.listRecords(this.store, this.store.get(1, "T1", 1, null, timeFrom, timeTo, 0, count));
+    }
+
+    private Set<String> toIds(List<Record> records) {
+        Set<String> ids = new HashSet<>();
+        for (Record record : records) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private void assertTimeOrdered(List<Record> records) {
+        for (int i = 1; i < records.size(); i++) {
+            Assert.assertTrue(records.get(i - 1).getTimestamp() <= records.get(i).getTimestamp(),
+                    "Records out of timestamp order at " + i);
+        }
+    }
+
+    @Test
+    public void testMultiBatchReads() throws Exception {
+        this.store.createTable(1, "T1");
+        List<Record> records = new ArrayList<>();
+        /* a run of records sharing a timestamp, larger than a batch, in the middle of distinct timestamps */
+        records.addAll(AnalyticsRecordStoreTest.generateRecords(1, "T1", 1, 200, 1000, 1));
+        records.addAll(AnalyticsRecordStoreTest.generateRecords(1, "T1", 2, 120, 1500, 0));
+        records.addAll(AnalyticsRecordStoreTest.generateRecords(1, "T1", 3, 230, 2000, 1));
+        this.store.put(records);
+        Set<String> allIds = this.toIds(records);
+
+        List<Record> result = this.read(Long.MIN_VALUE + 1, Long.MAX_VALUE - 2, -1);
+        Assert.assertEquals(result.size(), 550);
+        Assert.assertEquals(this.toIds(result), allIds);
+        this.assertTimeOrdered(result);
+
+        /* a sub range, starting and ending in between batches */
+        result = this.read(1010, 2100, -1);
+        Assert.assertEquals(result.size(), 190 + 120 + 100);
+        this.assertTimeOrdered(result);
+        for (Record record : result) {
+            Assert.assertTrue(record.getTimestamp() >= 1010 && record.getTimestamp() < 2100);
+        }
+
+        /* record counts spanning several batches, taking the earliest records */
+        List<Record> all = this.read(0, 10000, -1);
+        for (int count : new int[] { 1, BATCH_SIZE, BATCH_SIZE + 1, 3 * BATCH_SIZE + 7, 260, 549, 550 }) {
+            result = this.read(0, 10000, count);
+            Assert.assertEquals(result.size(), count);
+            this.assertTimeOrdered(result);
+            Assert.assertEquals(this.toIds(result).size(), count);
+            Assert.assertEquals(result.get(count - 1).getTimestamp(), all.get(count - 1).getTimestamp());
+        }
+        Assert.assertEquals(this.toIds(this.read(0, 10000, 1000)), allIds);
+        this.store.deleteTable(1, "T1");
+    }
+
+}
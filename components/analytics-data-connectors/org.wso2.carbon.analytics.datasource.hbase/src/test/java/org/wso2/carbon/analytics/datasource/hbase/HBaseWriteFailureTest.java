@@ -0,0 +1,145 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.datasource.hbase;
+
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.TableName;
+import org.apache.hadoop.hbase.client.Admin;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.datasource.core.AnalyticsRecordStoreTest;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+import org.wso2.carbon.analytics.datasource.hbase.util.HBaseAnalyticsDSConstants;
+import org.wso2.carbon.analytics.datasource.hbase.util.HBaseUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the reporting of failed writes in the HBase record store, against an HBase mini cluster.
+ */
+public class HBaseWriteFailureTest {
+
+    private HBaseTestingUtility util;
+
+    private HBaseAnalyticsRecordStore store;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.util = new HBaseTestingUtility();
+        /* failing fast on the disabled table */
+        this.util.getConfiguration().setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 2);
+        this.util.getConfiguration().setLong(HConstants.HBASE_CLIENT_PAUSE, 100);
+        this.util.startMiniCluster();
+        HBaseAnalyticsConfigurationEntry entry = new HBaseAnalyticsConfigurationEntry();
+        entry.setBatchSize(5000);
+        this.store = new HBaseAnalyticsRecordStore(this.util.getConnection(), entry);
+    }
+
+    @AfterClass
+    public void destroy() throws Exception {
+        if (this.util != null) {
+            this.util.shutdownMiniCluster();
+        }
+    }
+
+    private void setDataTableEnabled(int tenantId, String tableName, boolean enabled) throws Exception {
+        TableName table = TableName.valueOf(HBaseUtils.generateTableName(tenantId, tableName,
+                HBaseAnalyticsDSConstants.TableType.DATA));
+        Admin admin = this.util.getHBaseAdmin();
+        if (enabled) {
+            admin.enableTable(table);
+        } else {
+            admin.disableTable(table);
+        }
+    }
+
+    @Test
+    public void testFailedPutIsReportedToItsCaller() throws Exception {
+        this.store.createTable(1, "T1");
+        this.store.createTable(1, "T2");
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T1", 1, 10, 1000, 1));
+        this.setDataTableEnabled(1, "T1", false);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            /* the puts to the healthy table, done at the same time, must not see the other table's failure */
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final int index = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        store.put(AnalyticsRecordStoreTest.generateRecords(1, "T2", index, 20, 1000, 1));
+                        return null;
+                    }
+                }));
+            }
+            try {
+                this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T1", 2, 10, 1000, 1));
+                Assert.fail("A put to a disabled table must fail");
+            } catch (AnalyticsException e) {
+                /* expected */
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        Assert.assertEquals(GenericUtils.listRecords(this.store, this.store.get(1, "T2", 1, null,
+                Long.MIN_VALUE, Long.MAX_VALUE, 0, -1)).size(), 100);
+        /* the earlier failure must not be reported to a later put */
+        this.setDataTableEnabled(1, "T1", true);
+        List<Record> records = AnalyticsRecordStoreTest.generateRecords(1, "T1", 3, 10, 5000, 1);
+        this.store.put(records);
+        Assert.assertEquals(GenericUtils.listRecords(this.store, this.store.get(1, "T1", 1, null,
+                records.get(0).getTimestamp(), records.get(records.size() - 1).getTimestamp() + 1, 0, -1))
+                .size(), 10);
+        this.store.deleteTable(1, "T1");
+        this.store.deleteTable(1, "T2");
+    }
+
+    @Test
+    public void testPutAfterTableRecreation() throws Exception {
+        this.store.createTable(1, "T3");
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T3", 1, 10, 1000, 1));
+        this.store.deleteTable(1, "T3");
+        try {
+            this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T3", 2, 10, 1000, 1));
+            Assert.fail("A put to a deleted table must fail");
+        } catch (AnalyticsException e) {
+            /* expected */
+        }
+        /* the mutators closed along with the deleted table must not be used for the table created again */
+        this.store.createTable(1, "T3");
+        this.store.put(AnalyticsRecordStoreTest.generateRecords(1, "T3", 3, 20, 1000, 1));
+        Assert.assertEquals(GenericUtils.listRecords(this.store, this.store.get(1, "T3", 1, null,
+                Long.MIN_VALUE, Long.MAX_VALUE, 0, -1)).size(), 20);
+        this.store.deleteTable(1, "T3");
+    }
+
+}
@@ -50,6 +50,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -64,9 +66,11 @@ public class AnalyticsDSConnector {
     private AtomicInteger totalRecordCounter;
     private long startTime;
     private boolean isProfilePersistence;
+    private ConcurrentMap<Integer, Map<String, EventRecordConverter>> eventConverters;
 
     public AnalyticsDSConnector() {
         gson = new Gson();
+        eventConverters = new ConcurrentHashMap<>();
         String profileReceiver = System.getProperty("profilePersistence");
         if (profileReceiver != null && profileReceiver.equalsIgnoreCase("true")) {
             isProfilePersistence = true;
@@ -141,45 +145,29 @@ public class AnalyticsDSConnector {
         }
     }
 
+    /**
+     * Drops the cached event converter of the given stream, so that it is rebuilt from the current stream definition
+     * and table schema when the next event of the stream arrives.
+     */
+    public void invalidateEventConverter(int tenantId, String streamId) {
+        Map<String, EventRecordConverter> tenantConverters = this.eventConverters.get(tenantId);
+        if (tenantConverters != null) {
+            tenantConverters.remove(streamId);
+        }
+    }
+
     private List<Record> convertEventsToRecord(int tenantId, List<Event> events)
             throws StreamDefinitionStoreException, AnalyticsException {
         List<Record> records = new ArrayList<>(events.size());
-        String tableName;
-        StreamDefinition streamDefinition;
-        AnalyticsSchema analyticsSchema;
-        AbstractStreamDefinitionStore streamDefinitionStore = ServiceHolder.getStreamDefinitionStoreService();
-        if (streamDefinitionStore == null) {
-            throw new AnalyticsException("Stream Definition store is not available. dropping Event");
-        }
+        /* converters are validated once per batch, and reused for all the events of the same stream in it */
+        Map<String, EventRecordConverter> batchConverters = new HashMap<>();
         for (Event event : events) {
-            long timestamp = System.currentTimeMillis();
-            streamDefinition = streamDefinitionStore.getStreamDefinition(event.getStreamId(), tenantId);
-            tableName = AnalyticsEventSinkUtil.generateAnalyticsTableName(streamDefinition.getName());
-            analyticsSchema = ServiceHolder.getAnalyticsDataAPI().getTableSchema(tenantId, tableName);
-            Map<String, Object> eventAttributes = new HashMap<>();
-            populateCommonAttributes(streamDefinition, analyticsSchema, eventAttributes);
-            populateTypedAttributes(analyticsSchema, AnalyticsEventSinkConstants.EVENT_META_DATA_TYPE,
-                                    streamDefinition.getMetaData(),
-                                    event.getMetaData(), eventAttributes);
-            populateTypedAttributes(analyticsSchema, AnalyticsEventSinkConstants.EVENT_CORRELATION_DATA_TYPE,
-                                    streamDefinition.getCorrelationData(),
-                                    event.getCorrelationData(), eventAttributes);
-            Long payloadTimestamp = populateTypedPayloadAttributes(analyticsSchema, null,
-                                                                   streamDefinition.getPayloadData(),
-                                                                   event.getPayloadData(), eventAttributes);
-            if (payloadTimestamp != null) {
-                timestamp = payloadTimestamp;
-            } else if (event.getTimeStamp() != 0L) {
-                timestamp = event.getTimeStamp();
+            EventRecordConverter converter = batchConverters.get(event.getStreamId());
+            if (converter == null) {
+                converter = this.lookupEventConverter(tenantId, event.getStreamId());
+                batchConverters.put(event.getStreamId(), converter);
             }
-            if (event.getArbitraryDataMap() != null && !event.getArbitraryDataMap().isEmpty()) {
-                for (String attributeName : event.getArbitraryDataMap().keySet()) {
-                    String attributeKey = "_" + attributeName;
-                    eventAttributes.put(attributeKey, getRecordValue(analyticsSchema, attributeKey,
-                            event.getArbitraryDataMap().get(attributeName), true));
-                }
-            }
-            Record record = new Record(tenantId, tableName, eventAttributes, timestamp);
+            Record record = converter.convert(tenantId, event);
             if (log.isDebugEnabled()) {
                 log.debug("Record being added: " + record);
             }
@@ -188,43 +176,43 @@ public class AnalyticsDSConnector {
         return records;
     }
 
-    private void populateTypedAttributes(AnalyticsSchema schema, String type, List<Attribute> attributes, Object[] values,
-                                         Map<String, Object> eventAttribute) throws AnalyticsException {
-        if (attributes == null) {
-            return;
+    private EventRecordConverter lookupEventConverter(int tenantId, String streamId)
+            throws StreamDefinitionStoreException, AnalyticsException {
+        Map<String, EventRecordConverter> tenantConverters = this.eventConverters.get(tenantId);
+        if (tenantConverters == null) {
+            tenantConverters = new ConcurrentHashMap<>();
+            Map<String, EventRecordConverter> existing = this.eventConverters.putIfAbsent(tenantId, tenantConverters);
+            if (existing != null) {
+                tenantConverters = existing;
+            }
         }
-        int iteration = 0;
-        for (Attribute attribute : attributes) {
-            String attributeKey = getAttributeKey(type, attribute.getName());
-            Object recordValue = getRecordValue(schema, attributeKey, values[iteration], false);
-            if (recordValue != null) {
-                eventAttribute.put(attributeKey, recordValue);
+        EventRecordConverter converter = tenantConverters.get(streamId);
+        if (converter != null) {
+            /* compared by value, since the data API may hand out a new schema instance for the same schema,
+             * e.g. when it is read from a remote data service */
+            AnalyticsSchema schema = ServiceHolder.getAnalyticsDataAPI().getTableSchema(tenantId, converter.tableName);
+            if (converter.schema.equals(schema)) {
+                return converter;
             }
-            iteration++;
         }
+        StreamDefinition streamDefinition = this.getStreamDefinition(tenantId, streamId);
+        if (streamDefinition == null) {
+            throw new AnalyticsException("Stream definition is not available for stream: " + streamId);
+        }
+        String tableName = AnalyticsEventSinkUtil.generateAnalyticsTableName(streamDefinition.getName());
+        converter = new EventRecordConverter(streamDefinition, tableName,
+                ServiceHolder.getAnalyticsDataAPI().getTableSchema(tenantId, tableName));
+        tenantConverters.put(streamId, converter);
+        return converter;
     }
 
-    private Long populateTypedPayloadAttributes(AnalyticsSchema schema, String type, List<Attribute> attributes,
-                                                Object[] values, Map<String, Object> eventAttribute)
-            throws AnalyticsException {
-        Long timestamp = null;
-        if (attributes == null) {
-            return null;
-        }
-        int iteration = 0;
-        for (Attribute attribute : attributes) {
-            if (AnalyticsEventSinkConstants.PAYLOAD_TIMESTAMP.equals(attribute.getName())) {
-                timestamp = (long) values[iteration];
-                continue;
-            }
-            String attributeKey = getAttributeKey(type, attribute.getName());
-            Object recordValue = getRecordValue(schema, attributeKey, values[iteration], false);
-            if (recordValue != null) {
-                eventAttribute.put(attributeKey, recordValue);
-            }
-            iteration++;
+    StreamDefinition getStreamDefinition(int tenantId, String streamId) throws StreamDefinitionStoreException,
+            AnalyticsException {
+        AbstractStreamDefinitionStore streamDefinitionStore = ServiceHolder.getStreamDefinitionStoreService();
+        if (streamDefinitionStore == null) {
+            throw new AnalyticsException("Stream Definition store is not available. dropping Event");
         }
-        return timestamp;
+        return streamDefinitionStore.getStreamDefinition(streamId, tenantId);
     }
 
     private String getAttributeKey(String type, String attributeName) {
@@ -235,49 +223,160 @@ public class AnalyticsDSConnector {
         }
     }
 
-    private void populateCommonAttributes(StreamDefinition streamDefinition, AnalyticsSchema schema,
-                                          Map<String, Object> eventAttributes) throws AnalyticsException {
-        eventAttributes.put(AnalyticsEventSinkConstants.STREAM_VERSION_KEY, getRecordValue(schema,
-                AnalyticsEventSinkConstants.STREAM_VERSION_KEY, streamDefinition.getVersion(), true));
-    }
-
     private Object getRecordValue(AnalyticsSchema schema, String fieldName, Object fieldValue, boolean mandatoryValue)
             throws AnalyticsException {
         ColumnDefinition columnDefinition = schema.getColumns().get(fieldName);
         if (columnDefinition != null) {
-            if (fieldValue instanceof String) {
-                String fieldStrValue = (String) fieldValue;
-                switch (columnDefinition.getType()) {
-                    case FACET:
-                        //converting the json array to comma separated String
-                        try {
-                            return StringUtils.join(gson.fromJson(fieldStrValue, List.class), ',');
-                        } catch (Exception e) {
-                            return fieldStrValue;
-                        }
-                    case STRING:
-                        return fieldStrValue;
-                    case BINARY:
-                        return GenericUtils.serializeObject(fieldStrValue);
-                    case BOOLEAN:
-                        return Boolean.parseBoolean(fieldStrValue);
-                    case DOUBLE:
-                        return Double.parseDouble(fieldStrValue);
-                    case FLOAT:
-                        return Float.parseFloat(fieldStrValue);
-                    case INTEGER:
-                        return Integer.parseInt(fieldStrValue);
-                    case LONG:
-                        return Long.parseLong(fieldStrValue);
-                }
-                return fieldValue;
-            } else {
-                return fieldValue;
-            }
+            return this.getRecordValue(columnDefinition, fieldValue);
         } else if (mandatoryValue) {
             return fieldValue;
         } else {
             return null;
         }
     }
+
+    private Object getRecordValue(ColumnDefinition columnDefinition, Object fieldValue) {
+        if (fieldValue instanceof String) {
+            String fieldStrValue = (String) fieldValue;
+            switch (columnDefinition.getType()) {
+                case FACET:
+                    //converting the json array to comma separated String
+                    try {
+                        return StringUtils.join(gson.fromJson(fieldStrValue, List.class), ',');
+                    } catch (Exception e) {
+                        return fieldStrValue;
+                    }
+                case STRING:
+                    return fieldStrValue;
+                case BINARY:
+                    return GenericUtils.serializeObject(fieldStrValue);
+                case BOOLEAN:
+                    return Boolean.parseBoolean(fieldStrValue);
+                case DOUBLE:
+                    return Double.parseDouble(fieldStrValue);
+                case FLOAT:
+                    return Float.parseFloat(fieldStrValue);
+                case INTEGER:
+                    return Integer.parseInt(fieldStrValue);
+                case LONG:
+                    return Long.parseLong(fieldStrValue);
+            }
+        }
+        return fieldValue;
+    }
+
+    /**
+     * Converts the events of a stream to records of its table. The record column names and definitions of the stream
+     * attributes are resolved once from the stream definition and the table schema, so that each event is converted
+     * by its attribute positions.
+     */
+    private class EventRecordConverter {
+
+        private String tableName;
+
+        private AnalyticsSchema schema;
+
+        private Object version;
+
+        private String[] metaKeys;
+
+        private ColumnDefinition[] metaColumns;
+
+        private String[] correlationKeys;
+
+        private ColumnDefinition[] correlationColumns;
+
+        private String[] payloadKeys;
+
+        private ColumnDefinition[] payloadColumns;
+
+        private int payloadTimestampIndex = -1;
+
+        private int attributeCount;
+
+        private EventRecordConverter(StreamDefinition streamDefinition, String tableName, AnalyticsSchema schema)
+                throws AnalyticsException {
+            this.tableName = tableName;
+            this.schema = schema;
+            this.version = getRecordValue(schema, AnalyticsEventSinkConstants.STREAM_VERSION_KEY,
+                    streamDefinition.getVersion(), true);
+            List<Attribute> metaData = streamDefinition.getMetaData();
+            if (metaData != null) {
+                this.metaKeys = new String[metaData.size()];
+                this.metaColumns = new ColumnDefinition[metaData.size()];
+                this.resolveColumns(AnalyticsEventSinkConstants.EVENT_META_DATA_TYPE, metaData, this.metaKeys,
+                        this.metaColumns);
+            }
+            List<Attribute> correlationData = streamDefinition.getCorrelationData();
+            if (correlationData != null) {
+                this.correlationKeys = new String[correlationData.size()];
+                this.correlationColumns = new ColumnDefinition[correlationData.size()];
+                this.resolveColumns(AnalyticsEventSinkConstants.EVENT_CORRELATION_DATA_TYPE, correlationData,
+                        this.correlationKeys, this.correlationColumns);
+            }
+            List<Attribute> payloadData = streamDefinition.getPayloadData();
+            if (payloadData != null) {
+                this.payloadKeys = new String[payloadData.size()];
+                this.payloadColumns = new ColumnDefinition[payloadData.size()];
+                this.resolveColumns(null, payloadData, this.payloadKeys, this.payloadColumns);
+                for (int i = 0; i < payloadData.size(); i++) {
+                    if (AnalyticsEventSinkConstants.PAYLOAD_TIMESTAMP.equals(payloadData.get(i).getName())) {
+                        this.payloadTimestampIndex = i;
+                        /* the payload timestamp becomes the record timestamp, not a column */
+                        this.payloadColumns[i] = null;
+                    }
+                }
+            }
+        }
+
+        private void resolveColumns(String type, List<Attribute> attributes, String[] keys, ColumnDefinition[] columns) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = getAttributeKey(type, attributes.get(i).getName());
+                columns[i] = this.schema.getColumns().get(keys[i]);
+                if (columns[i] != null) {
+                    this.attributeCount++;
+                }
+            }
+        }
+
+        private Record convert(int tenantId, Event event) throws AnalyticsException {
+            long timestamp = System.currentTimeMillis();
+            Map<String, String> arbitraryData = event.getArbitraryDataMap();
+            int count = this.attributeCount + 1 + (arbitraryData == null ? 0 : arbitraryData.size());
+            Map<String, Object> eventAttributes = new HashMap<>((int) (count / 0.75f) + 1);
+            eventAttributes.put(AnalyticsEventSinkConstants.STREAM_VERSION_KEY, this.version);
+            this.populateAttributes(this.metaKeys, this.metaColumns, event.getMetaData(), eventAttributes);
+            this.populateAttributes(this.correlationKeys, this.correlationColumns, event.getCorrelationData(),
+                    eventAttributes);
+            this.populateAttributes(this.payloadKeys, this.payloadColumns, event.getPayloadData(), eventAttributes);
+            if (this.payloadTimestampIndex != -1) {
+                timestamp = (long) event.getPayloadData()[this.payloadTimestampIndex];
+            } else if (event.getTimeStamp() != 0L) {
+                timestamp = event.getTimeStamp();
+            }
+            if (arbitraryData != null && !arbitraryData.isEmpty()) {
+                for (Map.Entry<String, String> entry : arbitraryData.entrySet()) {
+                    String attributeKey = "_" + entry.getKey();
+                    eventAttributes.put(attributeKey, getRecordValue(this.schema, attributeKey, entry.getValue(),
+                            true));
+                }
+            }
+            return new Record(tenantId, this.tableName, eventAttributes, timestamp);
+        }
+
+        private void populateAttributes(String[] keys, ColumnDefinition[] columns, Object[] values,
+                                        Map<String, Object> eventAttributes) {
+            if (keys == null) {
+                return;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (columns[i] != null) {
+                    Object recordValue = getRecordValue(columns[i], values[i]);
+                    if (recordValue != null) {
+                        eventAttributes.put(keys[i], recordValue);
+                    }
+                }
+            }
+        }
+    }
 }
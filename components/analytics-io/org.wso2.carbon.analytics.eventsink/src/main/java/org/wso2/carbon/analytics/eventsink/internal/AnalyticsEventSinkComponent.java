@@ -24,6 +24,7 @@ import org.wso2.carbon.analytics.api.AnalyticsDataAPI;
 import org.wso2.carbon.analytics.eventsink.AnalyticsEventSinkService;
 import org.wso2.carbon.analytics.eventsink.AnalyticsEventSinkServiceImpl;
 import org.wso2.carbon.analytics.eventsink.AnalyticsEventStoreCAppDeployer;
+import org.wso2.carbon.analytics.eventsink.internal.queue.AnalyticsEventQueueManager;
 import org.wso2.carbon.analytics.eventsink.internal.util.AnalyticsEventSinkConstants;
 import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
 import org.wso2.carbon.analytics.eventsink.subscriber.AnalyticsEventStreamListener;
@@ -106,6 +107,8 @@ public class AnalyticsEventSinkComponent {
     }
 
     protected void deactivate(ComponentContext componentContext) {
+        AnalyticsEventQueueManager.getInstance().unregisterMetrics();
+        AnalyticsEventQueueManager.getInstance().shutdown();
         if (log.isDebugEnabled()) {
             log.debug("Stopped AnalyticsEventSink component");
         }
@@ -32,12 +32,27 @@ public class AnalyticsEventSinkConfiguration {
     private int batchSize;
     private int workerPoolSize;
     private int maxQueueCapacity;
+    private int maxInFlightBatches;
+    private int minBatchSize;
+    private long targetWriteLatency;
+    private long maxLingerTime;
+    private boolean walEnabled;
+    private String walDirectory;
+    private int walSegmentSize;
+    private long walSyncInterval;
 
     public AnalyticsEventSinkConfiguration() {
         this.queueSize = AnalyticsEventSinkConstants.DEFAULT_EVENT_QUEUE_SIZE;
         this.batchSize = AnalyticsEventSinkConstants.DEFAULT_BATCH_SIZE * 1000;
         this.workerPoolSize = AnalyticsEventSinkConstants.DEFAULT_WORKER_POOL_SIZE;
         this.maxQueueCapacity = AnalyticsEventSinkConstants.DEFAULT_MAX_QUEUE_CAPACITY * 1000000;
+        this.maxInFlightBatches = AnalyticsEventSinkConstants.DEFAULT_MAX_IN_FLIGHT_BATCHES;
+        this.minBatchSize = AnalyticsEventSinkConstants.DEFAULT_MIN_BATCH_SIZE * 1000;
+        this.targetWriteLatency = AnalyticsEventSinkConstants.DEFAULT_TARGET_WRITE_LATENCY;
+        this.maxLingerTime = AnalyticsEventSinkConstants.DEFAULT_MAX_LINGER_TIME;
+        this.walDirectory = AnalyticsEventSinkConstants.DEFAULT_WAL_DIRECTORY;
+        this.walSegmentSize = AnalyticsEventSinkConstants.DEFAULT_WAL_SEGMENT_SIZE * 1000000;
+        this.walSyncInterval = AnalyticsEventSinkConstants.DEFAULT_WAL_SYNC_INTERVAL;
     }
 
     @XmlElement(name = "QueueSize")
@@ -75,4 +90,76 @@ public class AnalyticsEventSinkConfiguration {
     public void setMaxQueueCapacity(int maxQueueCapacity) {
         this.maxQueueCapacity = maxQueueCapacity * 1000000;
     }
+
+    @XmlElement(name = "MaxInFlightBatches")
+    public int getMaxInFlightBatches() {
+        return maxInFlightBatches;
+    }
+
+    public void setMaxInFlightBatches(int maxInFlightBatches) {
+        this.maxInFlightBatches = maxInFlightBatches;
+    }
+
+    @XmlElement(name = "MinBatchSize")
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize * 1000;
+    }
+
+    @XmlElement(name = "TargetWriteLatency")
+    public long getTargetWriteLatency() {
+        return targetWriteLatency;
+    }
+
+    public void setTargetWriteLatency(long targetWriteLatency) {
+        this.targetWriteLatency = targetWriteLatency;
+    }
+
+    @XmlElement(name = "MaxLingerTime")
+    public long getMaxLingerTime() {
+        return maxLingerTime;
+    }
+
+    public void setMaxLingerTime(long maxLingerTime) {
+        this.maxLingerTime = maxLingerTime;
+    }
+
+    @XmlElement(name = "WALEnabled")
+    public boolean isWalEnabled() {
+        return walEnabled;
+    }
+
+    public void setWalEnabled(boolean walEnabled) {
+        this.walEnabled = walEnabled;
+    }
+
+    @XmlElement(name = "WALDirectory")
+    public String getWalDirectory() {
+        return walDirectory;
+    }
+
+    public void setWalDirectory(String walDirectory) {
+        this.walDirectory = walDirectory;
+    }
+
+    @XmlElement(name = "WALSegmentSize")
+    public int getWalSegmentSize() {
+        return walSegmentSize;
+    }
+
+    public void setWalSegmentSize(int walSegmentSize) {
+        this.walSegmentSize = walSegmentSize * 1000000;
+    }
+
+    @XmlElement(name = "WALSyncInterval")
+    public long getWalSyncInterval() {
+        return walSyncInterval;
+    }
+
+    public void setWalSyncInterval(long walSyncInterval) {
+        this.walSyncInterval = walSyncInterval;
+    }
 }
@@ -23,6 +23,8 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.CarbonException;
 import org.wso2.carbon.analytics.eventsink.AnalyticsEventStoreDeployer;
+import org.wso2.carbon.analytics.eventsink.internal.queue.AnalyticsEventWriteAheadLog;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
 import org.wso2.carbon.context.CarbonContext;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.core.ServerStartupObserver;
@@ -91,6 +93,10 @@ public class AnalyticsEventSinkServerStartupObserver implements ServerStartupObs
             } catch (CarbonException e) {
                 log.error("Error when getting the deployer for evn store to proceed the initialization of deployments. ", e);
             }
+            if (ServiceHolder.getAnalyticsEventSinkConfiguration().isWalEnabled()) {
+                /* the event stores are deployed by now, so the events of the earlier runs can be stored */
+                AnalyticsEventWriteAheadLog.replay();
+            }
         }
     }
 }
@@ -0,0 +1,144 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Controls the size of the event batches written to the data store, using additive increase / multiplicative
+ * decrease (AIMD) against a target write latency: while batches are written within the target latency, the batch
+ * size grows by the minimum batch size, and when a write takes longer or fails, it is halved. The size always stays
+ * within the configured minimum and maximum batch sizes.
+ */
+public class AnalyticsEventBatchSizer implements AnalyticsEventBatchSizerMXBean {
+
+    private static final Log log = LogFactory.getLog(AnalyticsEventBatchSizer.class);
+
+    private static final String MBEAN_NAME_PREFIX = "org.wso2.carbon.analytics.eventsink:type=EventBatchSizer,tenant=";
+
+    /* weight of the latest write in the average write latency */
+    private static final double LATENCY_AVERAGE_WEIGHT = 0.2;
+
+    private int minBatchSize;
+
+    private int maxBatchSize;
+
+    private long targetLatency;
+
+    private volatile int batchSize;
+
+    private volatile long lastWriteLatency;
+
+    private volatile double averageWriteLatency;
+
+    private volatile long writtenBatchCount;
+
+    private ObjectName mbeanName;
+
+    public AnalyticsEventBatchSizer(int minBatchSize, int maxBatchSize, long targetLatency) {
+        this.minBatchSize = Math.max(1, Math.min(minBatchSize, maxBatchSize));
+        this.maxBatchSize = maxBatchSize;
+        this.targetLatency = targetLatency;
+        this.batchSize = this.minBatchSize;
+    }
+
+    /**
+     * Records the write of a batch, adjusting the batch size for the next batches.
+     *
+     * @param latency The time taken to write the batch in milliseconds
+     * @param success Whether the batch was written successfully
+     */
+    public synchronized void batchWritten(long latency, boolean success) {
+        this.lastWriteLatency = latency;
+        if (this.writtenBatchCount == 0) {
+            this.averageWriteLatency = latency;
+        } else {
+            this.averageWriteLatency = LATENCY_AVERAGE_WEIGHT * latency +
+                    (1 - LATENCY_AVERAGE_WEIGHT) * this.averageWriteLatency;
+        }
+        this.writtenBatchCount++;
+        if (success && latency <= this.targetLatency) {
+            this.batchSize = (int) Math.min((long) this.batchSize + this.minBatchSize, this.maxBatchSize);
+        } else {
+            this.batchSize = Math.max(this.batchSize / 2, this.minBatchSize);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Batch written in " + latency + " ms, next batch size : " + this.batchSize);
+        }
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public long getLastWriteLatency() {
+        return lastWriteLatency;
+    }
+
+    @Override
+    public double getAverageWriteLatency() {
+        return averageWriteLatency;
+    }
+
+    @Override
+    public long getWrittenBatchCount() {
+        return writtenBatchCount;
+    }
+
+    /**
+     * Registers this as an MBean for the given tenant, replacing any earlier registration.
+     */
+    public void register(int tenantId) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(MBEAN_NAME_PREFIX + tenantId);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            this.mbeanName = name;
+        } catch (Exception e) {
+            log.warn("Unable to register the event batch metrics of tenant " + tenantId + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Unregisters this MBean, if it was registered.
+     */
+    public void unregister() {
+        if (this.mbeanName == null) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(this.mbeanName)) {
+                server.unregisterMBean(this.mbeanName);
+            }
+        } catch (Exception e) {
+            log.warn("Unable to unregister the event batch metrics " + this.mbeanName + ": " + e.getMessage(), e);
+        }
+        this.mbeanName = null;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+/**
+ * JMX view of the event batch sizing of a tenant's event queue.
+ */
+public interface AnalyticsEventBatchSizerMXBean {
+
+    /**
+     * Returns the current batch size in bytes.
+     */
+    int getBatchSize();
+
+    /**
+     * Returns the time taken to write the last batch to the data store in milliseconds.
+     */
+    long getLastWriteLatency();
+
+    /**
+     * Returns the exponentially weighted moving average of the batch write times in milliseconds.
+     */
+    double getAverageWriteLatency();
+
+    /**
+     * Returns the number of batches written so far.
+     */
+    long getWrittenBatchCount();
+
+}
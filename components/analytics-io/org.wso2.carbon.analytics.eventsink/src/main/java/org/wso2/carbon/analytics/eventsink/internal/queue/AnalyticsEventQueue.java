@@ -17,19 +17,27 @@
 */
 package org.wso2.carbon.analytics.eventsink.internal.queue;
 
+import com.lmax.disruptor.BlockingWaitStrategy;
 import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.TimeoutBlockingWaitStrategy;
+import com.lmax.disruptor.TimeoutException;
+import com.lmax.disruptor.WaitStrategy;
 import com.lmax.disruptor.dsl.Disruptor;
+import com.lmax.disruptor.dsl.ProducerType;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
 import org.wso2.carbon.databridge.commons.Event;
 import org.wso2.carbon.databridge.commons.utils.DataBridgeCommonsUtils;
-import org.wso2.carbon.databridge.core.Utils.DataBridgeUtils;
-import org.wso2.carbon.databridge.core.Utils.EventComposite;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.Semaphore;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * This is the Queue which is created per tenant basis, and it will buffer all the events received for the tenant,
@@ -38,54 +46,83 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class AnalyticsEventQueue {
     private static final Log log = LogFactory.getLog(AnalyticsEventQueue.class);
+    /* upper bound of a single park while waiting for capacity, in case a wake up is missed */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+    private Disruptor<WrappedEventFactory.WrappedEvent> eventQueue;
     private RingBuffer<WrappedEventFactory.WrappedEvent> ringBuffer;
-    private AtomicInteger currentSize;
-    private int currentEventSize;
-    private int maxSize;
-    private Semaphore semaphore;
-    private final Object lock = new Object();
+    private AtomicLong currentSize;
+    private long maxSize;
+    private Queue<Thread> waitingProducers;
+    private AnalyticsEventWriteAheadLog writeAheadLog;
+    private AnalyticsEventQueueWorker worker;
+    private AtomicBoolean walAppendDisabled = new AtomicBoolean(false);
+    private int tenantId;
 
     @SuppressWarnings("unchecked")
-    public AnalyticsEventQueue(int tenantId) {
-        Disruptor<WrappedEventFactory.WrappedEvent> eventQueue = new Disruptor<>(new WrappedEventFactory(),
+    public AnalyticsEventQueue(int tenantId, ExecutorService consumerExecutor) {
+        this.tenantId = tenantId;
+        if (ServiceHolder.getAnalyticsEventSinkConfiguration().isWalEnabled()) {
+            try {
+                this.writeAheadLog = new AnalyticsEventWriteAheadLog(tenantId);
+            } catch (IOException e) {
+                log.error("Unable to create the event write-ahead log for tenant " + tenantId +
+                        ", continuing without it: " + e.getMessage(), e);
+            }
+        }
+        this.worker = new AnalyticsEventQueueWorker(tenantId, this);
+        WaitStrategy waitStrategy;
+        if (this.worker.getMaxLingerTime() > 0) {
+            /* the worker is woken up after the linger time to push the batch it is holding */
+            waitStrategy = new TimeoutBlockingWaitStrategy(this.worker.getMaxLingerTime(), TimeUnit.MILLISECONDS);
+        } else {
+            waitStrategy = new BlockingWaitStrategy();
+        }
+        this.eventQueue = new Disruptor<>(new WrappedEventFactory(),
                 ServiceHolder.getAnalyticsEventSinkConfiguration().getQueueSize(),
-                Executors.newCachedThreadPool());
-        eventQueue.handleEventsWith(new AnalyticsEventQueueWorker(tenantId, this));
-        this.currentEventSize = 0;
-        this.ringBuffer = eventQueue.start();
-        this.currentSize = new AtomicInteger(0);
+                consumerExecutor, ProducerType.MULTI, waitStrategy);
+        this.eventQueue.handleEventsWith(this.worker);
+        this.ringBuffer = this.eventQueue.start();
+        this.currentSize = new AtomicLong(0);
         this.maxSize = ServiceHolder.getAnalyticsEventSinkConfiguration().getMaxQueueCapacity();
-        this.semaphore = new Semaphore(1);
+        this.waitingProducers = new ConcurrentLinkedQueue<>();
         if (log.isDebugEnabled()) {
             log.debug("Event Queue Size = " + ServiceHolder.getAnalyticsEventSinkConfiguration().getQueueSize());
         }
     }
 
-    public synchronized void put(Event event) {
-        this.currentEventSize = DataBridgeCommonsUtils.getSize(event) + 4; //for the int value for size field.
-        if (currentSize.get() >= maxSize) {
-            try {
-                semaphore.acquire();
-                if (semaphore.availablePermits() == 0) {
-                    synchronized (lock) {
-                        if (semaphore.availablePermits() == 0) {
-                            semaphore.release();
-                        }
-                    }
-                }
-            } catch (InterruptedException ignored) {
-            }
-        }
+    /**
+     * Puts the given event to the queue. This is safe to be called by many producers concurrently, the slots are
+     * claimed from the ring buffer without any locking, and a producer only waits if the total size of the events
+     * in the queue has reached the maximum queue capacity.
+     */
+    public void put(Event event) {
+        int eventSize = DataBridgeCommonsUtils.getSize(event) + 4; //for the int value for size field.
+        this.waitForCapacity();
         long sequence = this.ringBuffer.next();
         WrappedEventFactory.WrappedEvent bufferedEvent = this.ringBuffer.get(sequence);
-        bufferedEvent.setEvent(event);
-        bufferedEvent.setSize(this.currentEventSize);
-        this.ringBuffer.publish(sequence);
-        if (currentSize.addAndGet(this.currentEventSize) >= maxSize) {
-            try {
-                semaphore.acquire();
-            } catch (InterruptedException ignored) {
+        boolean filled = false;
+        try {
+            if (this.writeAheadLog != null && !this.walAppendDisabled.get()) {
+                try {
+                    this.writeAheadLog.append(sequence, event);
+                } catch (IOException e) {
+                    this.disableWalAppends(e);
+                }
             }
+            bufferedEvent.setEvent(event);
+            bufferedEvent.setSize(eventSize);
+            /* accounted before publishing, so that the consumer never releases more than what is accounted */
+            this.currentSize.addAndGet(eventSize);
+            filled = true;
+        } finally {
+            if (!filled) {
+                /* a claimed slot must always be published, or the consumer stalls on it, so it is published empty
+                 * and skipped by the consumer, instead of carrying over whatever the slot held before */
+                bufferedEvent.setEvent(null);
+                bufferedEvent.setSize(0);
+            }
+            this.ringBuffer.publish(sequence);
         }
         if (log.isDebugEnabled()) {
             log.debug("current queue size in bytes : " + currentSize + ", remaining capacity : " +
@@ -93,14 +130,75 @@ public class AnalyticsEventQueue {
         }
     }
 
+    /**
+     * Stops logging the events of this queue after the write-ahead log failed to take an event. The batches are still
+     * checkpointed in the log, so that the events logged so far are not replayed once inserted, but the events from
+     * here on are only kept in memory until they are inserted.
+     */
+    private void disableWalAppends(IOException e) {
+        if (this.walAppendDisabled.compareAndSet(false, true)) {
+            log.error("Error writing an event to the write-ahead log of tenant " + this.tenantId + ", the " +
+                    "write-ahead log is DISABLED for this tenant's event queue until the server is restarted, and " +
+                    "the events buffered from now on are lost if the server crashes: " + e.getMessage(), e);
+        }
+    }
+
+    private void waitForCapacity() {
+        if (this.currentSize.get() < this.maxSize) {
+            return;
+        }
+        Thread producer = Thread.currentThread();
+        this.waitingProducers.add(producer);
+        try {
+            /* the size is re-checked after registering, so a release in between is not missed */
+            while (this.currentSize.get() >= this.maxSize) {
+                LockSupport.parkNanos(this, MAX_PARK_NANOS);
+                if (Thread.interrupted()) {
+                    producer.interrupt();
+                    break;
+                }
+            }
+        } finally {
+            this.waitingProducers.remove(producer);
+        }
+    }
+
+    public AnalyticsEventWriteAheadLog getWriteAheadLog() {
+        return writeAheadLog;
+    }
+
+    /**
+     * Stops the queue once the events in it are consumed, up to a timeout, after which the worker hands over the
+     * batch it is holding to be written.
+     */
+    public void shutdown() {
+        try {
+            this.eventQueue.shutdown(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            log.warn("Timed out waiting for the event queue of tenant " + this.tenantId + " to be consumed, " +
+                    "stopping it with " + this.currentSize.get() + " bytes of events left.");
+            this.eventQueue.halt();
+        }
+        /* the consumer stops asynchronously, handing over the batch it holds while stopping */
+        try {
+            if (!this.worker.awaitShutdown(SHUTDOWN_TIMEOUT)) {
+                log.warn("Timed out waiting for the event queue consumer of tenant " + this.tenantId + " to stop.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void unregisterMetrics() {
+        this.worker.unregisterMetrics();
+    }
+
     public void notifyReleasedEvent(WrappedEventFactory.WrappedEvent wrappedEvent, boolean endOfBatch) {
-        currentSize.addAndGet(-wrappedEvent.getSize());
+        long size = this.currentSize.addAndGet(-wrappedEvent.getSize());
         wrappedEvent.setEvent(null);
-        if (semaphore.availablePermits() == 0 && ((currentEventSize + currentSize.get()) < maxSize) || endOfBatch) {
-            synchronized (lock) {
-                if (semaphore.availablePermits() == 0 && ((currentEventSize + currentSize.get()) < maxSize) || endOfBatch) {
-                    semaphore.release();
-                }
+        if ((size < this.maxSize || endOfBatch) && !this.waitingProducers.isEmpty()) {
+            for (Thread producer : this.waitingProducers) {
+                LockSupport.unpark(producer);
             }
         }
     }
@@ -20,9 +20,15 @@ package org.wso2.carbon.analytics.eventsink.internal.queue;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsEventSinkConfiguration;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
 import org.wso2.carbon.databridge.commons.Event;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the manager class to hold all tenants queues, so that based on the
@@ -33,6 +39,8 @@ public class AnalyticsEventQueueManager {
     private static AnalyticsEventQueueManager instance = new AnalyticsEventQueueManager();
     private static ConcurrentHashMap<Integer, AnalyticsEventQueue> queueMap =
             new ConcurrentHashMap<Integer, AnalyticsEventQueue>();
+    private volatile AnalyticsEventWriterPool writerPool;
+    private ExecutorService consumerExecutor;
 
     private AnalyticsEventQueueManager() {
     }
@@ -47,7 +55,10 @@ public class AnalyticsEventQueueManager {
             synchronized (this) {
                 eventQueue = queueMap.get(tenantId);
                 if (eventQueue == null) {
-                    eventQueue = new AnalyticsEventQueue(tenantId);
+                    if (this.writerPool == null) {
+                        this.initExecutors();
+                    }
+                    eventQueue = new AnalyticsEventQueue(tenantId, this.consumerExecutor);
                     queueMap.put(tenantId, eventQueue);
                 }
             }
@@ -57,4 +68,61 @@ public class AnalyticsEventQueueManager {
         }
         eventQueue.put(event);
     }
+
+    private void initExecutors() {
+        AnalyticsEventSinkConfiguration config = ServiceHolder.getAnalyticsEventSinkConfiguration();
+        /* the ring buffer of each tenant queue needs a thread of its own to consume it */
+        final AtomicInteger consumerCount = new AtomicInteger();
+        this.consumerExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "analytics-event-queue-consumer-" + consumerCount.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.writerPool = new AnalyticsEventWriterPool(config.getWorkerPoolSize(), config.getMaxInFlightBatches());
+    }
+
+    /**
+     * Unregisters the metrics of all the tenant queues, when the event sink is stopped.
+     */
+    public void unregisterMetrics() {
+        for (AnalyticsEventQueue eventQueue : queueMap.values()) {
+            eventQueue.unregisterMetrics();
+        }
+    }
+
+    /**
+     * Stops the tenant queues and the writer pool, when the event sink is stopped. The events in the queues and the
+     * batches submitted are written first, up to a timeout.
+     */
+    public synchronized void shutdown() {
+        for (AnalyticsEventQueue eventQueue : queueMap.values()) {
+            eventQueue.shutdown();
+        }
+        queueMap.clear();
+        if (this.writerPool != null) {
+            this.writerPool.shutdown();
+            this.writerPool = null;
+        }
+        if (this.consumerExecutor != null) {
+            this.consumerExecutor.shutdown();
+            this.consumerExecutor = null;
+        }
+    }
+
+    /**
+     * Submits a batch of events of the given tenant to be written to the data store by the shared worker pool.
+     */
+    public void submitBatch(int tenantId, Runnable batch) {
+        if (this.writerPool == null) {
+            synchronized (this) {
+                if (this.writerPool == null) {
+                    this.initExecutors();
+                }
+            }
+        }
+        this.writerPool.submit(tenantId, batch);
+    }
 }
@@ -19,46 +19,78 @@
 package org.wso2.carbon.analytics.eventsink.internal.queue;
 
 import com.lmax.disruptor.EventHandler;
+import com.lmax.disruptor.LifecycleAware;
+import com.lmax.disruptor.TimeoutHandler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsEventSinkConfiguration;
 import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.databridge.commons.Event;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is the queue worker which listens to analytics queue; and once the batch size is reached, it will
- * do an insertion operation on the analytics data service.
+ * do an insertion operation on the analytics data service. The batch size is adjusted to the write latency by
+ * {@link AnalyticsEventBatchSizer}, and a batch which does not reach the batch size is still pushed once its first
+ * event has waited for the maximum linger time.
  */
-public class AnalyticsEventQueueWorker implements EventHandler<WrappedEventFactory.WrappedEvent> {
+public class AnalyticsEventQueueWorker implements EventHandler<WrappedEventFactory.WrappedEvent>, TimeoutHandler,
+        LifecycleAware {
     private static final Log log = LogFactory.getLog(AnalyticsEventQueueWorker.class);
     private AnalyticsEventQueue queue;
     private List<Event> events;
     private int tenantId;
     private int totalSize;
-    private AnalyticsBlockingExecutor threadPoolExecutor;
+    private long firstSequence;
+    private long lastSequence;
+    private long batchStartTime;
+    private long maxLingerTime;
+    private AnalyticsEventBatchSizer batchSizer;
+    private CountDownLatch stopped = new CountDownLatch(1);
 
     public AnalyticsEventQueueWorker(int tenantId, AnalyticsEventQueue queue) {
+        AnalyticsEventSinkConfiguration config = ServiceHolder.getAnalyticsEventSinkConfiguration();
         this.tenantId = tenantId;
         this.events = new ArrayList<>();
         this.queue = queue;
-        this.threadPoolExecutor = new AnalyticsBlockingExecutor(
-                ServiceHolder.getAnalyticsEventSinkConfiguration().getWorkerPoolSize());
         this.totalSize = 0;
+        this.maxLingerTime = config.getMaxLingerTime();
+        this.batchSizer = new AnalyticsEventBatchSizer(config.getMinBatchSize(), config.getBatchSize(),
+                config.getTargetWriteLatency());
+        this.batchSizer.register(tenantId);
     }
 
     @Override
     public void onEvent(WrappedEventFactory.WrappedEvent wrappedEvent, long sequence, boolean endOfBatch) throws Exception {
-        if (totalSize + wrappedEvent.getSize() > ServiceHolder.getAnalyticsEventSinkConfiguration().getBatchSize()) {
+        if (wrappedEvent.getEvent() == null) {
+            /* an empty slot published by a producer which failed to fill it */
+            if (endOfBatch && !this.events.isEmpty() && this.isLingerTimeElapsed()) {
+                pushEvents();
+            }
+            this.queue.notifyReleasedEvent(wrappedEvent, endOfBatch);
+            return;
+        }
+        if (this.events.isEmpty()) {
+            this.firstSequence = sequence;
+            this.batchStartTime = System.currentTimeMillis();
+        }
+        if (totalSize + wrappedEvent.getSize() > this.batchSizer.getBatchSize()) {
             if (!this.events.isEmpty()) {
                 pushEvents();
+                this.firstSequence = sequence;
+                this.batchStartTime = System.currentTimeMillis();
                 this.events.add(wrappedEvent.getEvent());
                 totalSize += wrappedEvent.getSize();
             } else {
                 this.events.add(wrappedEvent.getEvent());
                 totalSize += wrappedEvent.getSize();
+                this.lastSequence = sequence;
                 pushEvents();
             }
         } else {
@@ -68,12 +100,60 @@ public class AnalyticsEventQueueWorker implements EventHandler<WrappedEventFacto
                 log.debug("Collecting events, current totalSize : "+ totalSize);
             }
         }
-        if (endOfBatch && !this.events.isEmpty()){
+        this.lastSequence = sequence;
+        if (endOfBatch && !this.events.isEmpty() && this.isLingerTimeElapsed()) {
             pushEvents();
         }
         this.queue.notifyReleasedEvent(wrappedEvent, endOfBatch);
     }
 
+    /**
+     * Called by the ring buffer consumer when no events arrived within the linger time.
+     */
+    @Override
+    public void onTimeout(long sequence) throws Exception {
+        if (!this.events.isEmpty() && this.isLingerTimeElapsed()) {
+            pushEvents();
+        }
+    }
+
+    @Override
+    public void onStart() {
+    }
+
+    /**
+     * Called by the ring buffer consumer when the queue is stopped, to push the batch which is held.
+     */
+    @Override
+    public void onShutdown() {
+        try {
+            if (!this.events.isEmpty()) {
+                pushEvents();
+            }
+        } finally {
+            this.stopped.countDown();
+        }
+    }
+
+    /**
+     * Waits for the ring buffer consumer to stop, after it is halted.
+     */
+    public boolean awaitShutdown(long timeout) throws InterruptedException {
+        return this.stopped.await(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isLingerTimeElapsed() {
+        return System.currentTimeMillis() - this.batchStartTime >= this.maxLingerTime;
+    }
+
+    public long getMaxLingerTime() {
+        return maxLingerTime;
+    }
+
+    public void unregisterMetrics() {
+        this.batchSizer.unregister();
+    }
+
     private void pushEvents() {
         List<Event> tmpEvents = this.events;
         this.events = new ArrayList<>();
@@ -82,20 +162,33 @@ public class AnalyticsEventQueueWorker implements EventHandler<WrappedEventFacto
     }
 
     private void submitJob(List<Event> tmpEvents) {
-        this.threadPoolExecutor.submit(new AnalyticsEventProcessor(tmpEvents, totalSize));
+        AnalyticsEventWriteAheadLog writeAheadLog = this.queue.getWriteAheadLog();
+        if (writeAheadLog != null) {
+            writeAheadLog.dispatched(this.firstSequence, this.lastSequence);
+        }
+        AnalyticsEventQueueManager.getInstance().submitBatch(tenantId,
+                new AnalyticsEventProcessor(tmpEvents, totalSize, this.firstSequence, writeAheadLog));
     }
 
-    public class AnalyticsEventProcessor extends Thread {
+    public class AnalyticsEventProcessor implements Runnable {
 
         private List<Event> events;
         private int size;
+        private long firstSequence;
+        private AnalyticsEventWriteAheadLog writeAheadLog;
 
-        private AnalyticsEventProcessor(List<Event> events, int totalSize) {
+        private AnalyticsEventProcessor(List<Event> events, int totalSize, long firstSequence,
+                                        AnalyticsEventWriteAheadLog writeAheadLog) {
             this.events = events;
             this.size = totalSize;
+            this.firstSequence = firstSequence;
+            this.writeAheadLog = writeAheadLog;
         }
 
+        @Override
         public void run() {
+            long startTime = System.currentTimeMillis();
+            boolean success = false;
             try {
                 PrivilegedCarbonContext.startTenantFlow();
                 PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId, true);
@@ -103,11 +196,32 @@ public class AnalyticsEventQueueWorker implements EventHandler<WrappedEventFacto
                     log.debug("Batch size of : "+ this.size +" is going to be inserted in DAL");
                 }
                 ServiceHolder.getAnalyticsDSConnector().insertEvents(tenantId, this.events);
+                success = true;
             } catch (Exception e) {
                 String errorMsg = "Error processing event. ";
                 log.error(errorMsg, e);
             } finally {
                 PrivilegedCarbonContext.endTenantFlow();
+                batchSizer.batchWritten(System.currentTimeMillis() - startTime, success);
+                if (this.writeAheadLog != null) {
+                    this.checkpoint(success);
+                }
+            }
+        }
+
+        private void checkpoint(boolean success) {
+            if (success) {
+                this.writeAheadLog.completed(this.firstSequence);
+                return;
+            }
+            try {
+                this.writeAheadLog.failed(this.firstSequence);
+                log.error("The failed batch of " + this.events.size() + " events of tenant " + tenantId +
+                        " is kept in the event write-ahead log, and will be inserted again at the next startup.");
+            } catch (IOException e) {
+                log.error("Unable to record the failed batch in the event write-ahead log of tenant " + tenantId +
+                        ", the events from this batch onwards will be inserted again at the next startup: " +
+                        e.getMessage(), e);
             }
         }
     }
@@ -0,0 +1,524 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.analytics.datasource.core.util.GenericUtils;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsEventSinkConfiguration;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Write-ahead log of the events buffered in a tenant's {@link AnalyticsEventQueue}. Events are appended to fixed size,
+ * memory-mapped segment files, which survive a crash of the server process as soon as they are written. The segments
+ * are forced to disk together in the background (group commit) at the configured sync interval. Each event is logged
+ * with its ring buffer sequence, and once a batch is inserted to the data store, the highest sequence up to which all
+ * events are stored is checkpointed, after which fully checkpointed segments are removed. The sequence ranges of the
+ * batches which failed to be inserted are recorded separately, so that the checkpoint moves past them while their
+ * segments are kept until they are replayed. Logs left behind by an earlier run of the server are replayed to the data
+ * store at startup, recording the position up to which the events are inserted after each batch, so that a replay
+ * which fails part way is resumed from there.
+ */
+public class AnalyticsEventWriteAheadLog {
+
+    private static final Log log = LogFactory.getLog(AnalyticsEventWriteAheadLog.class);
+
+    private static final String SEGMENT_FILE_EXT = ".wal";
+
+    private static final String CHECKPOINT_FILE_EXT = ".checkpoint";
+
+    private static final String REPLAY_POSITION_FILE_EXT = ".replayed";
+
+    private static final String FAILED_RANGES_FILE_EXT = ".failed";
+
+    private static final String RUN_ID_SEPARATOR = "-";
+
+    /* entry layout: [int data length][long sequence][data] */
+    private static final int ENTRY_HEADER_SIZE = 4 + 8;
+
+    private static final int REPLAY_BATCH_SIZE = 1000;
+
+    private static final List<AnalyticsEventWriteAheadLog> activeLogs = new CopyOnWriteArrayList<>();
+
+    private static ScheduledExecutorService syncExecutor;
+
+    private File directory;
+
+    private String runId;
+
+    private int segmentSize;
+
+    private final Object appendLock = new Object();
+
+    private final Object checkpointLock = new Object();
+
+    private volatile Segment currentSegment;
+
+    private int nextSegmentIndex;
+
+    /* segments which are no longer appended to, but still hold events which are not checkpointed */
+    private List<Segment> closedSegments = new ArrayList<>();
+
+    private volatile boolean dirty;
+
+    private MappedByteBuffer checkpointBuffer;
+
+    /* first sequence -> last sequence of the batches handed over for insertion, but not yet completed */
+    private TreeMap<Long, Long> inFlightBatches = new TreeMap<>();
+
+    private long lastDispatchedSequence = -1;
+
+    private long checkpointedSequence = -1;
+
+    /* first sequence -> last sequence of the batches which failed to be inserted, to be replayed at the next startup */
+    private TreeMap<Long, Long> failedBatches = new TreeMap<>();
+
+    private File failedRangesFile;
+
+    public AnalyticsEventWriteAheadLog(int tenantId) throws IOException {
+        AnalyticsEventSinkConfiguration config = ServiceHolder.getAnalyticsEventSinkConfiguration();
+        this.directory = new File(resolveBaseDirectory(), String.valueOf(tenantId));
+        if (!this.directory.exists() && !this.directory.mkdirs()) {
+            throw new IOException("Unable to create the event write-ahead log directory: " +
+                    this.directory.getAbsolutePath());
+        }
+        this.runId = String.valueOf(System.currentTimeMillis());
+        this.segmentSize = config.getWalSegmentSize();
+        this.checkpointBuffer = map(new File(this.directory, this.runId + CHECKPOINT_FILE_EXT), 8);
+        this.checkpointBuffer.putLong(0, -1);
+        this.failedRangesFile = new File(this.directory, this.runId + FAILED_RANGES_FILE_EXT);
+        this.currentSegment = this.createSegment();
+        activeLogs.add(this);
+        scheduleSync(config.getWalSyncInterval());
+    }
+
+    private static File resolveBaseDirectory() {
+        return new File(GenericUtils.resolveLocation(
+                ServiceHolder.getAnalyticsEventSinkConfiguration().getWalDirectory()));
+    }
+
+    private static synchronized void scheduleSync(long syncInterval) {
+        if (syncExecutor != null) {
+            return;
+        }
+        syncExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "analytics-event-wal-sync");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        syncExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (AnalyticsEventWriteAheadLog wal : activeLogs) {
+                    wal.sync();
+                }
+            }
+        }, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            /* the mapping stays valid after the channel is closed */
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private Segment createSegment() throws IOException {
+        File file = new File(this.directory, this.runId + RUN_ID_SEPARATOR + (this.nextSegmentIndex++) +
+                SEGMENT_FILE_EXT);
+        return new Segment(file, map(file, this.segmentSize));
+    }
+
+    /**
+     * Appends the given event to the log, under the given ring buffer sequence.
+     */
+    public void append(long sequence, Event event) throws IOException {
+        byte[] data = GenericUtils.serializeObject(event);
+        int entrySize = ENTRY_HEADER_SIZE + data.length;
+        if (entrySize > this.segmentSize) {
+            throw new IOException("The event of size " + data.length + " bytes does not fit in a write-ahead log " +
+                    "segment of " + this.segmentSize + " bytes");
+        }
+        synchronized (this.appendLock) {
+            if (this.currentSegment.buffer.remaining() < entrySize) {
+                this.rollSegment();
+            }
+            MappedByteBuffer buffer = this.currentSegment.buffer;
+            int position = buffer.position();
+            buffer.position(position + 4);
+            buffer.putLong(sequence);
+            buffer.put(data);
+            /* the length is written last, so that a partially written entry is never picked up at replay */
+            buffer.putInt(position, data.length);
+            this.currentSegment.minSequence = Math.min(this.currentSegment.minSequence, sequence);
+            this.currentSegment.maxSequence = Math.max(this.currentSegment.maxSequence, sequence);
+            this.dirty = true;
+        }
+    }
+
+    private void rollSegment() throws IOException {
+        this.currentSegment.buffer.force();
+        Segment segment = this.createSegment();
+        synchronized (this.checkpointLock) {
+            this.closedSegments.add(this.currentSegment);
+        }
+        this.currentSegment = segment;
+    }
+
+    private void sync() {
+        if (!this.dirty) {
+            return;
+        }
+        this.dirty = false;
+        /* group commit: all entries appended since the last sync are forced to disk together */
+        this.currentSegment.buffer.force();
+    }
+
+    /**
+     * Marks the events from firstSequence to lastSequence as handed over for insertion to the data store. This must be
+     * called in the order of the sequences, i.e. from the single queue consumer.
+     */
+    public void dispatched(long firstSequence, long lastSequence) {
+        synchronized (this.checkpointLock) {
+            this.inFlightBatches.put(firstSequence, lastSequence);
+            this.lastDispatchedSequence = lastSequence;
+        }
+    }
+
+    /**
+     * Marks the batch starting at the given sequence as completed, advancing the checkpoint to the highest sequence up
+     * to which all batches have completed or failed.
+     */
+    public void completed(long firstSequence) {
+        List<Segment> releasedSegments;
+        synchronized (this.checkpointLock) {
+            this.inFlightBatches.remove(firstSequence);
+            releasedSegments = this.advanceCheckpoint();
+        }
+        this.removeSegments(releasedSegments);
+    }
+
+    /**
+     * Marks the batch starting at the given sequence as failed to be inserted. Its sequence range is recorded, so that
+     * its events are replayed at the next startup, and the checkpoint is advanced past it as in
+     * {@link #completed(long)}.
+     */
+    public void failed(long firstSequence) throws IOException {
+        List<Segment> releasedSegments;
+        synchronized (this.checkpointLock) {
+            Long lastSequence = this.inFlightBatches.get(firstSequence);
+            if (lastSequence == null) {
+                return;
+            }
+            /* recorded on disk before the checkpoint can move past the batch, if it cannot be, the batch stays in
+             * flight and holds the checkpoint back, which replays it along with all later events */
+            try (RandomAccessFile raf = new RandomAccessFile(this.failedRangesFile, "rw")) {
+                raf.seek(raf.length());
+                raf.writeLong(firstSequence);
+                raf.writeLong(lastSequence);
+                raf.getFD().sync();
+            }
+            this.inFlightBatches.remove(firstSequence);
+            this.failedBatches.put(firstSequence, lastSequence);
+            releasedSegments = this.advanceCheckpoint();
+        }
+        this.removeSegments(releasedSegments);
+    }
+
+    long getCheckpointedSequence() {
+        synchronized (this.checkpointLock) {
+            return this.checkpointedSequence;
+        }
+    }
+
+    private List<Segment> advanceCheckpoint() {
+        List<Segment> releasedSegments = new ArrayList<>();
+        long checkpoint;
+        if (this.inFlightBatches.isEmpty()) {
+            checkpoint = this.lastDispatchedSequence;
+        } else {
+            checkpoint = this.inFlightBatches.firstKey() - 1;
+        }
+        if (checkpoint <= this.checkpointedSequence) {
+            return releasedSegments;
+        }
+        this.checkpointedSequence = checkpoint;
+        this.checkpointBuffer.putLong(0, checkpoint);
+        for (Segment segment : new ArrayList<>(this.closedSegments)) {
+            if (segment.maxSequence <= checkpoint && !this.holdsFailedEvents(segment)) {
+                this.closedSegments.remove(segment);
+                releasedSegments.add(segment);
+            }
+        }
+        return releasedSegments;
+    }
+
+    private boolean holdsFailedEvents(Segment segment) {
+        /* batches do not overlap, so only the last one starting at or before the segment's last sequence can end
+         * within the segment */
+        Map.Entry<Long, Long> batch = this.failedBatches.floorEntry(segment.maxSequence);
+        return batch != null && batch.getValue() >= segment.minSequence;
+    }
+
+    private void removeSegments(List<Segment> segments) {
+        for (Segment segment : segments) {
+            if (!segment.file.delete()) {
+                log.warn("Unable to remove the checkpointed event write-ahead log segment: " +
+                        segment.file.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Replays the write-ahead logs left behind by earlier runs of the server for all tenants, inserting the events
+     * which were not checkpointed to the data store. The logs are removed once replayed successfully.
+     */
+    public static void replay() {
+        /* runs are identified by their creation time, so the ones of this JVM are the ones started after it */
+        replay(ManagementFactory.getRuntimeMXBean().getStartTime());
+    }
+
+    /**
+     * Replays the write-ahead logs of the runs started before the given time.
+     */
+    static void replay(long startTime) {
+        File baseDir = resolveBaseDirectory();
+        File[] tenantDirs = baseDir.listFiles();
+        if (tenantDirs == null) {
+            return;
+        }
+        for (File tenantDir : tenantDirs) {
+            int tenantId;
+            try {
+                tenantId = Integer.parseInt(tenantDir.getName());
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            for (Map.Entry<String, List<File>> run : groupByRun(tenantDir).entrySet()) {
+                if (Long.parseLong(run.getKey()) < startTime) {
+                    replayRun(tenantId, tenantDir, run.getKey(), run.getValue());
+                }
+            }
+        }
+    }
+
+    private static Map<String, List<File>> groupByRun(File tenantDir) {
+        Map<String, List<File>> runs = new HashMap<>();
+        File[] files = tenantDir.listFiles();
+        if (files == null) {
+            return runs;
+        }
+        for (File file : files) {
+            String name = file.getName();
+            if (!name.endsWith(SEGMENT_FILE_EXT)) {
+                continue;
+            }
+            int separatorIndex = name.indexOf(RUN_ID_SEPARATOR);
+            if (separatorIndex <= 0) {
+                continue;
+            }
+            String runId = name.substring(0, separatorIndex);
+            if (!runId.matches("\\d+")) {
+                continue;
+            }
+            List<File> segments = runs.get(runId);
+            if (segments == null) {
+                segments = new ArrayList<>();
+                runs.put(runId, segments);
+            }
+            segments.add(file);
+        }
+        return runs;
+    }
+
+    private static void replayRun(int tenantId, File tenantDir, String runId, List<File> segments) {
+        File checkpointFile = new File(tenantDir, runId + CHECKPOINT_FILE_EXT);
+        File replayPositionFile = new File(tenantDir, runId + REPLAY_POSITION_FILE_EXT);
+        File failedRangesFile = new File(tenantDir, runId + FAILED_RANGES_FILE_EXT);
+        File[] segmentFiles = segments.toArray(new File[segments.size()]);
+        Arrays.sort(segmentFiles, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Integer.compare(segmentIndex(f1), segmentIndex(f2));
+            }
+        });
+        int replayed = 0;
+        try {
+            long checkpoint = -1;
+            if (checkpointFile.exists()) {
+                checkpoint = map(checkpointFile, 8).getLong(0);
+            }
+            TreeMap<Long, Long> failedBatches = readFailedBatches(failedRangesFile);
+            /* The events are not logged in the order of their sequences, so the progress of the replay is recorded
+             * as the position in the log up to which the events are inserted, which is zero for a new file */
+            MappedByteBuffer replayPositionBuffer = map(replayPositionFile, 8);
+            long replayedPosition = replayPositionBuffer.getLong(0);
+            List<Event> events = new ArrayList<>(REPLAY_BATCH_SIZE);
+            long position = 0;
+            for (File segmentFile : segmentFiles) {
+                int index = segmentIndex(segmentFile);
+                MappedByteBuffer buffer = map(segmentFile, (int) segmentFile.length());
+                while (buffer.remaining() >= ENTRY_HEADER_SIZE) {
+                    long entryPosition = toLogPosition(index, buffer.position());
+                    int length = buffer.getInt();
+                    if (length <= 0 || buffer.remaining() < 8 + length) {
+                        /* end of the written entries of this segment */
+                        break;
+                    }
+                    long sequence = buffer.getLong();
+                    byte[] data = new byte[length];
+                    buffer.get(data);
+                    position = toLogPosition(index, buffer.position());
+                    if ((sequence > checkpoint || isInBatch(failedBatches, sequence)) &&
+                            entryPosition >= replayedPosition) {
+                        events.add((Event) GenericUtils.deserializeObject(data));
+                        if (events.size() >= REPLAY_BATCH_SIZE) {
+                            insertEvents(tenantId, events);
+                            replayed += events.size();
+                            updateReplayPosition(replayPositionBuffer, position);
+                            events = new ArrayList<>(REPLAY_BATCH_SIZE);
+                        }
+                    }
+                }
+            }
+            if (!events.isEmpty()) {
+                insertEvents(tenantId, events);
+                replayed += events.size();
+                updateReplayPosition(replayPositionBuffer, position);
+            }
+        } catch (Exception e) {
+            log.error("Error replaying the event write-ahead log of tenant " + tenantId + " at " +
+                    tenantDir.getAbsolutePath() + ", it will be retried at the next startup: " + e.getMessage(), e);
+            return;
+        }
+        for (File segmentFile : segmentFiles) {
+            if (!segmentFile.delete()) {
+                log.warn("Unable to remove the replayed event write-ahead log segment: " + segmentFile.getAbsolutePath());
+            }
+        }
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            log.warn("Unable to remove the event write-ahead log checkpoint: " + checkpointFile.getAbsolutePath());
+        }
+        if (failedRangesFile.exists() && !failedRangesFile.delete()) {
+            log.warn("Unable to remove the failed batches of the event write-ahead log: " +
+                    failedRangesFile.getAbsolutePath());
+        }
+        /* removed last, so that the segments left behind by a failed removal are not replayed again */
+        if (!replayPositionFile.delete()) {
+            log.warn("Unable to remove the event write-ahead log replay position: " +
+                    replayPositionFile.getAbsolutePath());
+        }
+        log.info("Replayed " + replayed + " events of tenant " + tenantId + " from the event write-ahead log.");
+    }
+
+    private static TreeMap<Long, Long> readFailedBatches(File failedRangesFile) throws IOException {
+        TreeMap<Long, Long> failedBatches = new TreeMap<>();
+        if (!failedRangesFile.exists()) {
+            return failedBatches;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(failedRangesFile)))) {
+            while (true) {
+                long firstSequence = in.readLong();
+                failedBatches.put(firstSequence, in.readLong());
+            }
+        } catch (EOFException e) {
+            /* end of the recorded ranges, where a partially written last range is left out, since its batch was
+             * never checkpointed past */
+        }
+        return failedBatches;
+    }
+
+    private static boolean isInBatch(TreeMap<Long, Long> batches, long sequence) {
+        Map.Entry<Long, Long> batch = batches.floorEntry(sequence);
+        return batch != null && batch.getValue() >= sequence;
+    }
+
+    /**
+     * The position of an entry in the log of a run, ordered by the segment index and then by the offset in the
+     * segment.
+     */
+    private static long toLogPosition(int segmentIndex, int offset) {
+        return ((long) segmentIndex << 32) | offset;
+    }
+
+    private static void updateReplayPosition(MappedByteBuffer replayPositionBuffer, long position) {
+        replayPositionBuffer.putLong(0, position);
+        replayPositionBuffer.force();
+    }
+
+    private static int segmentIndex(File segmentFile) {
+        String name = segmentFile.getName();
+        return Integer.parseInt(name.substring(name.indexOf(RUN_ID_SEPARATOR) + 1,
+                name.length() - SEGMENT_FILE_EXT.length()));
+    }
+
+    private static void insertEvents(int tenantId, List<Event> events) throws Exception {
+        try {
+            PrivilegedCarbonContext.startTenantFlow();
+            PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantId(tenantId, true);
+            ServiceHolder.getAnalyticsDSConnector().insertEvents(tenantId, events);
+        } finally {
+            PrivilegedCarbonContext.endTenantFlow();
+        }
+    }
+
+    private static class Segment {
+
+        private File file;
+
+        private MappedByteBuffer buffer;
+
+        private long minSequence = Long.MAX_VALUE;
+
+        private long maxSequence = -1;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Worker pool shared by the event queues of all the tenants, which writes the event batches to the data store. The
+ * pending batches are kept per tenant, and the workers take one batch of a tenant at a time in round robin order, so
+ * that a tenant with a large backlog does not delay the batches of the other tenants. The number of batches which
+ * are submitted but not yet written is capped globally, and submitting a batch blocks while the cap is reached. When
+ * the pool is shut down, the batches already submitted are still written, up to a timeout.
+ */
+public class AnalyticsEventWriterPool {
+
+    private static final Log log = LogFactory.getLog(AnalyticsEventWriterPool.class);
+
+    private ConcurrentMap<Integer, TenantBatches> tenantBatches = new ConcurrentHashMap<>();
+
+    /* tenants with pending batches, each tenant is present at most once */
+    private BlockingQueue<TenantBatches> readyTenants = new LinkedBlockingQueue<>();
+
+    /* how often blocked submitters and idle workers check whether the pool is shut down */
+    private static final long SHUTDOWN_CHECK_INTERVAL = 1000;
+
+    private static final long SHUTDOWN_TIMEOUT = 30000;
+
+    private Semaphore inFlightBatches;
+
+    private List<Thread> workers = new ArrayList<>();
+
+    private volatile boolean shutdown;
+
+    public AnalyticsEventWriterPool(int workerCount, int maxInFlightBatches) {
+        this.inFlightBatches = new Semaphore(maxInFlightBatches, true);
+        for (int i = 0; i < workerCount; i++) {
+            Thread worker = new Thread(new Worker(), "analytics-event-writer-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            this.workers.add(worker);
+        }
+    }
+
+    /**
+     * Submits the given batch of the given tenant to be written, blocking while the maximum number of in-flight
+     * batches is reached.
+     */
+    public void submit(int tenantId, Runnable batch) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (this.shutdown) {
+                    log.warn("Event writer pool is shut down, the event batch of tenant " + tenantId + " is not " +
+                            "written, and is only kept if the event write-ahead log is enabled.");
+                    return;
+                }
+                try {
+                    if (this.inFlightBatches.tryAcquire(SHUTDOWN_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    /* the batch is still submitted, since dropping it loses its events, and the interrupt is left
+                     * for the caller to handle */
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        TenantBatches batches = this.tenantBatches.get(tenantId);
+        if (batches == null) {
+            batches = new TenantBatches();
+            TenantBatches existing = this.tenantBatches.putIfAbsent(tenantId, batches);
+            if (existing != null) {
+                batches = existing;
+            }
+        }
+        batches.pending.add(batch);
+        if (batches.scheduled.compareAndSet(false, true)) {
+            this.readyTenants.add(batches);
+        }
+    }
+
+    /**
+     * Shuts down the pool, waiting for the workers to write the batches already submitted, and refusing new ones.
+     */
+    public void shutdown() {
+        this.shutdown = true;
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+        try {
+            for (Thread worker : this.workers) {
+                worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread worker : this.workers) {
+            worker.interrupt();
+        }
+        if (!this.readyTenants.isEmpty()) {
+            log.warn("Event writer pool shut down before writing all the submitted event batches.");
+        }
+    }
+
+    private void reschedule(TenantBatches batches) {
+        if (!batches.pending.isEmpty()) {
+            /* back to the end of the line, after the other tenants waiting */
+            this.readyTenants.add(batches);
+            return;
+        }
+        batches.scheduled.set(false);
+        /* a batch may have been added after the check above, while the tenant was still marked as scheduled */
+        if (!batches.pending.isEmpty() && batches.scheduled.compareAndSet(false, true)) {
+            this.readyTenants.add(batches);
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        @Override
+        public void run() {
+            while (true) {
+                TenantBatches batches;
+                try {
+                    batches = readyTenants.poll(SHUTDOWN_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                if (batches == null) {
+                    /* the batches submitted before the shutdown are written first */
+                    if (shutdown) {
+                        return;
+                    }
+                    continue;
+                }
+                Runnable batch = batches.pending.poll();
+                reschedule(batches);
+                if (batch == null) {
+                    continue;
+                }
+                try {
+                    batch.run();
+                } catch (Throwable e) {
+                    log.error("Error writing event batch: " + e.getMessage(), e);
+                } finally {
+                    inFlightBatches.release();
+                }
+            }
+        }
+    }
+
+    private static class TenantBatches {
+
+        private Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+
+        private AtomicBoolean scheduled = new AtomicBoolean();
+    }
+}
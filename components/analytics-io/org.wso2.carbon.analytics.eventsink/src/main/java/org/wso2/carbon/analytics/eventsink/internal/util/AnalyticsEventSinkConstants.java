@@ -27,6 +27,13 @@ public class AnalyticsEventSinkConstants {
     public static final int DEFAULT_BATCH_SIZE = 10;
     public static final int DEFAULT_WORKER_POOL_SIZE = 10;
     public static final int DEFAULT_MAX_QUEUE_CAPACITY = 50;
+    public static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 100;
+    public static final int DEFAULT_MIN_BATCH_SIZE = 1;
+    public static final long DEFAULT_TARGET_WRITE_LATENCY = 500;
+    public static final long DEFAULT_MAX_LINGER_TIME = 20;
+    public static final String DEFAULT_WAL_DIRECTORY = "$CARBON_HOME/repository/data/eventsink-wal";
+    public static final int DEFAULT_WAL_SEGMENT_SIZE = 64;
+    public static final long DEFAULT_WAL_SYNC_INTERVAL = 1000;
 
     public static final String EVENT_META_DATA_TYPE = "meta";
     public static final String EVENT_CORRELATION_DATA_TYPE = "correlation";
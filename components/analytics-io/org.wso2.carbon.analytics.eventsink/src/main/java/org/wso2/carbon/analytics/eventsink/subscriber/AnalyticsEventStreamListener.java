@@ -73,6 +73,7 @@ public class AnalyticsEventStreamListener implements EventStreamListener {
     }
 
     public void subscribeForStream(int tenantId, String streamId) {
+        invalidateEventConverter(tenantId, streamId);
         List<AnalyticsWSO2EventConsumer> consumers = consumerCache.get(tenantId);
         if (consumers == null) {
             synchronized (this) {
@@ -97,6 +98,7 @@ public class AnalyticsEventStreamListener implements EventStreamListener {
     }
 
     public void unsubscribeFromStream(int tenantId, String streamId) {
+        invalidateEventConverter(tenantId, streamId);
         List<AnalyticsWSO2EventConsumer> consumers = consumerCache.get(tenantId);
         if (consumers != null) {
             AnalyticsWSO2EventConsumer analyticsWSO2EventConsumer =
@@ -108,4 +110,11 @@ public class AnalyticsEventStreamListener implements EventStreamListener {
             }
         }
     }
+
+    private void invalidateEventConverter(int tenantId, String streamId) {
+        /* the stream definition or the event store of the stream may have changed */
+        if (ServiceHolder.getAnalyticsDSConnector() != null) {
+            ServiceHolder.getAnalyticsDSConnector().invalidateEventConverter(tenantId, streamId);
+        }
+    }
 }
@@ -0,0 +1,211 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.api.AnalyticsDataAPI;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema.ColumnType;
+import org.wso2.carbon.analytics.datasource.commons.ColumnDefinition;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
+import org.wso2.carbon.databridge.commons.Attribute;
+import org.wso2.carbon.databridge.commons.AttributeType;
+import org.wso2.carbon.databridge.commons.Event;
+import org.wso2.carbon.databridge.commons.StreamDefinition;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the conversion of events to records by the cached per-stream converters of the analytics data store
+ * connector, with a stub data API and stream definitions.
+ */
+public class AnalyticsDSConnectorTest {
+
+    private static final int TENANT_ID = -1234;
+
+    private static final String STREAM_ID = "org.wso2.test.Stocks:1.0.0";
+
+    private static final String TABLE_NAME = "org_wso2_test_Stocks";
+
+    private Map<String, StreamDefinition> streamDefinitions = new HashMap<>();
+
+    private Map<String, AnalyticsSchema> schemas = new HashMap<>();
+
+    private List<Record> records = new ArrayList<>();
+
+    private AnalyticsDSConnector connector;
+
+    @BeforeClass
+    public void setup() {
+        ServiceHolder.setEventPublisherManagementService(new CarbonEventSinkManagementService());
+        ServiceHolder.setAnalyticsDataAPI((AnalyticsDataAPI) Proxy.newProxyInstance(
+                AnalyticsDataAPI.class.getClassLoader(), new Class<?>[] { AnalyticsDataAPI.class },
+                new InvocationHandler() {
+                    @SuppressWarnings("unchecked")
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getTableSchema":
+                                return schemas.get((String) args[1]);
+                            case "put":
+                                records.addAll((List<Record>) args[0]);
+                                return null;
+                            default:
+                                throw new UnsupportedOperationException(method.getName());
+                        }
+                    }
+                }));
+    }
+
+    @AfterClass
+    public void destroy() {
+        ServiceHolder.setAnalyticsDataAPI(null);
+        ServiceHolder.setEventPublisherManagementService(null);
+    }
+
+    @BeforeMethod
+    public void reset() {
+        this.streamDefinitions.clear();
+        this.schemas.clear();
+        this.records.clear();
+        this.connector = new AnalyticsDSConnector() {
+            @Override
+            StreamDefinition getStreamDefinition(int tenantId, String streamId) {
+                return streamDefinitions.get(streamId);
+            }
+        };
+    }
+
+    private StreamDefinition createStreamDefinition(Attribute... payload) throws Exception {
+        StreamDefinition streamDefinition = new StreamDefinition("org.wso2.test.Stocks", "1.0.0");
+        streamDefinition.setMetaData(new ArrayList<>(Arrays.asList(new Attribute("host", AttributeType.STRING))));
+        streamDefinition.setPayloadData(new ArrayList<>(Arrays.asList(payload)));
+        return streamDefinition;
+    }
+
+    private AnalyticsSchema createSchema(ColumnDefinition... columns) {
+        return new AnalyticsSchema(new ArrayList<>(Arrays.asList(columns)), null);
+    }
+
+    private Event createEvent(Map<String, String> arbitraryData, Object... payload) {
+        Event event = new Event();
+        event.setStreamId(STREAM_ID);
+        event.setTimeStamp(1000);
+        event.setMetaData(new Object[] { "host1" });
+        event.setPayloadData(payload);
+        event.setArbitraryDataMap(arbitraryData);
+        return event;
+    }
+
+    private Record insert(Event event) throws Exception {
+        this.records.clear();
+        this.connector.insertEvents(TENANT_ID, Arrays.asList(event));
+        Assert.assertEquals(this.records.size(), 1);
+        Record record = this.records.get(0);
+        Assert.assertEquals(record.getTableName(), TABLE_NAME);
+        return record;
+    }
+
+    @Test
+    public void testPayloadTimestamp() throws Exception {
+        this.streamDefinitions.put(STREAM_ID, this.createStreamDefinition(
+                new Attribute("symbol", AttributeType.STRING), new Attribute("_timestamp", AttributeType.LONG),
+                new Attribute("price", AttributeType.DOUBLE), new Attribute("volume", AttributeType.INT)));
+        this.schemas.put(TABLE_NAME, this.createSchema(new ColumnDefinition("meta_host", ColumnType.STRING),
+                new ColumnDefinition("symbol", ColumnType.STRING), new ColumnDefinition("price", ColumnType.DOUBLE),
+                new ColumnDefinition("volume", ColumnType.INTEGER)));
+        Record record = this.insert(this.createEvent(null, "WSO2", 5000L, 55.5, 100));
+        /* the payload timestamp is the record timestamp, and the attributes after it keep their own values */
+        Assert.assertEquals(record.getTimestamp(), 5000L);
+        Assert.assertEquals(record.getValue("meta_host"), "host1");
+        Assert.assertEquals(record.getValue("symbol"), "WSO2");
+        Assert.assertEquals(record.getValue("price"), 55.5);
+        Assert.assertEquals(record.getValue("volume"), 100);
+        Assert.assertFalse(record.getValues().containsKey("_timestamp"));
+        Assert.assertEquals(record.getValue("_version"), "1.0.0");
+        /* without a payload timestamp, the event timestamp is used */
+        this.streamDefinitions.put(STREAM_ID, this.createStreamDefinition(
+                new Attribute("symbol", AttributeType.STRING), new Attribute("price", AttributeType.DOUBLE)));
+        this.connector.invalidateEventConverter(TENANT_ID, STREAM_ID);
+        record = this.insert(this.createEvent(null, "WSO2", 56.5));
+        Assert.assertEquals(record.getTimestamp(), 1000L);
+        Assert.assertEquals(record.getValue("price"), 56.5);
+    }
+
+    @Test
+    public void testConverterInvalidation() throws Exception {
+        this.streamDefinitions.put(STREAM_ID, this.createStreamDefinition(
+                new Attribute("symbol", AttributeType.STRING), new Attribute("price", AttributeType.DOUBLE)));
+        this.schemas.put(TABLE_NAME, this.createSchema(new ColumnDefinition("symbol", ColumnType.STRING)));
+        Record record = this.insert(this.createEvent(null, "WSO2", 55.5));
+        Assert.assertEquals(record.getValue("symbol"), "WSO2");
+        Assert.assertNull(record.getValue("price"));
+        /* an equal schema instance keeps the cached converter */
+        this.schemas.put(TABLE_NAME, this.createSchema(new ColumnDefinition("symbol", ColumnType.STRING)));
+        Assert.assertNull(this.insert(this.createEvent(null, "WSO2", 55.5)).getValue("price"));
+        /* a changed schema rebuilds the converter, with the new column */
+        this.schemas.put(TABLE_NAME, this.createSchema(new ColumnDefinition("symbol", ColumnType.STRING),
+                new ColumnDefinition("price", ColumnType.DOUBLE)));
+        Assert.assertEquals(this.insert(this.createEvent(null, "WSO2", 55.5)).getValue("price"), 55.5);
+        /* a changed stream definition is only picked up once the converter is invalidated */
+        this.streamDefinitions.put(STREAM_ID, this.createStreamDefinition(
+                new Attribute("price", AttributeType.DOUBLE), new Attribute("symbol", AttributeType.STRING)));
+        this.connector.invalidateEventConverter(TENANT_ID, STREAM_ID);
+        record = this.insert(this.createEvent(null, 57.5, "IBM"));
+        Assert.assertEquals(record.getValue("symbol"), "IBM");
+        Assert.assertEquals(record.getValue("price"), 57.5);
+    }
+
+    @Test
+    public void testFacetAndArbitraryData() throws Exception {
+        this.streamDefinitions.put(STREAM_ID, this.createStreamDefinition(
+                new Attribute("location", AttributeType.STRING), new Attribute("count", AttributeType.STRING)));
+        this.schemas.put(TABLE_NAME, this.createSchema(new ColumnDefinition("location", ColumnType.FACET),
+                new ColumnDefinition("count", ColumnType.LONG), new ColumnDefinition("_rating", ColumnType.INTEGER),
+                new ColumnDefinition("_tags", ColumnType.FACET)));
+        Map<String, String> arbitraryData = new HashMap<>();
+        arbitraryData.put("rating", "4");
+        arbitraryData.put("tags", "[\"a\",\"b\"]");
+        arbitraryData.put("comment", "not in the schema");
+        Record record = this.insert(this.createEvent(arbitraryData, "[\"Sri Lanka\",\"Colombo\"]", "12"));
+        /* FACET values given as JSON arrays are stored comma separated, and the others are parsed to their types */
+        Assert.assertEquals(record.getValue("location"), "Sri Lanka,Colombo");
+        Assert.assertEquals(record.getValue("count"), 12L);
+        Assert.assertEquals(record.getValue("_rating"), 4);
+        Assert.assertEquals(record.getValue("_tags"), "a,b");
+        /* arbitrary data without a column is still stored, as given */
+        Assert.assertEquals(record.getValue("_comment"), "not in the schema");
+        /* a FACET value which is not a JSON array is stored as it is */
+        record = this.insert(this.createEvent(null, "Colombo", "13"));
+        Assert.assertEquals(record.getValue("location"), "Colombo");
+        Assert.assertFalse(record.getValues().containsKey("_rating"));
+    }
+
+}
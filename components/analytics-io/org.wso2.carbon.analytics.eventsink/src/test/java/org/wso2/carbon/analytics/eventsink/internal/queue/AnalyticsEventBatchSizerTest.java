@@ -0,0 +1,100 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Tests the adjustment of the event batch sizes to the data store write latency.
+ */
+public class AnalyticsEventBatchSizerTest {
+
+    private static final int MIN_BATCH_SIZE = 1000;
+
+    private static final int MAX_BATCH_SIZE = 50000;
+
+    private static final long TARGET_LATENCY = 100;
+
+    @Test
+    public void testBatchSizeAdjustment() {
+        AnalyticsEventBatchSizer sizer = new AnalyticsEventBatchSizer(MIN_BATCH_SIZE, MAX_BATCH_SIZE, TARGET_LATENCY);
+        Assert.assertEquals(sizer.getBatchSize(), MIN_BATCH_SIZE);
+        sizer.batchWritten(50, true);
+        Assert.assertEquals(sizer.getBatchSize(), 2000);
+        sizer.batchWritten(TARGET_LATENCY, true);
+        Assert.assertEquals(sizer.getBatchSize(), 3000);
+        sizer.batchWritten(TARGET_LATENCY + 1, true);
+        Assert.assertEquals(sizer.getBatchSize(), 1500);
+        sizer.batchWritten(10, false);
+        Assert.assertEquals(sizer.getBatchSize(), MIN_BATCH_SIZE);
+        sizer.batchWritten(TARGET_LATENCY * 10, true);
+        Assert.assertEquals(sizer.getBatchSize(), MIN_BATCH_SIZE);
+        for (int i = 0; i < 100; i++) {
+            sizer.batchWritten(10, true);
+        }
+        Assert.assertEquals(sizer.getBatchSize(), MAX_BATCH_SIZE);
+        Assert.assertEquals(sizer.getLastWriteLatency(), 10);
+        Assert.assertEquals(sizer.getWrittenBatchCount(), 106);
+    }
+
+    @Test
+    public void testSlowedDataStore() {
+        AnalyticsEventBatchSizer sizer = new AnalyticsEventBatchSizer(MIN_BATCH_SIZE, MAX_BATCH_SIZE, TARGET_LATENCY);
+        /* a data store taking 10 ms per write plus 1 ms per 100 bytes, which reaches the target latency with
+         * batches of 9000 bytes */
+        for (int i = 0; i < 200; i++) {
+            sizer.batchWritten(10 + sizer.getBatchSize() / 100, true);
+            if (i >= 50) {
+                Assert.assertTrue(sizer.getBatchSize() >= 4500 && sizer.getBatchSize() <= 10000,
+                        "Batch size: " + sizer.getBatchSize());
+            }
+        }
+        /* the same data store slowed down to half its speed */
+        for (int i = 0; i < 200; i++) {
+            sizer.batchWritten(10 + sizer.getBatchSize() / 50, true);
+            if (i >= 50) {
+                Assert.assertTrue(sizer.getBatchSize() >= 2250 && sizer.getBatchSize() <= 5500,
+                        "Batch size: " + sizer.getBatchSize());
+            }
+        }
+        Assert.assertTrue(sizer.getAverageWriteLatency() <= TARGET_LATENCY * 1.5,
+                "Average write latency: " + sizer.getAverageWriteLatency());
+    }
+
+    @Test
+    public void testMetricsRegistration() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.wso2.carbon.analytics.eventsink:type=EventBatchSizer,tenant=5");
+        AnalyticsEventBatchSizer sizer = new AnalyticsEventBatchSizer(MIN_BATCH_SIZE, MAX_BATCH_SIZE, TARGET_LATENCY);
+        sizer.register(5);
+        Assert.assertTrue(server.isRegistered(name));
+        sizer.batchWritten(20, true);
+        Assert.assertEquals(server.getAttribute(name, "BatchSize"), 2000);
+        Assert.assertEquals(server.getAttribute(name, "LastWriteLatency"), 20L);
+        sizer.unregister();
+        Assert.assertFalse(server.isRegistered(name));
+        /* unregistering again is a no-op */
+        sizer.unregister();
+    }
+
+}
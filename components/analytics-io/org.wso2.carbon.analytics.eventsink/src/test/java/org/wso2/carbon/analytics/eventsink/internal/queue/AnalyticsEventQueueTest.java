@@ -0,0 +1,115 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsEventSinkConfiguration;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests the publishing of events to a tenant's event queue by many producers at the same time.
+ */
+public class AnalyticsEventQueueTest {
+
+    /* the super tenant, which the batches are written as without a tenant manager */
+    private static final int TENANT_ID = -1234;
+
+    private static final int PRODUCER_COUNT = 32;
+
+    private static final int EVENTS_PER_PRODUCER = 1000;
+
+    private RecordingConnector connector;
+
+    @BeforeClass
+    public void setup() {
+        AnalyticsEventSinkConfiguration config = new AnalyticsEventSinkConfiguration();
+        /* in MB, so that the producers are held back by the queue capacity for most of the test */
+        config.setMaxQueueCapacity(1);
+        ServiceHolder.setAnalyticsEventSinkConfiguration(config);
+        this.connector = new RecordingConnector();
+        this.connector.setInsertDelay(5);
+        ServiceHolder.setAnalyticsDSConnector(this.connector);
+    }
+
+    @AfterClass
+    public void destroy() {
+        ServiceHolder.setAnalyticsDSConnector(null);
+        ServiceHolder.setAnalyticsEventSinkConfiguration(null);
+    }
+
+    private Event createEvent(int index) {
+        Event event = new Event();
+        event.setStreamId("stream1:1.0.0");
+        event.setTimeStamp(index);
+        char[] data = new char[1000];
+        Arrays.fill(data, 'x');
+        event.setPayloadData(new Object[] { index, new String(data) });
+        return event;
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(PRODUCER_COUNT);
+        try {
+            List<Future<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < PRODUCER_COUNT; i++) {
+                final int producer = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < EVENTS_PER_PRODUCER; j++) {
+                            AnalyticsEventQueueManager.getInstance().put(TENANT_ID,
+                                    createEvent(producer * EVENTS_PER_PRODUCER + j));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        int eventCount = PRODUCER_COUNT * EVENTS_PER_PRODUCER;
+        /* the last batch is pushed by the worker once the linger time elapses */
+        for (int i = 0; i < 600 && this.connector.getEventCount() < eventCount; i++) {
+            Thread.sleep(100);
+        }
+        int[] insertCounts = new int[eventCount];
+        for (Event event : this.connector.getEvents()) {
+            insertCounts[(Integer) event.getPayloadData()[0]]++;
+        }
+        for (int i = 0; i < eventCount; i++) {
+            Assert.assertEquals(insertCounts[i], 1, "Insert count of event " + i);
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsEventSinkConfiguration;
+import org.wso2.carbon.analytics.eventsink.internal.util.ServiceHolder;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests the replay of the event write-ahead log left behind by a crashed server, and of the batches which failed to be
+ * inserted.
+ */
+public class AnalyticsEventWriteAheadLogTest {
+
+    private static final int TENANT_ID = -1234;
+
+    private static final int EVENT_COUNT = 2500;
+
+    private File walDirectory;
+
+    private RecordingConnector connector;
+
+    @BeforeClass
+    public void setup() throws Exception {
+        this.walDirectory = Files.createTempDirectory("analytics-event-wal").toFile();
+        AnalyticsEventSinkConfiguration config = new AnalyticsEventSinkConfiguration();
+        config.setWalEnabled(true);
+        config.setWalDirectory(this.walDirectory.getAbsolutePath());
+        /* in MB */
+        config.setWalSegmentSize(1);
+        config.setWalSyncInterval(100);
+        ServiceHolder.setAnalyticsEventSinkConfiguration(config);
+        this.connector = new RecordingConnector();
+        ServiceHolder.setAnalyticsDSConnector(this.connector);
+    }
+
+    @AfterClass
+    public void destroy() {
+        ServiceHolder.setAnalyticsDSConnector(null);
+        ServiceHolder.setAnalyticsEventSinkConfiguration(null);
+        this.deleteRecursively(this.walDirectory);
+    }
+
+    private void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                this.deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private Event createEvent(int index) {
+        Event event = new Event();
+        event.setStreamId("stream1:1.0.0");
+        event.setTimeStamp(index);
+        /* large enough for the events to span several segments */
+        char[] data = new char[1000];
+        Arrays.fill(data, 'x');
+        event.setPayloadData(new Object[] { index, new String(data) });
+        return event;
+    }
+
+    @Test
+    public void testReplayAfterCrash() throws Exception {
+        AnalyticsEventWriteAheadLog writeAheadLog = new AnalyticsEventWriteAheadLog(TENANT_ID);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            writeAheadLog.append(i, this.createEvent(i));
+        }
+        /* the first batch is stored, and the second one is still being written when the server crashes */
+        writeAheadLog.dispatched(0, 99);
+        writeAheadLog.completed(0);
+        writeAheadLog.dispatched(100, 199);
+        File tenantDirectory = new File(this.walDirectory, String.valueOf(TENANT_ID));
+        Assert.assertTrue(tenantDirectory.list().length > 2);
+        /* the log is left behind as it is, and the replay fails after inserting its first batch */
+        this.connector.setFailingInsert(2);
+        long replayTime = System.currentTimeMillis() + 1;
+        AnalyticsEventWriteAheadLog.replay(replayTime);
+        Assert.assertEquals(this.connector.getEventCount(), 1000);
+        Assert.assertTrue(tenantDirectory.list().length > 0);
+        /* the next replay resumes after the inserted batch */
+        this.connector.setFailingInsert(-1);
+        AnalyticsEventWriteAheadLog.replay(replayTime);
+        int[] insertCounts = new int[EVENT_COUNT];
+        for (Event event : this.connector.getEvents()) {
+            insertCounts[(Integer) event.getPayloadData()[0]]++;
+        }
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            Assert.assertEquals(insertCounts[i], i < 100 ? 0 : 1, "Insert count of event " + i);
+        }
+        Assert.assertEquals(tenantDirectory.list().length, 0);
+        /* nothing is left to replay */
+        AnalyticsEventWriteAheadLog.replay(replayTime);
+        Assert.assertEquals(this.connector.getEventCount(), EVENT_COUNT - 100);
+    }
+
+    @Test(dependsOnMethods = "testReplayAfterCrash")
+    public void testReplayOfFailedInsert() throws Exception {
+        RecordingConnector connector = new RecordingConnector();
+        /* the second batch fails, and the later ones are inserted */
+        connector.setFailingInsert(2);
+        ServiceHolder.setAnalyticsDSConnector(connector);
+        ExecutorService consumerExecutor = Executors.newCachedThreadPool();
+        try {
+            AnalyticsEventQueue queue = new AnalyticsEventQueue(TENANT_ID, consumerExecutor);
+            Assert.assertNotNull(queue.getWriteAheadLog());
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                queue.put(this.createEvent(i));
+            }
+            AnalyticsEventWriteAheadLog writeAheadLog = queue.getWriteAheadLog();
+            for (int i = 0; i < 600 && writeAheadLog.getCheckpointedSequence() < EVENT_COUNT - 1; i++) {
+                Thread.sleep(100);
+            }
+            /* the failed batch is kept in the log, although the checkpoint has moved past it */
+            Assert.assertEquals(writeAheadLog.getCheckpointedSequence(), EVENT_COUNT - 1);
+            Assert.assertTrue(connector.getFailedEventCount() > 0);
+            Assert.assertEquals(connector.getEventCount() + connector.getFailedEventCount(), EVENT_COUNT);
+            File tenantDirectory = new File(this.walDirectory, String.valueOf(TENANT_ID));
+            Assert.assertTrue(tenantDirectory.list().length > 0);
+            /* the server is restarted, and the failed batch is inserted by the replay, only once */
+            AnalyticsEventWriteAheadLog.replay(System.currentTimeMillis() + 1);
+            int[] insertCounts = new int[EVENT_COUNT];
+            for (Event event : connector.getEvents()) {
+                insertCounts[(Integer) event.getPayloadData()[0]]++;
+            }
+            for (int i = 0; i < EVENT_COUNT; i++) {
+                Assert.assertEquals(insertCounts[i], 1, "Insert count of event " + i);
+            }
+            Assert.assertEquals(tenantDirectory.list().length, 0);
+        } finally {
+            consumerExecutor.shutdownNow();
+            ServiceHolder.setAnalyticsDSConnector(this.connector);
+        }
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests the scheduling of the event batches of many tenants by the shared writer pool.
+ */
+public class AnalyticsEventWriterPoolTest {
+
+    private static final int WORKER_COUNT = 4;
+
+    private static final int TENANT_COUNT = 100;
+
+    private static final int HEAVY_TENANT_BATCHES = 400;
+
+    private static final int LIGHT_TENANT_BATCHES = 5;
+
+    @Test
+    public void testSkewedLoad() throws Exception {
+        /* the cap is not reached here, so that the heavy tenant builds up a backlog in the pool */
+        final AnalyticsEventWriterPool pool = new AnalyticsEventWriterPool(WORKER_COUNT, 10000);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger heavyStarted = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(HEAVY_TENANT_BATCHES +
+                (TENANT_COUNT - 1) * LIGHT_TENANT_BATCHES);
+        for (int i = 0; i < HEAVY_TENANT_BATCHES; i++) {
+            pool.submit(0, new TestBatch(true, running, maxRunning, heavyStarted, done));
+        }
+        ExecutorService submitters = Executors.newFixedThreadPool(TENANT_COUNT - 1);
+        List<Future<List<int[]>>> futures = new ArrayList<>();
+        try {
+            for (int i = 1; i < TENANT_COUNT; i++) {
+                final int tenantId = i;
+                futures.add(submitters.submit(new Callable<List<int[]>>() {
+                    @Override
+                    public List<int[]> call() throws Exception {
+                        /* the batches submitted, each with the heavy tenant's batches started before it */
+                        List<TestBatch> batches = new ArrayList<>();
+                        List<Integer> heavyStartedAtSubmit = new ArrayList<>();
+                        for (int j = 0; j < LIGHT_TENANT_BATCHES; j++) {
+                            TestBatch batch = new TestBatch(false, running, maxRunning, heavyStarted, done);
+                            pool.submit(tenantId, batch);
+                            batches.add(batch);
+                            heavyStartedAtSubmit.add(heavyStarted.get());
+                        }
+                        Assert.assertTrue(done.await(60, TimeUnit.SECONDS));
+                        List<int[]> result = new ArrayList<>();
+                        for (int j = 0; j < batches.size(); j++) {
+                            result.add(new int[] { heavyStartedAtSubmit.get(j), batches.get(j).heavyStartedAtRun });
+                        }
+                        return result;
+                    }
+                }));
+            }
+            for (Future<List<int[]>> future : futures) {
+                for (int[] starts : future.get()) {
+                    /* with round robin scheduling, the heavy tenant gets at most one turn per turn of a light
+                     * tenant, instead of its whole backlog going ahead */
+                    Assert.assertTrue(starts[1] - starts[0] <= LIGHT_TENANT_BATCHES + WORKER_COUNT,
+                            "Heavy tenant batches started ahead of a light tenant batch: " + (starts[1] - starts[0]));
+                }
+            }
+        } finally {
+            submitters.shutdownNow();
+        }
+        Assert.assertTrue(maxRunning.get() <= WORKER_COUNT);
+        Assert.assertEquals(heavyStarted.get(), HEAVY_TENANT_BATCHES);
+    }
+
+    @Test
+    public void testMaxInFlightBatches() throws Exception {
+        final AnalyticsEventWriterPool pool = new AnalyticsEventWriterPool(2, 3);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        Runnable batch = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException ignore) {
+                    /* ignore */
+                }
+                completed.incrementAndGet();
+            }
+        };
+        for (int i = 0; i < 3; i++) {
+            pool.submit(i, batch);
+        }
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = submitter.submit(new Runnable() {
+                @Override
+                public void run() {
+                    pool.submit(3, new Runnable() {
+                        @Override
+                        public void run() {
+                            completed.incrementAndGet();
+                        }
+                    });
+                }
+            });
+            try {
+                future.get(500, TimeUnit.MILLISECONDS);
+                Assert.fail("A batch must not be accepted while the maximum in-flight batches are pending");
+            } catch (TimeoutException e) {
+                /* expected */
+            }
+            gate.countDown();
+            future.get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < 100 && completed.get() < 4; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(completed.get(), 4);
+        } finally {
+            submitter.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testInterruptedSubmit() throws Exception {
+        final AnalyticsEventWriterPool pool = new AnalyticsEventWriterPool(1, 1);
+        final CountDownLatch gate = new CountDownLatch(1);
+        final AtomicInteger completed = new AtomicInteger();
+        Runnable batch = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    gate.await();
+                } catch (InterruptedException ignore) {
+                    /* ignore */
+                }
+                completed.incrementAndGet();
+            }
+        };
+        pool.submit(0, batch);
+        ExecutorService submitter = Executors.newSingleThreadExecutor();
+        try {
+            Future<Boolean> future = submitter.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    pool.submit(1, new Runnable() {
+                        @Override
+                        public void run() {
+                            completed.incrementAndGet();
+                        }
+                    });
+                    return Thread.currentThread().isInterrupted();
+                }
+            });
+            Thread.sleep(200);
+            /* interrupted while waiting for capacity, the batch is still submitted, and the interrupt is kept */
+            submitter.shutdownNow();
+            Thread.sleep(200);
+            Assert.assertFalse(future.isDone());
+            gate.countDown();
+            Assert.assertTrue(future.get(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 100 && completed.get() < 2; i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertEquals(completed.get(), 2);
+        } finally {
+            submitter.shutdownNow();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        AnalyticsEventWriterPool pool = new AnalyticsEventWriterPool(2, 100);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger heavyStarted = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(50);
+        for (int i = 0; i < 50; i++) {
+            pool.submit(i % 5, new TestBatch(true, running, maxRunning, heavyStarted, done));
+        }
+        /* the batches submitted before the shutdown are all written, and the ones after it are refused */
+        pool.shutdown();
+        Assert.assertEquals(done.getCount(), 0);
+        pool.submit(0, new TestBatch(true, running, maxRunning, heavyStarted, done));
+        Thread.sleep(200);
+        Assert.assertEquals(heavyStarted.get(), 50);
+    }
+
+    /**
+     * A batch which takes a while to write, recording the number of batches written at the same time.
+     */
+    private static class TestBatch implements Runnable {
+
+        private boolean heavy;
+
+        private AtomicInteger running;
+
+        private AtomicInteger maxRunning;
+
+        private AtomicInteger heavyStarted;
+
+        private CountDownLatch done;
+
+        private volatile int heavyStartedAtRun;
+
+        private TestBatch(boolean heavy, AtomicInteger running, AtomicInteger maxRunning, AtomicInteger heavyStarted,
+                          CountDownLatch done) {
+            this.heavy = heavy;
+            this.running = running;
+            this.maxRunning = maxRunning;
+            this.heavyStarted = heavyStarted;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            int current = this.running.incrementAndGet();
+            int max;
+            do {
+                max = this.maxRunning.get();
+            } while (current > max && !this.maxRunning.compareAndSet(max, current));
+            if (this.heavy) {
+                this.heavyStarted.incrementAndGet();
+            } else {
+                this.heavyStartedAtRun = this.heavyStarted.get();
+            }
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException ignore) {
+                /* ignore */
+            } finally {
+                this.running.decrementAndGet();
+                this.done.countDown();
+            }
+        }
+    }
+
+}
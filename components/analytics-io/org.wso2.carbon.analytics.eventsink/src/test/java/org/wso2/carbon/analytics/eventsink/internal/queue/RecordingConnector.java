@@ -0,0 +1,87 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventsink.internal.queue;
+
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.eventsink.internal.AnalyticsDSConnector;
+import org.wso2.carbon.databridge.commons.Event;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Data store connector used in tests, which records the inserted events instead of storing them, optionally
+ * failing at a given insert call.
+ */
+public class RecordingConnector extends AnalyticsDSConnector {
+
+    private List<Event> events = new ArrayList<>();
+
+    private int insertCount;
+
+    private int failedEventCount;
+
+    private int failingInsert = -1;
+
+    private long insertDelay;
+
+    @Override
+    public void insertEvents(int tenantId, List<Event> events) throws AnalyticsException {
+        if (this.insertDelay > 0) {
+            try {
+                Thread.sleep(this.insertDelay);
+            } catch (InterruptedException e) {
+                throw new AnalyticsException("Interrupted while inserting events", e);
+            }
+        }
+        synchronized (this) {
+            if (++this.insertCount == this.failingInsert) {
+                this.failedEventCount += events.size();
+                throw new AnalyticsException("Simulated data store failure");
+            }
+            this.events.addAll(events);
+        }
+    }
+
+    public synchronized List<Event> getEvents() {
+        return new ArrayList<>(this.events);
+    }
+
+    public synchronized int getEventCount() {
+        return this.events.size();
+    }
+
+    /**
+     * Returns the number of events of the insert calls which failed.
+     */
+    public synchronized int getFailedEventCount() {
+        return this.failedEventCount;
+    }
+
+    /**
+     * Sets the insert call which fails, counting from the first insert call made to this connector, or -1 for none.
+     */
+    public synchronized void setFailingInsert(int failingInsert) {
+        this.failingInsert = failingInsert;
+    }
+
+    public void setInsertDelay(long insertDelay) {
+        this.insertDelay = insertDelay;
+    }
+
+}
@@ -21,6 +21,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.analytics.dataservice.commons.AnalyticsDataResponse;
 import org.wso2.carbon.analytics.dataservice.commons.Constants;
+import org.wso2.carbon.analytics.dataservice.commons.LuceneQueryUtils;
 import org.wso2.carbon.analytics.dataservice.commons.SearchResultEntry;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataService;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataServiceUtils;
@@ -105,6 +106,24 @@ public class AnalyticsEventTable implements EventTable {
     private int maxSearchResultCount;
     
     private boolean indicesAvailable;
+    
+    private boolean caching;
+    
+    private int cacheSize;
+    
+    private long cacheTimeout;
+    
+    private boolean cachePreload;
+    
+    private AnalyticsEventTableCache recordCache;
+    
+    private boolean snapshot;
+    
+    private int snapshotMaxSize;
+    
+    private long snapshotRefreshInterval;
+    
+    private AnalyticsEventTableSnapshot recordSnapshot;
 
     @Override
     public void init(TableDefinition tableDefinition, ExecutionPlanContext executionPlanContext) {
@@ -139,6 +158,43 @@ public class AnalyticsEventTable implements EventTable {
         } else {
             this.maxSearchResultCount = -1;
         }
+        String cachingProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_CACHING);
+        if (cachingProp != null) {
+            this.caching = Boolean.parseBoolean(cachingProp.trim());
+        }
+        String cacheSizeProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_CACHE_SIZE);
+        if (cacheSizeProp != null) {
+            this.cacheSize = Integer.parseInt(cacheSizeProp.trim());
+        } else {
+            this.cacheSize = AnalyticsEventTableConstants.DEFAULT_CACHE_SIZE;
+        }
+        String cacheTimeoutProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_CACHE_TIMEOUT_SECONDS);
+        if (cacheTimeoutProp != null) {
+            this.cacheTimeout = Long.parseLong(cacheTimeoutProp.trim()) * 1000;
+        } else {
+            this.cacheTimeout = AnalyticsEventTableConstants.DEFAULT_CACHE_TIMEOUT_SECONDS * 1000L;
+        }
+        String cachePreloadProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_CACHE_PRELOAD);
+        if (cachePreloadProp != null) {
+            this.cachePreload = Boolean.parseBoolean(cachePreloadProp.trim());
+        }
+        String snapshotProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_SNAPSHOT);
+        if (snapshotProp != null) {
+            this.snapshot = Boolean.parseBoolean(snapshotProp.trim());
+        }
+        String snapshotMaxSizeProp = fromAnnotation.getElement(AnalyticsEventTableConstants.ANNOTATION_SNAPSHOT_MAX_SIZE);
+        if (snapshotMaxSizeProp != null) {
+            this.snapshotMaxSize = Integer.parseInt(snapshotMaxSizeProp.trim());
+        } else {
+            this.snapshotMaxSize = AnalyticsEventTableConstants.DEFAULT_SNAPSHOT_MAX_SIZE;
+        }
+        String snapshotRefreshIntervalProp = fromAnnotation.getElement(
+                AnalyticsEventTableConstants.ANNOTATION_SNAPSHOT_REFRESH_INTERVAL_SECONDS);
+        if (snapshotRefreshIntervalProp != null) {
+            this.snapshotRefreshInterval = Long.parseLong(snapshotRefreshIntervalProp.trim()) * 1000;
+        } else {
+            this.snapshotRefreshInterval = AnalyticsEventTableConstants.DEFAULT_SNAPSHOT_REFRESH_INTERVAL_SECONDS * 1000L;
+        }
         try {
             this.tenantId = CarbonContext.getThreadLocalCarbonContext().getTenantId();
         } catch (Throwable e) {
@@ -211,6 +267,54 @@ public class AnalyticsEventTable implements EventTable {
             this.indicesAvailable = true;
         }
         ServiceHolder.getAnalyticsDataService().setTableSchema(this.tenantId, this.tableName, schema);
+        if (this.caching) {
+            this.initRecordCache(schema.getPrimaryKeys());
+        }
+        if (this.snapshot) {
+            this.recordSnapshot = new AnalyticsEventTableSnapshot(this.tenantId, this.tableName, 
+                    this.snapshotMaxSize, this.snapshotRefreshInterval);
+        }
+    }
+    
+    private void initRecordCache(List<String> primaryKeys) {
+        if (primaryKeys == null || primaryKeys.isEmpty()) {
+            log.warn("Caching is only done for primary key lookups, ignoring caching for the analytics event table: " 
+                    + this.tableName);
+            return;
+        }
+        AnalyticsEventTableCache cache = new AnalyticsEventTableCache(this.tenantId, this.tableName, primaryKeys,
+                this.cacheSize, this.cacheTimeout);
+        if (this.cachePreload) {
+            long changeCount = cache.getChangeCount();
+            List<Record> records = AnalyticsEventTableUtils.getAllRecords(this.tenantId, this.tableName);
+            if (records.size() <= cache.getMaxSize()) {
+                cache.preload(records, changeCount);
+            } else {
+                log.warn("The analytics event table: " + this.tableName + " has " + records.size() + 
+                        " records, which is more than the cache size: " + cache.getMaxSize() + ", not preloading the cache.");
+            }
+        }
+        this.recordCache = cache;
+    }
+    
+    private void invalidateCachedRecords(List<Record> records) {
+        if (this.recordCache != null) {
+            /* records the change of the table as well */
+            this.recordCache.invalidate(records);
+        } else if (!records.isEmpty()) {
+            AnalyticsEventTableSnapshot.tableChanged(this.tenantId, this.tableName);
+        }
+    }
+    
+    private List<Record> getAllRecords() {
+        AnalyticsEventTableSnapshot snapshot = this.recordSnapshot;
+        if (snapshot != null) {
+            List<Record> records = snapshot.getRecords();
+            if (records != null) {
+                return records;
+            }
+        }
+        return AnalyticsEventTableUtils.getAllRecords(this.tenantId, this.tableName);
     }
     
     @Override
@@ -241,8 +345,9 @@ public class AnalyticsEventTable implements EventTable {
     public void add(ComplexEventChunk addingEventChunk) {
         this.checkAndProcessPostInit();
         addingEventChunk.reset();
-        AnalyticsEventTableUtils.putEvents(this.tenantId, this.tableName, 
+        List<Record> records = AnalyticsEventTableUtils.putEvents(this.tenantId, this.tableName, 
                 this.tableDefinition.getAttributeList(), addingEventChunk);
+        this.invalidateCachedRecords(records);
         this.checkAndWaitForIndexing();
     }
     
@@ -294,6 +399,9 @@ public class AnalyticsEventTable implements EventTable {
     public class AnalyticsTableOperator implements Operator {
     
         private static final String LUCENE_QUERY_PARAM = "e267ba83-0c77-4e0d-9c5f-cd3a31dbe2d3";
+        
+        /* keeps the combined queries well within the boolean clause limit of Lucene */
+        private static final int MAX_COMBINED_QUERIES = 500;
 
         private int tenantId;
         
@@ -315,7 +423,7 @@ public class AnalyticsEventTable implements EventTable {
         
         private long withinTime;
         
-        private String luceneQuery;
+        private LuceneQueryTemplate luceneQuery;
         
         private boolean pkMatchCompatible = true;
         
@@ -390,7 +498,8 @@ public class AnalyticsEventTable implements EventTable {
                 } catch (AnalyticsException e) {
                     throw new IllegalStateException("Unable to lookup table schema: " + e.getMessage(), e);
                 }
-                this.luceneQuery = this.luceneQueryFromExpression(this.expression, false).toString();
+                this.luceneQuery = new LuceneQueryTemplate(
+                        this.luceneQueryFromExpression(this.expression, false).toString(), LUCENE_QUERY_PARAM);
                 Set<String> nonIndixedFields = new HashSet<String>(this.mentionedFields);
                 nonIndixedFields.removeAll(this.indexedKeySet);
                 if (!this.pkMatchCompatible && nonIndixedFields.size() > 0) {
@@ -526,30 +635,30 @@ public class AnalyticsEventTable implements EventTable {
                     this.pkMatchCompatible = false;
                     this.mentionedFields.add(field);
                     return "(" + field + ": {" + this.toLuceneQueryRHSValue(rhs) + " TO " + 
-                            this.rangeExtentValueForValueType(this.getFieldType(field, firstPass), true) + "]" + ")";
+                            LuceneQueryUtils.rangeExtentValue(this.getFieldType(field, firstPass), true) + "]" + ")";
                 case GREATER_THAN_EQUAL:
                     this.pkMatchCompatible = false;
                     this.mentionedFields.add(field);
                     return "(" + field + ": [" + this.toLuceneQueryRHSValue(rhs) + " TO " + 
-                            this.rangeExtentValueForValueType(this.getFieldType(field, firstPass), true) + "]" + ")";
+                            LuceneQueryUtils.rangeExtentValue(this.getFieldType(field, firstPass), true) + "]" + ")";
                 case INSTANCE_OF:
                     this.pkMatchCompatible = false;
                     throw new IllegalStateException("INSTANCE_OF is not supported in analytics event tables.");
                 case LESS_THAN:
                     this.pkMatchCompatible = false;
                     this.mentionedFields.add(field);
-                    return "(" + field + ": [" + this.rangeExtentValueForValueType(this.getFieldType(field, firstPass), false) + " TO " + 
+                    return "(" + field + ": [" + LuceneQueryUtils.rangeExtentValue(this.getFieldType(field, firstPass), false) + " TO " + 
                             this.toLuceneQueryRHSValue(rhs) + "}" + ")";
                 case LESS_THAN_EQUAL:
                     this.pkMatchCompatible = false;
                     this.mentionedFields.add(field);
-                    return "(" + field + ": [" + this.rangeExtentValueForValueType(this.getFieldType(field, firstPass), false) + " TO " + 
+                    return "(" + field + ": [" + LuceneQueryUtils.rangeExtentValue(this.getFieldType(field, firstPass), false) + " TO " + 
                             this.toLuceneQueryRHSValue(rhs) + "]" + ")";
                 case NOT_EQUAL:
                     this.pkMatchCompatible = false;
                     this.mentionedFields.add(field);
                     return "(-" + Constants.NON_TOKENIZED_FIELD_PREFIX + field + ": " + 
-                    luceneQueryFromExpression(compare.getRightExpression(), firstPass) + ")";
+                            this.toLuceneQueryRHSValue(rhs) + ")";
                 default:
                     return true;
                 }
@@ -583,7 +692,7 @@ public class AnalyticsEventTable implements EventTable {
                 value = AnalyticsDataIndexer.NULL_INDEX_VALUE;
             }
             if (value instanceof String && !value.toString().startsWith(LUCENE_QUERY_PARAM)) {
-                return "\"" + value + "\"";
+                return "\"" + LuceneQueryUtils.escapeQuotedValue(value.toString()) + "\"";
             }
             if (value instanceof Boolean) {
                 return "\"" + value + "\"";
@@ -592,41 +701,6 @@ public class AnalyticsEventTable implements EventTable {
             }
         }
         
-        private String rangeExtentValueForValueType(ColumnType type, boolean max) {
-            switch (type) {
-            case BOOLEAN:
-                return "*";
-            case DOUBLE:
-                if (max) {
-                    return Double.toString(Double.MAX_VALUE);
-                } else {
-                    return Double.toString(-Double.MAX_VALUE);
-                }
-            case FLOAT:
-                if (max) {
-                    return Float.toString(Float.MAX_VALUE);
-                } else {
-                    return Float.toString(-Float.MAX_VALUE);
-                }
-            case INTEGER:
-                if (max) {
-                    return Integer.toString(Integer.MAX_VALUE);
-                } else {
-                    return Integer.toString(Integer.MIN_VALUE);
-                }
-            case LONG:
-                if (max) {
-                    return Long.toString(Long.MAX_VALUE);
-                } else {
-                    return Long.toString(Long.MIN_VALUE);
-                }
-            case STRING:
-                return "*";
-            default:
-                return "*";            
-            }
-        }
-        
         private Object returnConstantValue(Constant constant) {
             if (constant instanceof IntConstant) {
                 return ((IntConstant) constant).getValue();
@@ -667,67 +741,133 @@ public class AnalyticsEventTable implements EventTable {
         
         private List<Record> findRecords(ComplexEvent matchingEvent, Object candidateEvents, 
                 StreamEventCloner streamEventCloner) {
-            List<Record> records;
+            List<ComplexEvent> events = new ArrayList<>(1);
+            events.add(matchingEvent);
+            return this.findRecords(events).get(0);
+        }
+        
+        /**
+         * Looks up the matching records of each of the given events, in a single data service call where possible.
+         */
+        private List<List<Record>> findRecords(List<ComplexEvent> events) {
+            List<List<Record>> result = new ArrayList<>(events.size());
+            this.checkPrimaryKeyMatch();
+            if (this.returnAllRecords) {
+                List<Record> records = getAllRecords();
+                for (int i = 0; i < events.size(); i++) {
+                    result.add(records);
+                }
+            } else if (this.pkMatchCompatible) {
+                for (Record record : this.getRecordsWithEventValues(this.tenantId, this.tableName, events)) {
+                    if (record == null) {
+                        result.add(new ArrayList<Record>(0));
+                    } else {
+                        result.add(Arrays.asList(record));
+                    }
+                }
+            } else {
+                for (ComplexEvent event : events) {
+                    result.add(this.executeLuceneQuery(this.getTranslatedLuceneQuery(event)));
+                }
+            }
+            return result;
+        }
+        
+        private void checkPrimaryKeyMatch() {
             if (this.pkMatchCompatible) {
                 /* if no one else complained, check with primary key candidates */
                 this.pkMatchCompatible = this.checkPrimaryKeyCompatibleWithCandidates();
             }
-            if (this.returnAllRecords) {
-                records = AnalyticsEventTableUtils.getAllRecords(this.tenantId, this.tableName);
-            } else if (this.pkMatchCompatible) {
-                Record record = this.getRecordWithEventValues(this.tenantId, this.tableName, matchingEvent);
-                if (record == null) {
-                    records = new ArrayList<>(0);
+        }
+        
+        private Map<String, Object> getPrimaryKeyValues(ComplexEvent event) {
+            Map<String, Object> values = new HashMap<>();
+            int expressionExIndex = 0;
+            for (Map.Entry<String, Object> entry : this.primaryKeyRHSValues.entrySet()) {
+                if (entry.getValue().toString().startsWith(LUCENE_QUERY_PARAM)) {
+                    values.put(entry.getKey(), this.expressionExecs.get(expressionExIndex).execute(event));
+                    expressionExIndex++;
                 } else {
-                    records = Arrays.asList(record);
+                    values.put(entry.getKey(), entry.getValue());
                 }
-            } else {
-                records = this.executeLuceneQuery(matchingEvent);
             }
-            return records;
+            return values;
+        }
+        
+        /* the record ids are derived from the string forms of the primary key values, so are the lookup keys */
+        private List<String> toLookupKey(Map<String, Object> values) {
+            List<String> key = new ArrayList<>(this.primaryKeyRHSValues.size());
+            for (String field : this.primaryKeyRHSValues.keySet()) {
+                key.add(String.valueOf(values.get(field)));
+            }
+            return key;
         }
         
-        private Record getRecordWithEventValues(int tenantId, String tableName, ComplexEvent event) {
+        /**
+         * Returns the record matching the primary key values of each of the given events, or null for an event
+         * without a matching record. The lookups not served from the cache are done with a single data service call.
+         */
+        private List<Record> getRecordsWithEventValues(int tenantId, String tableName, List<ComplexEvent> events) {
             try {
-                Map<String, Object> values = new HashMap<>();
-                int expressionExIndex = 0;
-                for (Map.Entry<String, Object> entry : this.primaryKeyRHSValues.entrySet()) {
-                    if (entry.getValue().toString().startsWith(LUCENE_QUERY_PARAM)) {
-                        values.put(entry.getKey(), this.expressionExecs.get(expressionExIndex).execute(event));
-                        expressionExIndex++;
-                    } else {
-                        values.put(entry.getKey(), entry.getValue());
+                Record[] records = new Record[events.size()];
+                AnalyticsEventTableCache cache = recordCache;
+                Map<List<String>, List<Integer>> pendingLookups = new HashMap<>();
+                List<Map<String, Object>> valuesBatch = new ArrayList<Map<String,Object>>();
+                for (int i = 0; i < records.length; i++) {
+                    Map<String, Object> values = this.getPrimaryKeyValues(events.get(i));
+                    if (cache != null) {
+                        AnalyticsEventTableCache.CacheEntry entry = cache.get(values);
+                        if (entry != null) {
+                            records[i] = entry.getRecord();
+                            continue;
+                        }
+                    }
+                    List<String> key = this.toLookupKey(values);
+                    List<Integer> eventIndices = pendingLookups.get(key);
+                    if (eventIndices == null) {
+                        eventIndices = new ArrayList<>(1);
+                        pendingLookups.put(key, eventIndices);
+                        valuesBatch.add(values);
                     }
+                    eventIndices.add(i);
                 }
-                List<Map<String, Object>> valuesBatch = new ArrayList<Map<String,Object>>();
-                valuesBatch.add(values);
+                if (valuesBatch.isEmpty()) {
+                    return Arrays.asList(records);
+                }
+                long changeCount = cache != null ? cache.getChangeCount() : 0;
                 AnalyticsDataResponse resp = ServiceHolder.getAnalyticsDataService().getWithKeyValues(
                         tenantId, tableName, 1, null, valuesBatch);
-                List<Record> records = AnalyticsDataServiceUtils.listRecords(ServiceHolder.getAnalyticsDataService(), resp);
-                if (records.size() > 0) {
-                    return records.get(0);
-                } else {
-                    return null;
+                for (Record record : AnalyticsDataServiceUtils.listRecords(ServiceHolder.getAnalyticsDataService(), resp)) {
+                    List<Integer> eventIndices = pendingLookups.get(this.toLookupKey(record.getValues()));
+                    if (eventIndices != null) {
+                        for (int i : eventIndices) {
+                            records[i] = record;
+                        }
+                    }
+                }
+                if (cache != null) {
+                    for (Map<String, Object> values : valuesBatch) {
+                        cache.put(values, records[pendingLookups.get(this.toLookupKey(values)).get(0)],
+                                changeCount);
+                    }
                 }
+                return Arrays.asList(records);
             } catch (AnalyticsException e) {
                 throw new IllegalStateException("Error in getting event records with values: " + e.getMessage(), e);
             }
         }
         
         private String getTranslatedLuceneQuery(ComplexEvent matchingEvent) {
-            String query = this.luceneQuery;
-            String value;
-            for (int i = 0; i < this.expressionExecs.size(); i++) {
-                value = this.toLuceneQueryRHSValue(this.expressionExecs.get(i).execute(matchingEvent));
-                query = query.replace(LUCENE_QUERY_PARAM + i, value);
+            String[] values = new String[this.expressionExecs.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = this.toLuceneQueryRHSValue(this.expressionExecs.get(i).execute(matchingEvent));
             }
-            return query;
+            return this.luceneQuery.bind(values);
         }
         
-        private List<Record> executeLuceneQuery(ComplexEvent matchingEvent) {
+        private List<Record> executeLuceneQuery(String query) {
             try {
                 AnalyticsDataService service = ServiceHolder.getAnalyticsDataService();
-                String query = this.getTranslatedLuceneQuery(matchingEvent);
                 if (log.isDebugEnabled()) {
                     log.debug("Analytics Table Search Query: '" + query + "'");
                 }
@@ -749,16 +889,84 @@ public class AnalyticsEventTable implements EventTable {
                 throw new IllegalStateException("Error in executing lucene query: " + e.getMessage(), e);
             }
         }
+        
+        /**
+         * Returns the records matching any of the given events, by OR-ing the queries of the events. This is only 
+         * used when the search results are not limited, since a limit would apply to the combined query.
+         */
+        private List<Record> executeCombinedLuceneQuery(List<ComplexEvent> events) {
+            List<Record> records = new ArrayList<>();
+            StringBuilder query = new StringBuilder();
+            int queryCount = 0;
+            for (ComplexEvent event : events) {
+                if (queryCount > 0) {
+                    query.append(" OR ");
+                }
+                query.append(this.getTranslatedLuceneQuery(event));
+                queryCount++;
+                if (queryCount == MAX_COMBINED_QUERIES) {
+                    records.addAll(this.executeLuceneQuery(query.toString()));
+                    query.setLength(0);
+                    queryCount = 0;
+                }
+            }
+            if (queryCount > 0) {
+                records.addAll(this.executeLuceneQuery(query.toString()));
+            }
+            return records;
+        }
+        
+        @SuppressWarnings("rawtypes")
+        private List<ComplexEvent> toEventList(ComplexEventChunk eventChunk) {
+            List<ComplexEvent> events = new ArrayList<>();
+            eventChunk.reset();
+            while (eventChunk.hasNext()) {
+                events.add(eventChunk.next());
+            }
+            return events;
+        }
+        
+        private List<Record> copyRecords(Map<String, Record> copies, List<Record> records) {
+            List<Record> result = new ArrayList<>(records.size());
+            Record copy;
+            for (Record record : records) {
+                copy = copies.get(record.getId());
+                if (copy == null) {
+                    copy = new Record(record.getId(), record.getTenantId(), record.getTableName(),
+                            new HashMap<>(record.getValues()), record.getTimestamp());
+                    copies.put(record.getId(), copy);
+                }
+                result.add(copy);
+            }
+            return result;
+        }
+        
+        private void addDistinctRecords(Map<String, Record> target, List<Record> records) {
+            for (Record record : records) {
+                target.put(record.getId(), record);
+            }
+        }
 
         @SuppressWarnings("rawtypes")
         @Override
         public void delete(ComplexEventChunk deletingEventChunk, Object candidateEvents) {
             this.initExpressionLogic();
-            deletingEventChunk.reset();
-            while (deletingEventChunk.hasNext()) {
-                List<Record> records = this.findRecords(deletingEventChunk.next(), candidateEvents, null);
-                AnalyticsEventTableUtils.deleteRecords(this.tenantId, this.tableName, records);
+            List<ComplexEvent> events = this.toEventList(deletingEventChunk);
+            if (events.isEmpty()) {
+                return;
             }
+            Map<String, Record> records = new LinkedHashMap<>();
+            this.checkPrimaryKeyMatch();
+            if (!this.returnAllRecords && !this.pkMatchCompatible && maxSearchResultCount == -1) {
+                this.addDistinctRecords(records, this.executeCombinedLuceneQuery(events));
+            } else {
+                for (List<Record> eventRecords : this.findRecords(events)) {
+                    this.addDistinctRecords(records, eventRecords);
+                }
+            }
+            List<Record> deletedRecords = new ArrayList<>(records.values());
+            AnalyticsEventTableUtils.deleteRecords(this.tenantId, this.tableName, deletedRecords);
+            invalidateCachedRecords(deletedRecords);
             checkAndWaitForIndexing();
         }
 
@@ -766,16 +974,22 @@ public class AnalyticsEventTable implements EventTable {
         @Override
         public void update(ComplexEventChunk updatingEventChunk, Object candidateEvents, int[] mappingPosition) {
             this.initExpressionLogic();
-            updatingEventChunk.reset();
-            ComplexEvent event;
-            List<Record> records;
+            List<ComplexEvent> events = this.toEventList(updatingEventChunk);
+            if (events.isEmpty()) {
+                return;
+            }
+            List<List<Record>> eventRecords = this.findRecords(events);
+            /* the updates are applied in the order of the events, and a record matched by several events is
+             * written once, with its latest values; the found records may be shared with the cache or the
+             * snapshot, so the updates are applied to copies of them */
+            Map<String, Record> records = new LinkedHashMap<>();
+            for (int i = 0; i < events.size(); i++) {
+                this.updateRecordsWithEvent(this.copyRecords(records, eventRecords.get(i)), events.get(i));
+            }
             try {
-                while (updatingEventChunk.hasNext()) {
-                    event = updatingEventChunk.next();
-                    records = this.findRecords(event, candidateEvents, null);
-                    this.updateRecordsWithEvent(records, event);
-                    ServiceHolder.getAnalyticsDataService().put(records);
-                }
+                List<Record> updatedRecords = new ArrayList<>(records.values());
+                ServiceHolder.getAnalyticsDataService().put(updatedRecords);
+                invalidateCachedRecords(updatedRecords);
                 checkAndWaitForIndexing();
             } catch (AnalyticsException e) {
                 throw new IllegalStateException("Error in executing update query: " + e.getMessage(), e);
@@ -831,5 +1045,55 @@ public class AnalyticsEventTable implements EventTable {
     
     }
 
+    /**
+     * A Lucene query compiled from an event table condition, split at its parameters, so that the values of each
+     * event are bound by position instead of searching and replacing the parameters in the query text.
+     */
+    private static class LuceneQueryTemplate {
+        
+        private String[] fragments;
+        
+        private int[] paramIndices;
+        
+        private int fragmentsLength;
+        
+        private LuceneQueryTemplate(String query, String paramPrefix) {
+            List<String> fragments = new ArrayList<>();
+            List<Integer> paramIndices = new ArrayList<>();
+            int fragmentStart = 0;
+            int paramStart;
+            while ((paramStart = query.indexOf(paramPrefix, fragmentStart)) != -1) {
+                fragments.add(query.substring(fragmentStart, paramStart));
+                int paramEnd = paramStart + paramPrefix.length();
+                while (paramEnd < query.length() && Character.isDigit(query.charAt(paramEnd))) {
+                    paramEnd++;
+                }
+                paramIndices.add(Integer.parseInt(query.substring(paramStart + paramPrefix.length(), paramEnd)));
+                fragmentStart = paramEnd;
+            }
+            fragments.add(query.substring(fragmentStart));
+            this.fragments = fragments.toArray(new String[fragments.size()]);
+            this.paramIndices = new int[paramIndices.size()];
+            for (int i = 0; i < this.paramIndices.length; i++) {
+                this.paramIndices[i] = paramIndices.get(i);
+            }
+            for (String fragment : this.fragments) {
+                this.fragmentsLength += fragment.length();
+            }
+        }
+        
+        /**
+         * Returns the query with the given parameter values, which must already be in Lucene query form.
+         */
+        private String bind(String[] values) {
+            StringBuilder builder = new StringBuilder(this.fragmentsLength + this.paramIndices.length * 16);
+            for (int i = 0; i < this.paramIndices.length; i++) {
+                builder.append(this.fragments[i]).append(values[this.paramIndices[i]]);
+            }
+            builder.append(this.fragments[this.fragments.length - 1]);
+            return builder.toString();
+        }
+        
+    }
+
 }
-	
\ No newline at end of file
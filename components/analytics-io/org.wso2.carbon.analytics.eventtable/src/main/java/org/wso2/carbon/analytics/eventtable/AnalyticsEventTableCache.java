@@ -0,0 +1,197 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventtable;
+
+import org.wso2.carbon.analytics.datasource.commons.Record;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the records of an analytics event table, keyed by the string forms of their primary key
+ * values, the same way the record ids are derived from them, so that e.g. an integer and a long of the same value
+ * match the same entry. Entries expire
+ * after the given time to live, which bounds how long changes done to the table outside of the event table stay
+ * unseen. Lookups which did not find a record are cached as well, so that repeated misses do not reach the data
+ * store either. The cache follows the node-wide change counter of the table, which is shared with
+ * {@link AnalyticsEventTableSnapshot}; it is cleared when the table is changed through another event table in this
+ * node, and a lookup result is only cached if the table did not change while it was being looked up.
+ */
+public class AnalyticsEventTableCache {
+
+    private List<String> primaryKeys;
+
+    private long timeToLive;
+
+    private int maxSize;
+
+    private LinkedHashMap<List<String>, CacheEntry> entries;
+
+    private AtomicLong changeCounter;
+
+    /* the change count of the table the entries are valid for */
+    private long seenChangeCount;
+
+    /**
+     * @param tenantId    The tenant id of the table
+     * @param tableName   The table name
+     * @param primaryKeys The primary keys of the table
+     * @param maxSize     The maximum number of entries kept
+     * @param timeToLive  The time an entry is valid for in milliseconds, or -1 if the entries do not expire
+     */
+    public AnalyticsEventTableCache(int tenantId, String tableName, List<String> primaryKeys, final int maxSize,
+                                    long timeToLive) {
+        this.changeCounter = AnalyticsEventTableSnapshot.changeCounterOf(tenantId, tableName);
+        this.seenChangeCount = this.changeCounter.get();
+        this.primaryKeys = new ArrayList<>(primaryKeys);
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<List<String>, CacheEntry>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = -4327834618853962317L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, CacheEntry> eldest) {
+                return this.size() > maxSize;
+            }
+        };
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    private List<String> toKey(Map<String, Object> values) {
+        List<String> key = new ArrayList<>(this.primaryKeys.size());
+        for (String primaryKey : this.primaryKeys) {
+            key.add(String.valueOf(values.get(primaryKey)));
+        }
+        return key;
+    }
+
+    /**
+     * Returns the current change count of the table, to be read before looking up records to be cached.
+     */
+    public long getChangeCount() {
+        return this.changeCounter.get();
+    }
+
+    private void checkChanges() {
+        long changeCount = this.changeCounter.get();
+        if (changeCount != this.seenChangeCount) {
+            /* changed through another event table, which does not know which of these entries it affected */
+            this.entries.clear();
+            this.seenChangeCount = changeCount;
+        }
+    }
+
+    /**
+     * Looks up the record with the given primary key values.
+     *
+     * @return The cached lookup, or null if there is no valid entry for the given values
+     */
+    public synchronized CacheEntry get(Map<String, Object> primaryKeyValues) {
+        this.checkChanges();
+        List<String> key = this.toKey(primaryKeyValues);
+        CacheEntry entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (this.timeToLive >= 0 && System.currentTimeMillis() - entry.time > this.timeToLive) {
+            this.entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the result of looking up the record with the given primary key values, the record being null if there
+     * was no matching record. The result is not cached if the table has changed since the given change count, which
+     * was read before the lookup, since the result may not include the change.
+     */
+    public synchronized void put(Map<String, Object> primaryKeyValues, Record record, long changeCount) {
+        if (changeCount != this.changeCounter.get()) {
+            return;
+        }
+        this.checkChanges();
+        this.entries.put(this.toKey(primaryKeyValues), new CacheEntry(record, System.currentTimeMillis()));
+    }
+
+    /**
+     * Caches the given records, which are all the records of the table, read after the given change count, as in
+     * {@link #put(Map, Record, long)}.
+     */
+    public synchronized void preload(Collection<Record> records, long changeCount) {
+        if (changeCount != this.changeCounter.get()) {
+            return;
+        }
+        this.checkChanges();
+        long time = System.currentTimeMillis();
+        for (Record record : records) {
+            this.entries.put(this.toKey(record.getValues()), new CacheEntry(record, time));
+        }
+    }
+
+    /**
+     * Removes the entries of the given records, which have been added, updated or deleted through this event table,
+     * and records the change of the table for the other event tables of this node.
+     */
+    public synchronized void invalidate(Collection<Record> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        for (Record record : records) {
+            this.entries.remove(this.toKey(record.getValues()));
+        }
+        long changeCount = this.changeCounter.incrementAndGet();
+        if (changeCount != this.seenChangeCount + 1) {
+            this.entries.clear();
+        }
+        this.seenChangeCount = changeCount;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    /**
+     * A cached lookup result.
+     */
+    public static class CacheEntry {
+
+        private Record record;
+
+        private long time;
+
+        private CacheEntry(Record record, long time) {
+            this.record = record;
+            this.time = time;
+        }
+
+        /**
+         * Returns the cached record, or null if the lookup did not find a record.
+         */
+        public Record getRecord() {
+            return record;
+        }
+    }
+}
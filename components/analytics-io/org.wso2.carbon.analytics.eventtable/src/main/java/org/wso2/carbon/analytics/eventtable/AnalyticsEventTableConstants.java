@@ -35,5 +35,27 @@ public class AnalyticsEventTableConstants {
     public static final String ANNOTATION_WAIT_FOR_INDEXING = "wait.for.indexing";
     
     public static final String ANNOTATION_MAX_SEARCH_RESULT_COUNT = "max.search.result.count";
+    
+    public static final String ANNOTATION_CACHING = "caching";
+    
+    public static final String ANNOTATION_CACHE_SIZE = "cache.size";
+    
+    public static final String ANNOTATION_CACHE_TIMEOUT_SECONDS = "cache.timeout.seconds";
+    
+    public static final String ANNOTATION_CACHE_PRELOAD = "cache.preload";
+    
+    public static final String ANNOTATION_SNAPSHOT = "snapshot";
+    
+    public static final String ANNOTATION_SNAPSHOT_MAX_SIZE = "snapshot.max.size";
+    
+    public static final String ANNOTATION_SNAPSHOT_REFRESH_INTERVAL_SECONDS = "snapshot.refresh.interval.seconds";
+    
+    public static final int DEFAULT_CACHE_SIZE = 1000;
+    
+    public static final int DEFAULT_CACHE_TIMEOUT_SECONDS = 10;
+    
+    public static final int DEFAULT_SNAPSHOT_MAX_SIZE = 10000;
+    
+    public static final int DEFAULT_SNAPSHOT_REFRESH_INTERVAL_SECONDS = 10;
             
 }
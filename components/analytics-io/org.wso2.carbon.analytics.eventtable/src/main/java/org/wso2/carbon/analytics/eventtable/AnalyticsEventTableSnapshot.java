@@ -0,0 +1,132 @@
+/*
+*  Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.analytics.eventtable;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory snapshot of all the records of an analytics event table, used for the conditions which match all the
+ * records. The snapshot is reloaded when the table is changed through any analytics event table in this node, which
+ * is tracked with a per table change counter, and after the refresh interval, which bounds how long changes done to
+ * the table from elsewhere stay unseen. Tables with more records than the maximum size are not kept in memory.
+ */
+public class AnalyticsEventTableSnapshot {
+
+    private static final Log log = LogFactory.getLog(AnalyticsEventTableSnapshot.class);
+
+    private static ConcurrentMap<String, AtomicLong> changeCounters = new ConcurrentHashMap<>();
+
+    private int tenantId;
+
+    private String tableName;
+
+    private int maxSize;
+
+    private long refreshInterval;
+
+    private AtomicLong changeCounter;
+
+    private List<Record> records;
+
+    private long loadedChangeCount;
+
+    private long loadedTime;
+
+    private boolean oversized;
+
+    /**
+     * @param tenantId        The tenant id of the table
+     * @param tableName       The table name
+     * @param maxSize         The maximum number of records kept in the snapshot
+     * @param refreshInterval The time after which the snapshot is reloaded in milliseconds, or -1 if it is only
+     *                        reloaded on changes done through the analytics event tables
+     */
+    public AnalyticsEventTableSnapshot(int tenantId, String tableName, int maxSize, long refreshInterval) {
+        this.tenantId = tenantId;
+        this.tableName = tableName;
+        this.maxSize = maxSize;
+        this.refreshInterval = refreshInterval;
+        this.changeCounter = changeCounterOf(tenantId, tableName);
+    }
+
+    static AtomicLong changeCounterOf(int tenantId, String tableName) {
+        String key = tenantId + ":" + tableName.toLowerCase();
+        AtomicLong counter = changeCounters.get(key);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = changeCounters.putIfAbsent(key, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Records that the records of the given table have been changed.
+     */
+    public static void tableChanged(int tenantId, String tableName) {
+        changeCounterOf(tenantId, tableName).incrementAndGet();
+    }
+
+    private boolean isExpired(long now) {
+        return this.refreshInterval >= 0 && now - this.loadedTime > this.refreshInterval;
+    }
+
+    /**
+     * Returns all the records of the table, which must not be modified, reloading the snapshot if it is out of date.
+     *
+     * @return The records, or null if the table is too large to be kept in memory, in which case the table should
+     * be read directly
+     */
+    public synchronized List<Record> getRecords() {
+        long now = System.currentTimeMillis();
+        if (this.oversized) {
+            if (!this.isExpired(now)) {
+                return null;
+            }
+            this.oversized = false;
+        } else if (this.records != null && this.loadedChangeCount == this.changeCounter.get() &&
+                !this.isExpired(now)) {
+            return this.records;
+        }
+        /* read before loading, so that changes done while loading trigger another reload */
+        long changeCount = this.changeCounter.get();
+        List<Record> records = AnalyticsEventTableUtils.getAllRecords(this.tenantId, this.tableName);
+        this.loadedTime = now;
+        if (records.size() > this.maxSize) {
+            log.warn("The analytics event table: " + this.tableName + " has " + records.size() +
+                    " records, which is more than the snapshot size: " + this.maxSize +
+                    ", reading the records directly from the table.");
+            this.records = null;
+            this.oversized = true;
+            return records;
+        }
+        this.records = Collections.unmodifiableList(records);
+        this.loadedChangeCount = changeCount;
+        return this.records;
+    }
+}
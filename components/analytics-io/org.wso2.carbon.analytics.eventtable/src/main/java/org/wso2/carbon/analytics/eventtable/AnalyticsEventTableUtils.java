@@ -37,7 +37,7 @@ import org.wso2.siddhi.query.api.definition.Attribute;
  */
 public class AnalyticsEventTableUtils {
 
-    public static void putEvents(int tenantId, String tableName, List<Attribute> attrs, 
+    public static List<Record> putEvents(int tenantId, String tableName, List<Attribute> attrs, 
             ComplexEventChunk<StreamEvent> addingEventChunk) {
         List<Record> records = new ArrayList<Record>();
         StreamEvent event;
@@ -51,6 +51,7 @@ public class AnalyticsEventTableUtils {
             throw new IllegalStateException("Error in adding records to analytics event table: " + 
                     e.getMessage(), e);
         }
+        return records;
     }
     
     private static Record streamEventToRecord(int tenantId, String tableName, List<Attribute> attrs,
@@ -38,8 +38,15 @@ import org.wso2.siddhi.core.stream.input.InputHandler;
 import org.wso2.siddhi.core.util.EventPrinter;
 
 import javax.naming.NamingException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Analytics event table tests.
@@ -74,6 +81,27 @@ public class AnalyticsEventTableTest {
         AnalyticsServiceHolder.setAnalyticsDataService(null);
     }
     
+    /**
+     * Creates a data service delegating to the test's data service, which counts the calls done to each of its
+     * methods by name.
+     */
+    private AnalyticsDataService createCountingService(final Map<String, Integer> serviceCalls) {
+        return (AnalyticsDataService) Proxy.newProxyInstance(
+                AnalyticsDataService.class.getClassLoader(), new Class<?>[] { AnalyticsDataService.class }, 
+                new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Integer count = serviceCalls.get(method.getName());
+                serviceCalls.put(method.getName(), count == null ? 1 : count + 1);
+                try {
+                    return method.invoke(service, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+    
     @Test
     public void testInsert() throws InterruptedException, AnalyticsTableNotAvailableException, AnalyticsException {
         this.service.deleteTable(-1, "stocks");
@@ -448,6 +476,216 @@ public class AnalyticsEventTableTest {
         this.cleanupCommonProps();
     }
     
+    @Test
+    public void testJoinWithCaching() throws InterruptedException, AnalyticsException {
+        this.cleanupCommonProps();
+        this.service.deleteTable(-1, "stocks");
+        SiddhiManager siddhiManager = new SiddhiManager();
+
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream CheckStockStream (symbol string); " +
+                "@from(eventtable = 'analytics.table' , table.name = 'stocks', primary.keys = 'symbol', " +
+                "caching = 'true', cache.size = '10', cache.timeout.seconds = '60') " +
+                "define table StockTable (symbol string, price float, volume long); ";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into StockTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from CheckStockStream#window.length(1) join StockTable as T1 " +
+                " on CheckStockStream.symbol==T1.symbol " +
+                "select CheckStockStream.symbol as checkSymbol, T1.symbol as symbol, T1.volume as volume  " +
+                "insert into OutputStream ;";
+
+        ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(streams + query);
+
+        executionPlanRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                if (inEvents != null) {
+                    for (Event event : inEvents) {
+                        inEventCount++;
+                        switch (inEventCount) {
+                        case 1:
+                        case 2:
+                            Assert.assertEquals(new Object[] { "WSO2", "WSO2", 100l }, event.getData());
+                            break;
+                        case 3:
+                            Assert.assertEquals(new Object[] { "WSO2", "WSO2", 200l }, event.getData());
+                            break;
+                        default:
+                            Assert.assertSame(3, inEventCount);
+                        }
+                    }
+                }
+                eventArrived = true;
+            }
+        });
+
+        InputHandler stockStream = executionPlanRuntime.getInputHandler("StockStream");
+        InputHandler checkStockStream = executionPlanRuntime.getInputHandler("CheckStockStream");
+
+        Map<String, Integer> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createCountingService(serviceCalls));
+        try {
+            executionPlanRuntime.start();
+    
+            stockStream.send(new Object[] { "WSO2", 55.6f, 100l });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            /* the first lookup caches the record, the second is served from the cache */
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            serviceCalls.clear();
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            Assert.assertNull(serviceCalls.get("getWithKeyValues"));
+            /* writing through the table invalidates the cached record */
+            stockStream.send(new Object[] { "WSO2", 57.6f, 200l });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            serviceCalls.clear();
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            Assert.assertEquals(serviceCalls.get("getWithKeyValues"), Integer.valueOf(1));
+            
+            Assert.assertEquals(this.inEventCount, 3);
+            Assert.assertEquals(this.eventArrived, true);
+    
+            executionPlanRuntime.shutdown();
+            siddhiManager.shutdown();
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(-1, "stocks");
+        this.cleanupCommonProps();
+    }
+    
+    @Test
+    public void testCacheKeyValueTypes() {
+        AnalyticsEventTableCache cache = new AnalyticsEventTableCache(-1, "stocks", Arrays.asList("id"), 10, 60000);
+        Map<String, Object> values = new HashMap<>();
+        values.put("id", 5);
+        Record record = new Record(-1, "stocks", values);
+        cache.preload(Arrays.asList(record), cache.getChangeCount());
+        /* the key values of the looked up events may not have the same types as the stored ones */
+        Map<String, Object> keyValues = new HashMap<>();
+        keyValues.put("id", 5L);
+        Assert.assertNotNull(cache.get(keyValues));
+        Assert.assertEquals(cache.get(keyValues).getRecord(), record);
+        cache.invalidate(Arrays.asList(new Record(-1, "stocks", keyValues)));
+        Assert.assertNull(cache.get(values));
+    }
+    
+    @Test
+    public void testCacheChanges() {
+        AnalyticsEventTableCache cache1 = new AnalyticsEventTableCache(-1, "stocks2", Arrays.asList("id"), 10, 60000);
+        AnalyticsEventTableCache cache2 = new AnalyticsEventTableCache(-1, "stocks2", Arrays.asList("id"), 10, 60000);
+        Map<String, Object> values1 = new HashMap<>();
+        values1.put("id", 1);
+        Map<String, Object> values2 = new HashMap<>();
+        values2.put("id", 2);
+        Record record1 = new Record(-1, "stocks2", values1);
+        Record record2 = new Record(-1, "stocks2", values2);
+        cache1.put(values1, record1, cache1.getChangeCount());
+        cache1.put(values2, record2, cache1.getChangeCount());
+        cache2.put(values1, record1, cache2.getChangeCount());
+        /* a change through this event table only drops the changed record */
+        cache1.invalidate(Arrays.asList(record2));
+        Assert.assertNotNull(cache1.get(values1));
+        Assert.assertNull(cache1.get(values2));
+        /* whereas the other event tables of the table do not know which records changed */
+        Assert.assertNull(cache2.get(values1));
+        /* as well as for changes through event tables without a cache */
+        cache2.put(values1, record1, cache2.getChangeCount());
+        AnalyticsEventTableSnapshot.tableChanged(-1, "stocks2");
+        Assert.assertNull(cache2.get(values1));
+        Assert.assertNull(cache1.get(values1));
+        /* a lookup which the table changed during is not cached, since it may have missed the change */
+        long changeCount = cache1.getChangeCount();
+        cache2.invalidate(Arrays.asList(record1));
+        cache1.put(values1, record1, changeCount);
+        Assert.assertNull(cache1.get(values1));
+        cache1.put(values1, null, cache1.getChangeCount());
+        Assert.assertNotNull(cache1.get(values1));
+        Assert.assertNull(cache1.get(values1).getRecord());
+    }
+    
+    @Test
+    public void testJoinWithSnapshot() throws InterruptedException, AnalyticsException {
+        this.cleanupCommonProps();
+        this.service.deleteTable(-1, "stocks");
+        SiddhiManager siddhiManager = new SiddhiManager();
+
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream CheckStockStream (symbol string); " +
+                "@from(eventtable = 'analytics.table' , table.name = 'stocks', snapshot = 'true', " +
+                "snapshot.max.size = '10', snapshot.refresh.interval.seconds = '60') " +
+                "define table StockTable (symbol string, price float, volume long); ";
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into StockTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from CheckStockStream#window.length(1) join StockTable " +
+                "select CheckStockStream.symbol as checkSymbol, StockTable.symbol as symbol, StockTable.volume as volume  " +
+                "insert into OutputStream ;";
+
+        ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(streams + query);
+
+        executionPlanRuntime.addCallback("query2", new QueryCallback() {
+            @Override
+            public void receive(long timeStamp, Event[] inEvents, Event[] removeEvents) {
+                EventPrinter.print(timeStamp, inEvents, removeEvents);
+                if (inEvents != null) {
+                    inEventCount += inEvents.length;
+                }
+                eventArrived = true;
+            }
+        });
+
+        InputHandler stockStream = executionPlanRuntime.getInputHandler("StockStream");
+        InputHandler checkStockStream = executionPlanRuntime.getInputHandler("CheckStockStream");
+
+        Map<String, Integer> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createCountingService(serviceCalls));
+        try {
+            executionPlanRuntime.start();
+    
+            stockStream.send(new Object[] { "WSO2", 55.6f, 100l });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            /* the first lookup loads the snapshot, the second is served from it */
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            serviceCalls.clear();
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            Assert.assertNull(serviceCalls.get("get"));
+            Assert.assertNull(serviceCalls.get("search"));
+            Assert.assertEquals(this.inEventCount, 2);
+            /* writing through the table reloads the snapshot, well before the refresh interval */
+            stockStream.send(new Object[] { "IBM", 75.6f, 10l });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            serviceCalls.clear();
+            checkStockStream.send(new Object[] { "WSO2" });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            Assert.assertEquals(serviceCalls.get("get"), Integer.valueOf(1));
+            
+            Assert.assertEquals(this.inEventCount, 4);
+            Assert.assertEquals(this.eventArrived, true);
+    
+            executionPlanRuntime.shutdown();
+            siddhiManager.shutdown();
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(-1, "stocks");
+        this.cleanupCommonProps();
+    }
+    
     @Test
     public void testUpdate1() throws InterruptedException, AnalyticsException {
         this.cleanupCommonProps();
@@ -636,6 +874,108 @@ public class AnalyticsEventTableTest {
         this.cleanupCommonProps();
     }
     
+    @Test
+    public void testDeleteWithQuotedValues() throws InterruptedException, AnalyticsException {
+        this.cleanupCommonProps();
+        this.service.deleteTable(-1, "stocks");
+        SiddhiManager siddhiManager = new SiddhiManager();
+
+        String streams = "" +
+                "define stream StockStream (symbol string, price float, volume long); " +
+                "define stream DeleteStockStream (symbol string, price float, volume long); " +
+                "@from(eventtable = 'analytics.table', table.name = 'stocks', indices = 'symbol, volume')  " +
+                "define table StockTable (symbol string, price float, volume long); ";
+
+        String query = "" +
+                "@info(name = 'query1') " +
+                "from StockStream " +
+                "insert into StockTable ;" +
+                "" +
+                "@info(name = 'query2') " +
+                "from DeleteStockStream " +
+                "delete StockTable " +
+                "   on StockTable.volume == volume and StockTable.symbol != symbol ;";
+
+        ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(streams + query);
+
+        InputHandler stockStream = executionPlanRuntime.getInputHandler("StockStream");
+        InputHandler deleteStockStream = executionPlanRuntime.getInputHandler("DeleteStockStream");
+
+        executionPlanRuntime.start();
+
+        stockStream.send(new Object[] { "WSO2 \"A\"", 55.6f, 100l });
+        stockStream.send(new Object[] { "IBM", 75.6f, 100l });
+        stockStream.send(new Object[] { "WSO2 \"A\"", 57.6f, 200l });
+        Thread.sleep(DEFAULT_WAIT_TIME);
+        deleteStockStream.send(new Object[] { "WSO2 \"A\"", 57.6f, 100l });
+        Thread.sleep(DEFAULT_WAIT_TIME);
+        
+        List<Record> recordsIn = AnalyticsDataServiceUtils.listRecords(this.service,
+                this.service.get(-1, "stocks", 1, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, -1));
+        Assert.assertEquals(recordsIn.size(), 2);
+        for (Record record : recordsIn) {
+            Assert.assertEquals(record.getValue("symbol"), "WSO2 \"A\"");
+        }
+
+        executionPlanRuntime.shutdown();
+        siddhiManager.shutdown();
+        
+        this.service.deleteTable(-1, "stocks");
+        this.cleanupCommonProps();
+    }
+    
+    @Test
+    public void testBatchedDelete() throws InterruptedException, AnalyticsException {
+        this.cleanupCommonProps();
+        this.service.deleteTable(-1, "stocks");
+        Map<String, Integer> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createCountingService(serviceCalls));
+        try {
+            SiddhiManager siddhiManager = new SiddhiManager();
+            String streams = "" +
+                    "define stream StockStream (symbol string, price float, volume long); " +
+                    "define stream DeleteStockStream (symbol string, price float, volume long); " +
+                    "@from(eventtable = 'analytics.table', table.name = 'stocks', primary.keys = 'symbol')  " +
+                    "define table StockTable (symbol string, price float, volume long); ";
+            String query = "" +
+                    "@info(name = 'query1') " +
+                    "from StockStream " +
+                    "insert into StockTable ;" +
+                    "" +
+                    "@info(name = 'query2') " +
+                    "from DeleteStockStream " +
+                    "delete StockTable " +
+                    "   on StockTable.symbol == symbol ;";
+            ExecutionPlanRuntime executionPlanRuntime = siddhiManager.createExecutionPlanRuntime(streams + query);
+            InputHandler stockStream = executionPlanRuntime.getInputHandler("StockStream");
+            InputHandler deleteStockStream = executionPlanRuntime.getInputHandler("DeleteStockStream");
+            executionPlanRuntime.start();
+            stockStream.send(new Object[] { "WSO2", 55.6f, 100l });
+            stockStream.send(new Object[] { "IBM", 75.6f, 100l });
+            stockStream.send(new Object[] { "ORCL", 57.6f, 100l });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            serviceCalls.clear();
+            long time = System.currentTimeMillis();
+            deleteStockStream.send(new Event[] { new Event(time, new Object[] { "WSO2", 55.6f, 100l }), 
+                    new Event(time, new Object[] { "IBM", 75.6f, 100l }), 
+                    new Event(time, new Object[] { "MSFT", 75.6f, 100l }) });
+            Thread.sleep(DEFAULT_WAIT_TIME);
+            /* the whole chunk is looked up and deleted with one call each */
+            Assert.assertEquals(serviceCalls.get("getWithKeyValues"), Integer.valueOf(1));
+            Assert.assertEquals(serviceCalls.get("delete"), Integer.valueOf(1));
+            List<Record> recordsIn = AnalyticsDataServiceUtils.listRecords(this.service,
+                    this.service.get(-1, "stocks", 1, null, Long.MIN_VALUE, Long.MAX_VALUE, 0, -1));
+            Assert.assertEquals(recordsIn.size(), 1);
+            Assert.assertEquals(recordsIn.get(0).getValue("symbol"), "ORCL");
+            executionPlanRuntime.shutdown();
+            siddhiManager.shutdown();
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(-1, "stocks");
+        this.cleanupCommonProps();
+    }
+    
     public static void main(String[] args) throws Exception {
         AnalyticsEventTableTest x = new AnalyticsEventTableTest();
         x.setup();
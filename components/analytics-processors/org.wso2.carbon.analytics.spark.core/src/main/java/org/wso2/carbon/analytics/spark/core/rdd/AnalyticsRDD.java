@@ -40,6 +40,7 @@ import scala.collection.Seq;
 import scala.reflect.ClassTag;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
@@ -55,6 +56,8 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
     private static final Log log = LogFactory.getLog(AnalyticsRDD.class);
     private static final long serialVersionUID = 5948588299500227997L;
 
+    private static final int MIN_IDS_PER_PARTITION = 1000;
+
     private List<String> columns;
     private int tenantId;
     private String tableName;
@@ -62,6 +65,8 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
     private long timeTo;
     private boolean incEnable;
     private String incID;
+    /* only needed in the driver, for creating the partitions */
+    private transient List<String> ids;
 
     public AnalyticsRDD() {
         super(null, null, null);
@@ -80,6 +85,15 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
         this.incID = incID;
     }
 
+    /**
+     * Creates an RDD over the records with the given ids, which are split into batches, one per partition.
+     */
+    public AnalyticsRDD(int tenantId, String tableName, List<String> columns, SparkContext sc,
+                        Seq<Dependency<?>> deps, ClassTag<Row> evidence, List<String> ids) {
+        this(tenantId, tableName, columns, sc, deps, evidence, Long.MIN_VALUE, Long.MAX_VALUE, false, null);
+        this.ids = ids;
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public scala.collection.Iterator<Row> compute(Partition split, TaskContext context) {
@@ -112,9 +126,16 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
     @Override
     public Partition[] getPartitions() {
         AnalyticsDataResponse resp;
+        /* an empty column list reads all the columns, so when no column is required, as in a plain count,
+         * only the timestamp is asked for, which all records have outside of their values */
+        List<String> readColumns = this.columns.isEmpty() ?
+                                   Arrays.asList(AnalyticsConstants.TIMESTAMP_FIELD) : this.columns;
         try {
+            if (this.ids != null) {
+                return this.getIdPartitions(readColumns);
+            }
             resp = ServiceHolder.getAnalyticsDataService().get(this.tenantId, this.tableName,
-                                                               computePartitions(), this.columns, timeFrom , timeTo, 0, -1);
+                                                               computePartitions(), readColumns, timeFrom , timeTo, 0, -1);
         } catch (AnalyticsException e) {
             throw new RuntimeException(e.getMessage(), e);
         }
@@ -126,6 +147,23 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
         return result;
     }
 
+    private Partition[] getIdPartitions(List<String> readColumns) throws AnalyticsException {
+        int partitionCount = computePartitions();
+        int batchSize = Math.max(MIN_IDS_PER_PARTITION, (this.ids.size() + partitionCount - 1) / partitionCount);
+        List<Partition> result = new ArrayList<>();
+        AnalyticsDataResponse resp;
+        for (int i = 0; i < this.ids.size(); i += batchSize) {
+            /* copied, since the record groups are sent over to the executors */
+            List<String> idBatch = new ArrayList<>(this.ids.subList(i, Math.min(i + batchSize, this.ids.size())));
+            resp = ServiceHolder.getAnalyticsDataService().get(this.tenantId, this.tableName, 1, readColumns,
+                                                               idBatch);
+            for (RecordGroup rg : resp.getRecordGroups()) {
+                result.add(new AnalyticsPartition(resp.getRecordStoreName(), rg, result.size()));
+            }
+        }
+        return result.toArray(new Partition[result.size()]);
+    }
+
     private int computePartitions() throws AnalyticsException {
         if (ServiceHolder.getAnalyticskExecutor() != null) {
             return ServiceHolder.getAnalyticskExecutor().getNumPartitionsHint();
@@ -150,12 +188,15 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
 
         private long incMaxTS = Integer.MIN_VALUE;
 
+        private RecordRowConverter converter;
+
         public RowRecordIteratorAdaptor(Iterator<Record> recordItr, int tenantId,
                                         boolean incEnable, String incID) {
             this.recordItr = recordItr;
             this.tenantId = tenantId;
             this.incEnable = incEnable;
             this.incID = incID;
+            this.converter = new RecordRowConverter(columns);
         }
 
         @Override
@@ -188,31 +229,50 @@ public class AnalyticsRDD extends RDD<Row> implements Serializable {
                     this.incMaxTS = record.getTimestamp();
                 }
             }
-            return this.recordToRow(record);
+            return this.converter.toRow(record);
+        }
+
+        @Override
+        public void remove() {
+            this.recordItr.remove();
         }
 
-        private Row recordToRow(Record record) {
+    }
+
+    /**
+     * Converts records to rows of the given columns. The column names and the position of the timestamp are
+     * resolved once for a partition, instead of once for every value of every record.
+     */
+    private static class RecordRowConverter implements Serializable {
+
+        private static final long serialVersionUID = 2213768419273565218L;
+
+        private String[] columnNames;
+
+        private int timestampIndex;
+
+        public RecordRowConverter(List<String> columns) {
+            this.columnNames = columns.toArray(new String[columns.size()]);
+            this.timestampIndex = columns.indexOf(AnalyticsConstants.TIMESTAMP_FIELD);
+        }
+
+        public Row toRow(Record record) {
             if (record == null) {
                 return null;
             }
             Map<String, Object> recordVals = record.getValues();
-            Object[] rowVals = new Object[columns.size()];
-
-            for (int i = 0; i < columns.size(); i++) {
-                if (columns.get(i).equals(AnalyticsConstants.TIMESTAMP_FIELD)) {
-                    rowVals[i] = record.getTimestamp();
-                } else {
-                    rowVals[i] = recordVals.get(columns.get(i));
+            Object[] rowVals = new Object[this.columnNames.length];
+            /* columns missing in the record are left as nulls */
+            if (recordVals != null) {
+                for (int i = 0; i < this.columnNames.length; i++) {
+                    rowVals[i] = recordVals.get(this.columnNames[i]);
                 }
             }
+            if (this.timestampIndex >= 0) {
+                rowVals[this.timestampIndex] = record.getTimestamp();
+            }
             return RowFactory.create(rowVals);
         }
-
-        @Override
-        public void remove() {
-            this.recordItr.remove();
-        }
-
     }
 
 }
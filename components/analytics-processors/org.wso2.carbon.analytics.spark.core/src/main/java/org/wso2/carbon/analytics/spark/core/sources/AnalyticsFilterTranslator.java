@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.analytics.spark.core.sources;
+
+import org.apache.spark.sql.sources.EqualTo;
+import org.apache.spark.sql.sources.Filter;
+import org.apache.spark.sql.sources.GreaterThan;
+import org.apache.spark.sql.sources.GreaterThanOrEqual;
+import org.apache.spark.sql.sources.In;
+import org.apache.spark.sql.sources.LessThan;
+import org.apache.spark.sql.sources.LessThanOrEqual;
+import org.wso2.carbon.analytics.dataservice.commons.Constants;
+import org.wso2.carbon.analytics.dataservice.commons.LuceneQueryUtils;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema.ColumnType;
+import org.wso2.carbon.analytics.datasource.commons.ColumnDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates the Spark SQL filters pushed down to an analytics relation into a Lucene query over the indexed columns
+ * of the table. Only equality, IN and numeric range filters on indexed columns are translated, the rest are left to
+ * Spark, which evaluates all the filters on the scanned rows in any case.
+ */
+public class AnalyticsFilterTranslator {
+
+    private AnalyticsFilterTranslator() {
+    }
+
+    /**
+     * Returns the Lucene query matching the records which satisfy all the translatable filters, or null if none of
+     * the filters can be translated.
+     */
+    public static String toLuceneQuery(AnalyticsSchema schema, Filter[] filters) {
+        Map<String, ColumnDefinition> indexedColumns = schema.getIndexedColumns();
+        List<String> queries = new ArrayList<>();
+        String query;
+        for (Filter filter : filters) {
+            query = toLuceneQuery(indexedColumns, filter);
+            if (query != null) {
+                queries.add(query);
+            }
+        }
+        if (queries.isEmpty()) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < queries.size(); i++) {
+            if (i > 0) {
+                builder.append(" AND ");
+            }
+            builder.append(queries.get(i));
+        }
+        return builder.toString();
+    }
+
+    private static String toLuceneQuery(Map<String, ColumnDefinition> indexedColumns, Filter filter) {
+        if (filter instanceof EqualTo) {
+            EqualTo equalTo = (EqualTo) filter;
+            return equalityQuery(indexedColumns.get(equalTo.attribute()), equalTo.value());
+        } else if (filter instanceof In) {
+            In in = (In) filter;
+            if (in.values().length == 0) {
+                return null;
+            }
+            StringBuilder builder = new StringBuilder("(");
+            String query;
+            for (int i = 0; i < in.values().length; i++) {
+                query = equalityQuery(indexedColumns.get(in.attribute()), in.values()[i]);
+                if (query == null) {
+                    return null;
+                }
+                if (i > 0) {
+                    builder.append(" OR ");
+                }
+                builder.append(query);
+            }
+            return builder.append(")").toString();
+        } else if (filter instanceof GreaterThan) {
+            GreaterThan gt = (GreaterThan) filter;
+            return rangeQuery(indexedColumns.get(gt.attribute()), gt.value(), true, false);
+        } else if (filter instanceof GreaterThanOrEqual) {
+            GreaterThanOrEqual gte = (GreaterThanOrEqual) filter;
+            return rangeQuery(indexedColumns.get(gte.attribute()), gte.value(), true, true);
+        } else if (filter instanceof LessThan) {
+            LessThan lt = (LessThan) filter;
+            return rangeQuery(indexedColumns.get(lt.attribute()), lt.value(), false, false);
+        } else if (filter instanceof LessThanOrEqual) {
+            LessThanOrEqual lte = (LessThanOrEqual) filter;
+            return rangeQuery(indexedColumns.get(lte.attribute()), lte.value(), false, true);
+        }
+        return null;
+    }
+
+    private static String equalityQuery(ColumnDefinition column, Object value) {
+        if (column == null || value == null) {
+            return null;
+        }
+        switch (column.getType()) {
+        case STRING:
+            if (!(value instanceof String)) {
+                return null;
+            }
+            return "(" + Constants.NON_TOKENIZED_FIELD_PREFIX + column.getName() + ": \"" +
+                   LuceneQueryUtils.escapeQuotedValue(value.toString()) + "\")";
+        case BOOLEAN:
+            if (!(value instanceof Boolean)) {
+                return null;
+            }
+            return "(" + column.getName() + ": \"" + value + "\")";
+        default:
+            if (!isNumericValue(column.getType(), value)) {
+                return null;
+            }
+            /* as a single value range, since a negative value on its own would read as a prohibited term */
+            return "(" + column.getName() + ": [" + value + " TO " + value + "])";
+        }
+    }
+
+    private static String rangeQuery(ColumnDefinition column, Object value, boolean lowerBound, boolean inclusive) {
+        if (column == null || value == null || !isNumericValue(column.getType(), value)) {
+            return null;
+        }
+        if (lowerBound) {
+            return "(" + column.getName() + ": " + (inclusive ? "[" : "{") + value + " TO " +
+                   LuceneQueryUtils.rangeExtentValue(column.getType(), true) + "])";
+        } else {
+            return "(" + column.getName() + ": [" + LuceneQueryUtils.rangeExtentValue(column.getType(), false) +
+                   " TO " + value + (inclusive ? "]" : "}") + ")";
+        }
+    }
+
+    private static boolean isNumericValue(ColumnType type, Object value) {
+        boolean integral = value instanceof Integer || value instanceof Long || value instanceof Short ||
+                           value instanceof Byte;
+        switch (type) {
+        case INTEGER:
+            return integral && ((Number) value).longValue() >= Integer.MIN_VALUE &&
+                   ((Number) value).longValue() <= Integer.MAX_VALUE;
+        case LONG:
+            return integral;
+        case FLOAT:
+        case DOUBLE:
+            return integral || value instanceof Float || value instanceof Double;
+        default:
+            return false;
+        }
+    }
+
+}
@@ -25,14 +25,24 @@ import org.apache.spark.sql.DataFrame;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SQLContext;
 import org.apache.spark.sql.sources.BaseRelation;
+import org.apache.spark.sql.sources.EqualTo;
+import org.apache.spark.sql.sources.Filter;
+import org.apache.spark.sql.sources.GreaterThan;
+import org.apache.spark.sql.sources.GreaterThanOrEqual;
 import org.apache.spark.sql.sources.InsertableRelation;
+import org.apache.spark.sql.sources.LessThan;
+import org.apache.spark.sql.sources.LessThanOrEqual;
+import org.apache.spark.sql.sources.PrunedFilteredScan;
 import org.apache.spark.sql.sources.TableScan;
 import org.apache.spark.sql.types.StructType;
+import org.wso2.carbon.analytics.dataservice.commons.SearchResultEntry;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataService;
 import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
 import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsTimeoutException;
 import org.wso2.carbon.analytics.spark.core.internal.ServiceHolder;
 import org.wso2.carbon.analytics.spark.core.rdd.AnalyticsRDD;
+import org.wso2.carbon.analytics.spark.core.util.AnalyticsConstants;
 import org.wso2.carbon.analytics.spark.core.util.CarbonScalaUtils;
 
 import scala.reflect.ClassTag$;
@@ -40,6 +50,7 @@ import scala.reflect.ClassTag$;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import static org.wso2.carbon.analytics.spark.core.util.AnalyticsCommonUtils.extractFieldsFromColumns;
 import static org.wso2.carbon.analytics.spark.core.util.AnalyticsCommonUtils.extractFieldsFromString;
@@ -49,11 +60,16 @@ import static org.wso2.carbon.analytics.spark.core.util.AnalyticsCommonUtils.isE
 /**
  * This class represents a Spark SQL relation with respect to the Analytics Data Service.
  */
-public class AnalyticsRelation extends BaseRelation implements TableScan,
+public class AnalyticsRelation extends BaseRelation implements TableScan, PrunedFilteredScan,
                                                                InsertableRelation, Serializable {
 
     private static final long serialVersionUID = -7773419083178608517L;
     private static final Log log = LogFactory.getLog(AnalyticsRelation.class);
+    /* the ids of the matching records are held in the driver, so the index is only used for this many records */
+    private static final int MAX_INDEX_SCAN_RECORDS = 1000000;
+    /* the index is used when at most this fraction of the records match, since a read by ids costs more per record */
+    private static final double MAX_INDEX_SCAN_SELECTIVITY = 0.1;
+    private static final long INDEX_WAIT_TIMEOUT = 5000;
 
     private SQLContext sqlContext;
     private StructType schema;
@@ -136,9 +152,19 @@ public class AnalyticsRelation extends BaseRelation implements TableScan,
         }
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public RDD<Row> buildScan() {
+        return this.buildScan(this.schema.fieldNames(), new Filter[0]);
+    }
+
+    /**
+     * Scans only the required columns, and the time range given by the filters on the record timestamp, if any.
+     * Spark evaluates all the filters again on the returned rows, so the filters which cannot be pushed down to the
+     * record store read are simply ignored here.
+     */
+    @SuppressWarnings("unchecked")
+    @Override
+    public RDD<Row> buildScan(String[] requiredColumns, Filter[] filters) {
         if (isEmptySchema(this.schema)) {
             String msg = "Unable to scan through the table as the schema " +
                          "is unavailable for " + this.tableName;
@@ -160,13 +186,136 @@ public class AnalyticsRelation extends BaseRelation implements TableScan,
             startTime = Long.MIN_VALUE;
             endTime = Long.MAX_VALUE;
         }
+        long[] timeRange = new long[] { startTime, endTime };
+        for (Filter filter : filters) {
+            this.narrowTimeRange(timeRange, filter);
+        }
+        if (timeRange[0] > timeRange[1]) {
+            /* contradicting filters, nothing to read */
+            timeRange[1] = timeRange[0];
+        }
+        if (!this.incEnable && timeRange[0] == Long.MIN_VALUE && timeRange[1] == Long.MAX_VALUE) {
+            List<String> ids = this.lookupMatchingIds(filters);
+            if (ids != null) {
+                logDebug("Reading " + ids.size() + " records of table " + this.tableName + 
+                         " matched by the index, for columns " + Arrays.toString(requiredColumns));
+                return new AnalyticsRDD(this.tenantId, this.tableName,
+                                        new ArrayList<>(Arrays.asList(requiredColumns)),
+                                        this.sqlContext.sparkContext(), scala.collection.Seq$.MODULE$.empty(),
+                                        ClassTag$.MODULE$.<Row>apply(Row.class), ids);
+            }
+        }
+        logDebug("Scanning table " + this.tableName + " for columns " + Arrays.toString(requiredColumns) +
+                 " in time range [" + timeRange[0] + ", " + timeRange[1] + ")");
         return new AnalyticsRDD(this.tenantId, this.tableName,
-                                new ArrayList<>(Arrays.asList(this.schema.fieldNames())),
+                                new ArrayList<>(Arrays.asList(requiredColumns)),
                                 this.sqlContext.sparkContext(), scala.collection.Seq$.MODULE$.empty(),
-                                ClassTag$.MODULE$.<Row>apply(Row.class), startTime, endTime, this.incEnable,
+                                ClassTag$.MODULE$.<Row>apply(Row.class), timeRange[0], timeRange[1], this.incEnable,
                                 this.incID);
     }
 
+    /**
+     * Looks up the ids of the records matching the filters on the indexed columns, if that is estimated to be
+     * cheaper than scanning the table.
+     *
+     * @return The ids, or null if the table should be scanned instead
+     */
+    private List<String> lookupMatchingIds(Filter[] filters) {
+        AnalyticsDataService dataService = ServiceHolder.getAnalyticsDataService();
+        try {
+            String query = AnalyticsFilterTranslator.toLuceneQuery(
+                    dataService.getTableSchema(this.tenantId, this.tableName), filters);
+            if (query == null) {
+                return null;
+            }
+            /* a column indexed after records were added to the table does not find them until re-indexing */
+            if (!dataService.isIndexComplete(this.tenantId, this.tableName)) {
+                logDebug("The index of table " + this.tableName + " is not complete, scanning the table");
+                return null;
+            }
+            /* records written before the query must be visible through the index as they are in a scan */
+            dataService.waitForIndexing(this.tenantId, this.tableName, INDEX_WAIT_TIMEOUT);
+            int matchCount = dataService.searchCount(this.tenantId, this.tableName, query);
+            if (matchCount > MAX_INDEX_SCAN_RECORDS) {
+                return null;
+            }
+            String recordStoreName = dataService.getRecordStoreNameByTable(this.tenantId, this.tableName);
+            if (dataService.isRecordCountSupported(recordStoreName)) {
+                long recordCount = dataService.getRecordCount(this.tenantId, this.tableName,
+                                                              Long.MIN_VALUE, Long.MAX_VALUE);
+                if (recordCount >= 0 && matchCount > recordCount * MAX_INDEX_SCAN_SELECTIVITY) {
+                    return null;
+                }
+            }
+            logDebug("Using the index of table " + this.tableName + " for query: " + query);
+            List<SearchResultEntry> entries = dataService.search(this.tenantId, this.tableName, query, 0,
+                                                                 matchCount);
+            List<String> ids = new ArrayList<>(entries.size());
+            for (SearchResultEntry entry : entries) {
+                ids.add(entry.getId());
+            }
+            return ids;
+        } catch (AnalyticsTimeoutException e) {
+            logDebug("Indexing of table " + this.tableName + " is behind, scanning the table: " + e.getMessage());
+            return null;
+        } catch (AnalyticsException e) {
+            log.warn("Unable to use the index of table " + this.tableName + ", scanning the table: " +
+                     e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Narrows the given [from, to) time range with the given filter, if it is a comparison of the record timestamp
+     * with an integral value.
+     */
+    private void narrowTimeRange(long[] timeRange, Filter filter) {
+        String attribute;
+        Object value;
+        if (filter instanceof EqualTo) {
+            attribute = ((EqualTo) filter).attribute();
+            value = ((EqualTo) filter).value();
+        } else if (filter instanceof GreaterThan) {
+            attribute = ((GreaterThan) filter).attribute();
+            value = ((GreaterThan) filter).value();
+        } else if (filter instanceof GreaterThanOrEqual) {
+            attribute = ((GreaterThanOrEqual) filter).attribute();
+            value = ((GreaterThanOrEqual) filter).value();
+        } else if (filter instanceof LessThan) {
+            attribute = ((LessThan) filter).attribute();
+            value = ((LessThan) filter).value();
+        } else if (filter instanceof LessThanOrEqual) {
+            attribute = ((LessThanOrEqual) filter).attribute();
+            value = ((LessThanOrEqual) filter).value();
+        } else {
+            return;
+        }
+        if (!AnalyticsConstants.TIMESTAMP_FIELD.equals(attribute) || !(value instanceof Long ||
+                value instanceof Integer || value instanceof Short || value instanceof Byte)) {
+            return;
+        }
+        long time = ((Number) value).longValue();
+        long from = Long.MIN_VALUE, to = Long.MAX_VALUE;
+        if (filter instanceof EqualTo) {
+            from = time;
+            to = nextTime(time);
+        } else if (filter instanceof GreaterThan) {
+            from = nextTime(time);
+        } else if (filter instanceof GreaterThanOrEqual) {
+            from = time;
+        } else if (filter instanceof LessThan) {
+            to = time;
+        } else {
+            to = nextTime(time);
+        }
+        timeRange[0] = Math.max(timeRange[0], from);
+        timeRange[1] = Math.min(timeRange[1], to);
+    }
+
+    private static long nextTime(long time) {
+        return time == Long.MAX_VALUE ? time : time + 1;
+    }
+
     private void logDebug(String s) {
         if (log.isDebugEnabled()) {
             log.debug(s);
@@ -204,7 +353,7 @@ public class AnalyticsRelation extends BaseRelation implements TableScan,
                 dataService.setTableSchema(this.tenantId, this.tableName, tempSchema);
             }
 
-            writeDataFrameToDAL(data);
+            writeDataFrameToDAL(data, tempSchema);
         } catch (AnalyticsException e) {
             String msg = "Error while inserting data into table " + this.tableName + " : " + e.getMessage();
             log.error(msg, e);
@@ -212,13 +361,12 @@ public class AnalyticsRelation extends BaseRelation implements TableScan,
         }
     }
 
-    private void writeDataFrameToDAL(DataFrame data) {
-        for (int i = 0; i < data.rdd().partitions().length; i++) {
-            data.sqlContext().sparkContext().runJob(data.rdd(),
-                                                    new AnalyticsWritingFunction(tenantId, tableName, data.schema()),
-                                                    CarbonScalaUtils.getNumberSeq(i, i + 1), false,
-                                                    ClassTag$.MODULE$.Unit());
-        }
+    private void writeDataFrameToDAL(DataFrame data, AnalyticsSchema tableSchema) {
+        /* a single job over all the partitions, so that they are written in parallel */
+        data.sqlContext().sparkContext().runJob(data.rdd(), new AnalyticsWritingFunction(tenantId, tableName,
+                                                                                         data.schema(), tableSchema),
+                                                CarbonScalaUtils.getNumberSeq(0, data.rdd().partitions().length),
+                                                false, ClassTag$.MODULE$.Unit());
     }
 
 
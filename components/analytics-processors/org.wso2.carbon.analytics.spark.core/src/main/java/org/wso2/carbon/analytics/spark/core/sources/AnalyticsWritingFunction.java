@@ -20,10 +20,12 @@ package org.wso2.carbon.analytics.spark.core.sources;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.spark.TaskContext;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.types.StructType;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataService;
 import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataServiceImpl;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
 import org.wso2.carbon.analytics.datasource.commons.Record;
 import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
 import org.wso2.carbon.analytics.spark.core.internal.ServiceHolder;
@@ -33,10 +35,13 @@ import scala.runtime.AbstractFunction1;
 import scala.runtime.BoxedUnit;
 
 import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 
 public class AnalyticsWritingFunction extends AbstractFunction1<Iterator<Row>, BoxedUnit>
         implements Serializable {
@@ -47,11 +52,21 @@ public class AnalyticsWritingFunction extends AbstractFunction1<Iterator<Row>, B
     private int tId;
     private String tName;
     private StructType sch;
+    /* the table schema the write was planned against, or null if it is not known */
+    private AnalyticsSchema tableSchema;
+    /* identifies this write, for deriving the record ids, which stay the same when a partition is written again */
+    private String writeId;
 
     public AnalyticsWritingFunction(int tId, String tName, StructType sch) {
+        this(tId, tName, sch, null);
+    }
+
+    public AnalyticsWritingFunction(int tId, String tName, StructType sch, AnalyticsSchema tableSchema) {
         this.tId = tId;
         this.tName = tName;
         this.sch = sch;
+        this.tableSchema = tableSchema;
+        this.writeId = UUID.randomUUID().toString();
     }
 
     /**
@@ -62,77 +77,109 @@ public class AnalyticsWritingFunction extends AbstractFunction1<Iterator<Row>, B
      */
     @Override
     public BoxedUnit apply(Iterator<Row> iterator) {
-        List<Record> records = new ArrayList<>();
         AnalyticsDataService ads = ServiceHolder.getAnalyticsDataService();
-        if (ads instanceof AnalyticsDataServiceImpl) {
-            /* we have to invalidate the table information, since here, if some other node
-            changes the table information, we cannot know about it (no cluster communication) */
-            ((AnalyticsDataServiceImpl) ads).invalidateAnalyticsTableInfo(this.tId, this.tName);
-        }
+        AnalyticsSchema schema = this.lookupTableSchema(ads);
+        String idPrefix = this.lookupRecordIdPrefix(schema);
+        String[] colNames = this.sch.fieldNames();
+        int timestampIndex = Arrays.asList(colNames).indexOf(AnalyticsConstants.TIMESTAMP_FIELD);
+        /* the capacity which holds all the values without resizing the maps */
+        int mapCapacity = (int) (colNames.length / 0.75f) + 1;
+        /* the same list is used for all the batches, the data service does not keep it after put returns */
+        List<Record> records = new ArrayList<>(AnalyticsConstants.MAX_RECORDS);
+        long rowIndex = 0;
+        Record record;
         while (iterator.hasNext()) {
-            if (records.size() < AnalyticsConstants.MAX_RECORDS) {
-                Row row = iterator.next();
-                records.add(convertRowAndSchemaToRecord(row, this.sch));
-
-                if (records.size() == AnalyticsConstants.MAX_RECORDS) {
-                    try {
-                        ads.put(records);
-                    } catch (AnalyticsException e) {
-                        String msg = "Error while inserting data into table " + this.tName + ": " + e.getMessage();
-                        log.error(msg, e);
-                        throw new RuntimeException(msg, e);
-                    }
-                    records.clear();
-                }
+            record = this.convertRowToRecord(iterator.next(), colNames, timestampIndex, mapCapacity);
+            if (idPrefix != null) {
+                record.setId(this.generateRecordId(idPrefix, rowIndex));
+            }
+            rowIndex++;
+            records.add(record);
+            if (records.size() == AnalyticsConstants.MAX_RECORDS) {
+                this.putRecords(ads, records);
             }
         }
-
         if (!records.isEmpty()) {
-            try {
-                ads.put(records);
-            } catch (AnalyticsException e) {
-                String msg = "Error while pushing data to the dataservice: " + e.getMessage();
-                log.error(msg, e);
-                throw new RuntimeException(msg, e);
-            }
+            this.putRecords(ads, records);
         }
         return BoxedUnit.UNIT;
     }
 
-    private Map<String, Object> convertRowAndSchemaToValuesMap(Row row, StructType schema) {
-        String[] colNames = schema.fieldNames();
-        Map<String, Object> result = new HashMap<>();
-        for (int i = 0; i < row.length(); i++) {
-            result.put(colNames[i], row.get(i));
+    private void putRecords(AnalyticsDataService ads, List<Record> records) {
+        try {
+            ads.put(records);
+        } catch (AnalyticsException e) {
+            String msg = "Error while inserting data into table " + this.tName + ": " + e.getMessage();
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
         }
-        return result;
+        records.clear();
     }
 
-    private Record convertRowAndSchemaToRecord(Row row, StructType schema) {
-        String[] colNames = schema.fieldNames();
-        Map<String, Object> result = new HashMap<>();
-        long timestamp = -1;
-        for (int i = 0; i < row.length(); i++) {
-            if (colNames[i].equals(AnalyticsConstants.TIMESTAMP_FIELD)) {
-                timestamp = row.getLong(i);
-            } else {
-                result.put(colNames[i], row.get(i));
+    /**
+     * Returns the current schema of the table, as read from the record store. The table information cached in this
+     * node is invalidated on every task, so each task reads the table information from the record store once.
+     * The table information has no version marker which could be checked instead, and the schema the write was
+     * planned against cannot tell either, as the driver and the executor may be the same node, sharing the same
+     * cache, so invalidating only on a changed schema is not done.
+     */
+    private AnalyticsSchema lookupTableSchema(AnalyticsDataService ads) {
+        try {
+            if (ads instanceof AnalyticsDataServiceImpl) {
+                ((AnalyticsDataServiceImpl) ads).invalidateAnalyticsTableInfo(this.tId, this.tName);
             }
+            return ads.getTableSchema(this.tId, this.tName);
+        } catch (AnalyticsException e) {
+            String msg = "Error while reading the schema of table " + this.tName + ": " + e.getMessage();
+            log.error(msg, e);
+            throw new RuntimeException(msg, e);
         }
+    }
 
+    /**
+     * Returns the prefix of the ids given to the records of this partition, or null if the table may have primary
+     * keys, in which case the ids are left to the data service, which derives them from the primary key values.
+     * Since explicit ids take precedence over the primary keys, they are only given when neither the schema the
+     * write was planned against nor the current one has primary keys. Task retries write the same ids, so a
+     * partition which is written again overwrites its earlier records instead of duplicating them.
+     */
+    private String lookupRecordIdPrefix(AnalyticsSchema schema) {
+        if (hasPrimaryKeys(schema) || hasPrimaryKeys(this.tableSchema)) {
+            return null;
+        }
+        TaskContext context = TaskContext.get();
+        if (context == null) {
+            return null;
+        }
+        return this.writeId + ":" + context.partitionId() + ":";
+    }
+
+    private static boolean hasPrimaryKeys(AnalyticsSchema schema) {
+        return schema != null && schema.getPrimaryKeys() != null && !schema.getPrimaryKeys().isEmpty();
+    }
+
+    private String generateRecordId(String idPrefix, long rowIndex) {
+        try {
+            return UUID.nameUUIDFromBytes((idPrefix + rowIndex).getBytes("UTF-8")).toString();
+        } catch (UnsupportedEncodingException e) {
+            /* this wouldn't happen */
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Record convertRowToRecord(Row row, String[] colNames, int timestampIndex, int mapCapacity) {
+        Map<String, Object> result = new HashMap<>(mapCapacity);
+        for (int i = 0; i < colNames.length; i++) {
+            if (i != timestampIndex) {
+                result.put(colNames[i], row.get(i));
+            }
+        }
+        long timestamp = timestampIndex >= 0 ? row.getLong(timestampIndex) : -1;
         if (timestamp < 0) { // timestamp has not being set
             return new Record(this.tId, this.tName, result);
         } else {
-            logDebug("_timestamp found in a row. hence, setting the timestamp in the corresponding" +
-                     " record");
             return new Record(this.tId, this.tName, result, timestamp);
         }
     }
 
-    private void logDebug(String msg) {
-        if (log.isDebugEnabled()) {
-            log.debug(msg);
-        }
-    }
-
 }
@@ -178,7 +178,7 @@ public class CompressedEventAnalyticsRelation extends BaseRelation implements Ta
                 dataService.createTable(this.tenantId, this.recordStore, this.tableName);
                 dataService.setTableSchema(this.tenantId, this.tableName, tempSchema);
             }
-            writeDataFrameToDAL(data);
+            writeDataFrameToDAL(data, tempSchema);
         } catch (AnalyticsException e) {
             String msg = "Error while inserting data into table " + this.tableName + " : " + e.getMessage();
             log.error(msg, e);
@@ -186,11 +186,12 @@ public class CompressedEventAnalyticsRelation extends BaseRelation implements Ta
         }
     }
 
-    private void writeDataFrameToDAL(DataFrame data) {
-        for (int i = 0; i < data.rdd().partitions().length; i++) {
-            data.sqlContext().sparkContext().runJob(data.rdd(), new AnalyticsWritingFunction(tenantId, tableName,
-                data.schema()), CarbonScalaUtils.getNumberSeq(i, i + 1), false, ClassTag$.MODULE$.Unit());
-        }
+    private void writeDataFrameToDAL(DataFrame data, AnalyticsSchema tableSchema) {
+        /* a single job over all the partitions, so that they are written in parallel */
+        data.sqlContext().sparkContext().runJob(data.rdd(), new AnalyticsWritingFunction(tenantId, tableName,
+                                                                                         data.schema(), tableSchema),
+                                                CarbonScalaUtils.getNumberSeq(0, data.rdd().partitions().length),
+                                                false, ClassTag$.MODULE$.Unit());
     }
     
     private void setIncParams(String incParamStr) {
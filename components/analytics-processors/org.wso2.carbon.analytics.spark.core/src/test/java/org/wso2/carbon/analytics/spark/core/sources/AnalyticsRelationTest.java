@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ * 
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.analytics.spark.core.sources;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataService;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema.ColumnType;
+import org.wso2.carbon.analytics.datasource.commons.ColumnDefinition;
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.spark.core.SparkTestBase;
+import org.wso2.carbon.analytics.spark.core.internal.ServiceHolder;
+import org.wso2.carbon.analytics.spark.core.internal.SparkAnalyticsExecutor;
+import org.wso2.carbon.analytics.spark.core.util.AnalyticsQueryResult;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class tests the scans done through the analytics relation.
+ */
+public class AnalyticsRelationTest extends SparkTestBase {
+
+    /**
+     * Creates a data service delegating to the given one, which records the arguments of the calls done to each of
+     * its methods by name.
+     */
+    private AnalyticsDataService createRecordingService(final AnalyticsDataService service,
+                                                        final Map<String, List<Object[]>> serviceCalls) {
+        return (AnalyticsDataService) Proxy.newProxyInstance(AnalyticsDataService.class.getClassLoader(),
+                new Class<?>[] { AnalyticsDataService.class }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                List<Object[]> calls = serviceCalls.get(method.getName());
+                if (calls == null) {
+                    calls = Collections.synchronizedList(new ArrayList<Object[]>());
+                    serviceCalls.put(method.getName(), calls);
+                }
+                calls.add(args);
+                try {
+                    return method.invoke(service, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the arguments of the single time range read done through the data service.
+     */
+    private Object[] getRangeRead(Map<String, List<Object[]>> serviceCalls) {
+        List<Object[]> reads = new ArrayList<>();
+        if (serviceCalls.get("get") != null) {
+            for (Object[] args : serviceCalls.get("get")) {
+                /* (tenantId, tableName, numPartitionsHint, columns, timeFrom, timeTo, recordsFrom, recordsCount) */
+                if (args.length == 8) {
+                    reads.add(args);
+                }
+            }
+        }
+        Assert.assertEquals(reads.size(), 1);
+        return reads.get(0);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testPrunedFilteredScan() throws AnalyticsException {
+        System.out.println(testString("START : Pruned filtered scan tester"));
+        long time = System.currentTimeMillis();
+        SparkAnalyticsExecutor ex = ServiceHolder.getAnalyticskExecutor();
+        this.service.deleteTable(1, "Log");
+        this.service.createTable(1, "Log");
+        this.service.put(generateRecords(1, "Log", time, 5, 5));
+        this.service.put(generateRecords(1, "Log", time + 1000, 3, 2));
+        ex.executeQuery(1, "CREATE TEMPORARY TABLE Log USING CarbonAnalytics " + "OPTIONS" + "(tableName \"Log\","
+                        + "schema \"log_level STRING, message STRING, tenant INTEGER, _timestamp LONG\"" + ")");
+
+        Map<String, List<Object[]>> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createRecordingService(this.service, serviceCalls));
+        try {
+            AnalyticsQueryResult result = ex.executeQuery(1, "SELECT log_level FROM Log WHERE _timestamp >= " +
+                    (time + 1000));
+            Assert.assertEquals(result.getRows().size(), 5);
+            for (List<Object> row : result.getRows()) {
+                Assert.assertEquals(row.size(), 1);
+            }
+            /* only the selected and filtered columns are read, in the time range of the filter */
+            Object[] read = this.getRangeRead(serviceCalls);
+            List<String> columns = (List<String>) read[3];
+            Assert.assertTrue(columns.contains("log_level"), "Read columns: " + columns);
+            Assert.assertFalse(columns.contains("message"), "Read columns: " + columns);
+            Assert.assertFalse(columns.contains("tenant"), "Read columns: " + columns);
+            Assert.assertEquals(read[4], time + 1000);
+            Assert.assertEquals(read[5], Long.MAX_VALUE);
+            serviceCalls.clear();
+            result = ex.executeQuery(1, "SELECT count(*) FROM Log WHERE _timestamp < " + (time + 1000));
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 10L);
+            read = this.getRangeRead(serviceCalls);
+            Assert.assertFalse(((List<String>) read[3]).contains("message"));
+            Assert.assertEquals(read[4], Long.MIN_VALUE);
+            Assert.assertEquals(read[5], time + 1000);
+            serviceCalls.clear();
+            result = ex.executeQuery(1, "SELECT * FROM Log WHERE _timestamp > " + time + " AND log_level = 'ERROR'");
+            Assert.assertEquals(result.getRows().size(), 3);
+            read = this.getRangeRead(serviceCalls);
+            Assert.assertTrue(((List<String>) read[3]).containsAll(Arrays.asList("log_level", "message", "tenant")));
+            Assert.assertEquals(read[4], time + 1);
+            Assert.assertEquals(read[5], Long.MAX_VALUE);
+            serviceCalls.clear();
+            /* contradicting time filters read an empty time range */
+            result = ex.executeQuery(1, "SELECT message FROM Log WHERE _timestamp = " + time + 
+                    " AND _timestamp > " + time);
+            Assert.assertEquals(result.getRows().size(), 0);
+            read = this.getRangeRead(serviceCalls);
+            Assert.assertEquals(read[4], read[5]);
+            serviceCalls.clear();
+            /* a disjunction cannot narrow the time range */
+            result = ex.executeQuery(1, "SELECT message FROM Log WHERE _timestamp <= " + time + 
+                    " OR log_level = 'ERROR'");
+            Assert.assertEquals(result.getRows().size(), 13);
+            read = this.getRangeRead(serviceCalls);
+            Assert.assertEquals(read[4], Long.MIN_VALUE);
+            Assert.assertEquals(read[5], Long.MAX_VALUE);
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(1, "Log");
+
+        System.out.println(testString("END: Pruned filtered scan tester"));
+    }
+
+    private int getCallCount(Map<String, List<Object[]>> serviceCalls, String method) {
+        List<Object[]> calls = serviceCalls.get(method);
+        return calls == null ? 0 : calls.size();
+    }
+
+    @Test
+    public void testIndexedScan() throws AnalyticsException {
+        System.out.println(testString("START : Indexed scan tester"));
+        long time = System.currentTimeMillis();
+        SparkAnalyticsExecutor ex = ServiceHolder.getAnalyticskExecutor();
+        this.service.deleteTable(1, "Log");
+        this.service.createTable(1, "Log");
+        List<ColumnDefinition> columns = new ArrayList<>();
+        columns.add(new ColumnDefinition("log_level", ColumnType.STRING, true, false));
+        columns.add(new ColumnDefinition("message", ColumnType.STRING));
+        columns.add(new ColumnDefinition("tenant", ColumnType.INTEGER, true, false));
+        this.service.setTableSchema(1, "Log", new AnalyticsSchema(columns, null));
+        this.service.put(generateRecords(1, "Log", time, 3, 100));
+        ex.executeQuery(1, "CREATE TEMPORARY TABLE Log USING CarbonAnalytics OPTIONS (tableName \"Log\")");
+
+        Map<String, List<Object[]>> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createRecordingService(this.service, serviceCalls));
+        try {
+            /* the columns were indexed at table creation, so the selective filters are looked up in the index */
+            AnalyticsQueryResult result = ex.executeQuery(1, "SELECT log_level, message FROM Log WHERE " +
+                    "log_level = 'ERROR'");
+            Assert.assertEquals(result.getRows().size(), 3);
+            for (List<Object> row : result.getRows()) {
+                Assert.assertEquals(row.get(0), "ERROR");
+            }
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 1);
+            serviceCalls.clear();
+            result = ex.executeQuery(1, "SELECT count(*) FROM Log WHERE log_level IN ('ERROR', 'WARN') AND " +
+                    "tenant >= 1");
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 3L);
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 1);
+            serviceCalls.clear();
+            result = ex.executeQuery(1, "SELECT count(*) FROM Log WHERE log_level = 'ERROR' AND tenant > 1");
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 0L);
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 1);
+            serviceCalls.clear();
+            /* most of the records match, so the table is scanned */
+            result = ex.executeQuery(1, "SELECT count(*) FROM Log WHERE log_level = 'INFO'");
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 100L);
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 0);
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(1, "Log");
+
+        System.out.println(testString("END: Indexed scan tester"));
+    }
+
+    @Test
+    public void testIndexedScanAfterSchemaChange() throws Exception {
+        System.out.println(testString("START : Indexed scan after schema change tester"));
+        long time = System.currentTimeMillis();
+        SparkAnalyticsExecutor ex = ServiceHolder.getAnalyticskExecutor();
+        this.service.deleteTable(1, "Log2");
+        this.service.createTable(1, "Log2");
+        List<ColumnDefinition> columns = new ArrayList<>();
+        columns.add(new ColumnDefinition("log_level", ColumnType.STRING));
+        columns.add(new ColumnDefinition("message", ColumnType.STRING));
+        columns.add(new ColumnDefinition("tenant", ColumnType.INTEGER));
+        this.service.setTableSchema(1, "Log2", new AnalyticsSchema(columns, null));
+        this.service.put(generateRecords(1, "Log2", time, 3, 100));
+        /* the records added before the column was indexed are not in its index */
+        columns.set(0, new ColumnDefinition("log_level", ColumnType.STRING, true, false));
+        this.service.setTableSchema(1, "Log2", new AnalyticsSchema(columns, null));
+        Assert.assertFalse(this.service.isIndexComplete(1, "Log2"));
+        ex.executeQuery(1, "CREATE TEMPORARY TABLE Log2 USING CarbonAnalytics OPTIONS (tableName \"Log2\")");
+
+        Map<String, List<Object[]>> serviceCalls = new ConcurrentHashMap<>();
+        ServiceHolder.setAnalyticsDataService(this.createRecordingService(this.service, serviceCalls));
+        try {
+            AnalyticsQueryResult result = ex.executeQuery(1, "SELECT count(*) FROM Log2 WHERE " +
+                    "log_level = 'ERROR'");
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 3L);
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 0);
+            /* re-indexing the whole table completes the index */
+            this.service.reIndex(1, "Log2", Long.MIN_VALUE, Long.MAX_VALUE);
+            for (int i = 0; i < 100 && !this.service.isIndexComplete(1, "Log2"); i++) {
+                Thread.sleep(100);
+            }
+            Assert.assertTrue(this.service.isIndexComplete(1, "Log2"));
+            serviceCalls.clear();
+            result = ex.executeQuery(1, "SELECT count(*) FROM Log2 WHERE log_level = 'ERROR'");
+            Assert.assertEquals(((Number) result.getRows().get(0).get(0)).longValue(), 3L);
+            Assert.assertEquals(this.getCallCount(serviceCalls, "search"), 1);
+        } finally {
+            ServiceHolder.setAnalyticsDataService(this.service);
+        }
+        this.service.deleteTable(1, "Log2");
+
+        System.out.println(testString("END: Indexed scan after schema change tester"));
+    }
+}
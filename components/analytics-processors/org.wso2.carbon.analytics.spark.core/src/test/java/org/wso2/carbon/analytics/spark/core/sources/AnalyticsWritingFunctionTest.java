@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.analytics.spark.core.sources;
+
+import org.apache.spark.SparkContext;
+import org.apache.spark.api.java.JavaSparkContext;
+import org.apache.spark.rdd.RDD;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+import org.wso2.carbon.analytics.dataservice.core.AnalyticsDataServiceUtils;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema;
+import org.wso2.carbon.analytics.datasource.commons.AnalyticsSchema.ColumnType;
+import org.wso2.carbon.analytics.datasource.commons.ColumnDefinition;
+import org.wso2.carbon.analytics.datasource.commons.Record;
+import org.wso2.carbon.analytics.datasource.commons.exception.AnalyticsException;
+import org.wso2.carbon.analytics.spark.core.SparkTestBase;
+import org.wso2.carbon.analytics.spark.core.util.CarbonScalaUtils;
+import scala.reflect.ClassTag$;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class tests the record ids written by the analytics writing function, when partitions are written again.
+ */
+public class AnalyticsWritingFunctionTest extends SparkTestBase {
+
+    private static final int PARTITION_COUNT = 4;
+
+    private static final int ROW_COUNT = 100;
+
+    private static final StructType ROW_SCHEMA = DataTypes.createStructType(new StructField[] {
+            DataTypes.createStructField("symbol", DataTypes.StringType, true),
+            DataTypes.createStructField("price", DataTypes.IntegerType, true) });
+
+    private RDD<Row> createRows(int symbolCount) {
+        List<Row> rows = new ArrayList<>(ROW_COUNT);
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows.add(RowFactory.create("S" + (i % symbolCount), i));
+        }
+        return new JavaSparkContext(SparkContext.getOrCreate()).parallelize(rows, PARTITION_COUNT).rdd();
+    }
+
+    private void write(RDD<Row> rows, AnalyticsWritingFunction function) {
+        rows.sparkContext().runJob(rows, function, CarbonScalaUtils.getNumberSeq(0, PARTITION_COUNT), false,
+                                   ClassTag$.MODULE$.Unit());
+    }
+
+    private Set<String> readIds(String tableName) throws AnalyticsException {
+        Set<String> ids = new HashSet<>();
+        for (Record record : AnalyticsDataServiceUtils.listRecords(this.service, this.service.get(1, tableName, 1,
+                null, Long.MIN_VALUE, Long.MAX_VALUE, 0, -1))) {
+            ids.add(record.getId());
+        }
+        return ids;
+    }
+
+    private AnalyticsSchema createTable(String tableName, List<String> primaryKeys) throws AnalyticsException {
+        this.service.deleteTable(1, tableName);
+        this.service.createTable(1, tableName);
+        List<ColumnDefinition> columns = new ArrayList<>();
+        columns.add(new ColumnDefinition("symbol", ColumnType.STRING));
+        columns.add(new ColumnDefinition("price", ColumnType.INTEGER));
+        AnalyticsSchema schema = new AnalyticsSchema(columns, primaryKeys);
+        this.service.setTableSchema(1, tableName, schema);
+        return schema;
+    }
+
+    @Test
+    public void testRetriedWriteIds() throws AnalyticsException {
+        System.out.println(testString("START : Retried write ids tester"));
+        AnalyticsSchema schema = this.createTable("Stocks", null);
+        RDD<Row> rows = this.createRows(ROW_COUNT);
+        AnalyticsWritingFunction function = new AnalyticsWritingFunction(1, "Stocks", ROW_SCHEMA, schema);
+        this.write(rows, function);
+        Set<String> ids = this.readIds("Stocks");
+        Assert.assertEquals(ids.size(), ROW_COUNT);
+        /* the partitions written again by the same write, as in task retries, overwrite the same records */
+        this.write(rows, function);
+        Assert.assertEquals(this.readIds("Stocks"), ids);
+        /* whereas another write of the same rows adds new records */
+        this.write(rows, new AnalyticsWritingFunction(1, "Stocks", ROW_SCHEMA, schema));
+        Assert.assertEquals(this.readIds("Stocks").size(), ROW_COUNT * 2);
+        this.service.deleteTable(1, "Stocks");
+        System.out.println(testString("END: Retried write ids tester"));
+    }
+
+    @Test
+    public void testPrimaryKeyWriteIds() throws AnalyticsException {
+        System.out.println(testString("START : Primary key write ids tester"));
+        AnalyticsSchema plannedSchema = this.createTable("Stocks2", null);
+        /* the primary keys are added after the write was planned */
+        this.createTable("Stocks2", new ArrayList<>(Arrays.asList("symbol")));
+        RDD<Row> rows = this.createRows(10);
+        AnalyticsWritingFunction function = new AnalyticsWritingFunction(1, "Stocks2", ROW_SCHEMA, plannedSchema);
+        this.write(rows, function);
+        /* the ids are derived from the primary key values, so there is one record per symbol */
+        Assert.assertEquals(this.readIds("Stocks2").size(), 10);
+        this.write(rows, function);
+        this.write(rows, new AnalyticsWritingFunction(1, "Stocks2", ROW_SCHEMA, plannedSchema));
+        Assert.assertEquals(this.readIds("Stocks2").size(), 10);
+        this.service.deleteTable(1, "Stocks2");
+        System.out.println(testString("END: Primary key write ids tester"));
+    }
+}